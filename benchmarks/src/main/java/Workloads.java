@@ -0,0 +1,97 @@
+import mandelbrot.bench.Workload;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * Factories for the benchmark workloads, see Workload. Lives in the unnamed package next to the
+ * renderer so it can reach the package-private kernels; the benchmarks only pass strings in.
+ */
+public final class Workloads {
+
+    /**
+     * Canonical views, center and width: the home view, seahorse valley, the period-3 minibrot on the
+     * real axis and a view that lies entirely inside the main cardioid
+     */
+    private static final String[][] VIEWS = {
+            {"FULL", "-0.5", "0", "3"},
+            {"SEAHORSE", "-0.745", "0.113", "0.01"},
+            {"MINIBROT", "-1.7548776662", "0", "0.05"},
+            {"INTERIOR", "-0.2", "0", "0.5"},
+    };
+
+    /**
+     * Rows the pixel kernels run along: one that escapes within a few iterations, one through the
+     * boundary of seahorse valley, one inside the cardioid
+     */
+    private static final String[][] REGIONS = {
+            {"EXTERIOR", "0.75", "0.9", "0.5"},
+            {"BOUNDARY", "-0.745", "0.113", "0.01"},
+            {"INTERIOR", "-0.2", "0", "0.5"},
+    };
+
+    private Workloads() {
+    }
+
+    /**
+     * One row of width pixels through the region, iterated and colored with the kernel of the given
+     * precision (FLOAT or DOUBLE), the per-pixel unit of work of every frame
+     */
+    public static Workload pixels(String region, String mode, String precision, boolean simd, int width,
+                                  int maxIter) {
+        RenderRequest request = request(REGIONS, region, mode, width, 1, maxIter);
+        MandelbrotRenderer.Precision tier = MandelbrotRenderer.Precision.valueOf(precision);
+        RenderFrame frame = new RenderFrame(request, new int[width], new IterationField(width, 1), true, null,
+                tier, null, simd);
+        return () -> {
+            frame.renderTile(0, 0, width, 1);
+            return frame.pixels[width / 2];
+        };
+    }
+
+    /**
+     * A whole frame of a canonical view, on all cores or on the calling thread. Buffers are reused
+     * between runs like the panel does, so only rendering is measured.
+     */
+    public static Workload frame(String view, String mode, boolean multithreaded, int width, int height,
+                                 int maxIter) {
+        RenderRequest request = request(VIEWS, view, mode, width, height, maxIter);
+        MandelbrotRenderer renderer = new MandelbrotRenderer();
+        int[] pixels = new int[width * height];
+        IterationField field = new IterationField(width, height);
+        return new Workload() {
+            @Override
+            public int run() {
+                return renderer.render(request, multithreaded, pixels, field).getPixels()[pixels.length / 2];
+            }
+
+            @Override
+            public void close() {
+                renderer.shutdown();
+            }
+        };
+    }
+
+    /**
+     * Generates one of the viewer's palettes, by name, or the gradient of a custom base color for "Gradient"
+     */
+    public static Workload palette(String name) {
+        if (name.equalsIgnoreCase("Gradient")) {
+            return () -> MandelbrotPalettes.generatePalette(0x3366FF)[128];
+        }
+        MandelbrotPalettes.byName(name); //fail during setup for unknown names
+        return () -> MandelbrotPalettes.byName(name)[128];
+    }
+
+    private static RenderRequest request(String[][] table, String name, String mode, int width, int height,
+                                         int maxIter) {
+        for (String[] entry : table) {
+            if (entry[0].equals(name)) {
+                return RenderRequest.centered(new BigDecimal(entry[1]), new BigDecimal(entry[2]),
+                        Double.parseDouble(entry[3]), width, height, maxIter,
+                        ColorMode.valueOf(mode.toUpperCase(Locale.ROOT)), MandelbrotPalettes.generateFirePalette());
+            }
+        }
+        throw new IllegalArgumentException("Unknown view: " + name);
+    }
+}
@@ -0,0 +1,57 @@
+package mandelbrot.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole frames of the canonical views, single-threaded and on the work-stealing pool, with the
+ * renderer's default settings (AUTO precision, interior checks on, no subdivision)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+
+    @Param({"FULL", "SEAHORSE", "MINIBROT", "INTERIOR"})
+    public String view;
+
+    @Param({"ESCAPE_TIME", "SMOOTH", "ORBIT_TRAP"})
+    public String mode;
+
+    @Param("640")
+    public int width;
+
+    @Param("360")
+    public int height;
+
+    @Param("1000")
+    public int maxIter;
+
+    private Workload singleThreaded, multithreaded;
+
+    @Setup
+    public void setup() {
+        singleThreaded = Workload.create("frame", view, mode, false, width, height, maxIter);
+        multithreaded = Workload.create("frame", view, mode, true, width, height, maxIter);
+    }
+
+    @TearDown
+    public void tearDown() {
+        singleThreaded.close();
+        multithreaded.close();
+    }
+
+    @Benchmark
+    public int singleThreaded() {
+        return singleThreaded.run();
+    }
+
+    @Benchmark
+    public int multithreaded() {
+        return multithreaded.run();
+    }
+}
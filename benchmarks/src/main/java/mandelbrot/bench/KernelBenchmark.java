@@ -0,0 +1,49 @@
+package mandelbrot.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per pixel of the escape time, smooth and orbit trap kernels (what used to be mandelbrot,
+ * getSmoothColor and orbitTrapColor in the panel), iteration plus coloring, along a row of pixels
+ * outside the set, across the boundary and inside the cardioid. Scalar and SIMD, floats and doubles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    static final int ROW = 256;
+
+    @Param({"EXTERIOR", "BOUNDARY", "INTERIOR"})
+    public String region;
+
+    @Param({"ESCAPE_TIME", "SMOOTH", "ORBIT_TRAP"})
+    public String mode;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public String precision;
+
+    @Param({"false", "true"})
+    public boolean simd;
+
+    @Param("1000")
+    public int maxIter;
+
+    private Workload row;
+
+    @Setup
+    public void setup() {
+        row = Workload.create("pixels", region, mode, precision, simd, ROW, maxIter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW)
+    public int pixel() {
+        return row.run();
+    }
+}
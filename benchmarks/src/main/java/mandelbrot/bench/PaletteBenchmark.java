@@ -0,0 +1,32 @@
+package mandelbrot.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The palette generators, run on every palette switch in the viewer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaletteBenchmark {
+
+    @Param({"Grayscale", "Orange-Black", "Cyan", "Blue-Green", "Fire", "HSV1", "HSV2", "HSV3", "Gradient"})
+    public String palette;
+
+    private Workload generator;
+
+    @Setup
+    public void setup() {
+        generator = Workload.create("palette", palette);
+    }
+
+    @Benchmark
+    public int generate() {
+        return generator.run();
+    }
+}
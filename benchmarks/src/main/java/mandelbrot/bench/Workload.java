@@ -0,0 +1,43 @@
+package mandelbrot.bench;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * One prepared piece of renderer work, run once per benchmark operation. The renderer lives in the
+ * unnamed package, which code in a named package can't refer to, and JMH refuses benchmarks in the
+ * unnamed package. So the benchmarks build their workloads through the Workloads class over there,
+ * looked up by name once during setup; run() is then a plain interface call the JIT inlines.
+ */
+public interface Workload extends AutoCloseable {
+
+    /**
+     * Does the work once and returns something derived from the result, for the Blackhole
+     */
+    int run();
+
+    /**
+     * Releases threads the workload holds
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Calls the static factory Workloads.name with the given arguments
+     */
+    static Workload create(String name, Object... args) {
+        try {
+            Class<?> factory = Class.forName("Workloads");
+            for (var method : factory.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                    return (Workload) method.invoke(null, args);
+                }
+            }
+            throw new IllegalArgumentException("No workload " + name + " with " + args.length + " arguments");
+        } catch (ClassNotFoundException | IllegalAccessException e) {
+            throw new IllegalStateException("Renderer classes missing from the benchmark jar", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
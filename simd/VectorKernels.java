@@ -0,0 +1,462 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the FLOAT and DOUBLE kernels of RenderFrame, on the incubating Vector API.
+ * A row is cut into groups of adjacent pixels, one per lane, that iterate in lockstep: a lane
+ * that escapes or repeats drops out of the active mask and keeps its last z. A group costs as
+ * much as its slowest lane, so once no more than HANDOFF lanes are left the group stops and the
+ * remaining lanes finish one by one in plain loops that pick up their z, count and saved point.
+ * Every lane does the same operations in the same order as the scalar loop, so the field comes
+ * out bit for bit the same, cycle detection included: all active lanes have the same iteration
+ * count, so they save z at the same powers of two.
+ *
+ * Lives in its own source root because it needs --add-modules jdk.incubator.vector at compile
+ * and run time; the rest of the tree builds without it. RenderFrame only loads it by reflection
+ * once MandelbrotRenderer.isVectorSupported has found both the module and this class.
+ */
+final class VectorKernels implements RenderFrame.RowKernel {
+
+    //constants below are always written as double or float literals: an int literal picks the
+    //long overloads of compare and blend, which JDK 17 doesn't intrinsify and which run 3x slower
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    //a quarter of a vector: with interior checks on, most groups of the home view and seahorse
+    //valley end in a few boundary or slowly cycling lanes that ran 2-3x slower in lockstep
+    private static final int DOUBLE_HANDOFF = DOUBLES.length() / 4;
+    private static final int FLOAT_HANDOFF = FLOATS.length() / 4;
+
+    private final RenderFrame frame;
+    private final int maxIter;
+    private final boolean checks;
+    private final float[] xFloats; //the frame's column coordinates rounded to floats, FLOAT frames only
+
+    VectorKernels(RenderFrame frame, boolean floats) {
+        this.frame = frame;
+        this.maxIter = frame.maxIter;
+        this.checks = frame.interiorChecks;
+        if (floats) {
+            xFloats = new float[frame.width];
+            for (int x = 0; x < frame.width; x++) xFloats[x] = (float) frame.xCoords[x];
+        } else {
+            xFloats = null;
+        }
+    }
+
+    @Override
+    public void renderRow(int index, int x, int endX, int y, boolean trap) {
+        double y0 = frame.yCoords[y];
+        if (xFloats != null) {
+            for (; x < endX; x += FLOATS.length(), index += FLOATS.length()) {
+                VectorMask<Float> lanes = FLOATS.indexInRange(x, endX);
+                FloatVector cx = FloatVector.fromArray(FLOATS, xFloats, x, lanes);
+                if (trap) orbitTrapFloat(index, cx, y0, lanes);
+                else escapeFloat(index, x, cx, y0, lanes);
+            }
+        } else {
+            for (; x < endX; x += DOUBLES.length(), index += DOUBLES.length()) {
+                VectorMask<Double> lanes = DOUBLES.indexInRange(x, endX);
+                DoubleVector cx = DoubleVector.fromArray(DOUBLES, frame.xCoords, x, lanes);
+                if (trap) orbitTrap(index, cx, y0, lanes);
+                else escape(index, x, cx, y0, lanes);
+            }
+        }
+    }
+
+    /**
+     * Lanes inside the main cardioid or the period-2 bulb, counted like RenderFrame.inCardioidOrBulb
+     */
+    private VectorMask<Double> interior(DoubleVector cx, double cy, VectorMask<Double> lanes) {
+        DoubleVector xq = cx.sub(0.25);
+        DoubleVector q = xq.mul(xq).add(cy * cy);
+        VectorMask<Double> cardioid = q.mul(q.add(xq)).compare(VectorOperators.LE, 0.25 * cy * cy).and(lanes);
+        DoubleVector xb = cx.add(1.0);
+        VectorMask<Double> bulb = xb.mul(xb).add(cy * cy).compare(VectorOperators.LE, 0.0625)
+                .and(lanes).andNot(cardioid);
+        frame.stats.cardioid.add(cardioid.trueCount());
+        frame.stats.bulb.add(bulb.trueCount());
+        return cardioid.or(bulb);
+    }
+
+    /**
+     * RenderFrame.escape for one group of lanes
+     */
+    private void escape(int index, int column, DoubleVector cx, double y0, VectorMask<Double> lanes) {
+        VectorMask<Double> inside = checks ? interior(cx, y0, lanes) : DOUBLES.maskAll(false);
+        VectorMask<Double> active = lanes.andNot(inside);
+        VectorMask<Double> periodic = DOUBLES.maskAll(false);
+        DoubleVector x = DoubleVector.zero(DOUBLES), y = x, count = x;
+        DoubleVector savedX = x, savedY = x;
+        int nextSave = 2;
+        for (int iter = 0; iter < maxIter && active.trueCount() > DOUBLE_HANDOFF; iter++) {
+            DoubleVector xx = x.mul(x), yy = y.mul(y);
+            active = active.and(xx.add(yy).compare(VectorOperators.LE, 4.0));
+            if (!active.anyTrue()) break;
+            DoubleVector xtemp = xx.sub(yy).add(cx);
+            y = y.blend(x.mul(2.0).mul(y).add(y0), active);
+            x = x.blend(xtemp, active);
+            count = count.blend(count.add(1.0), active);
+            if (checks) {
+                VectorMask<Double> repeat = x.compare(VectorOperators.EQ, savedX)
+                        .and(y.compare(VectorOperators.EQ, savedY)).and(active);
+                if (repeat.anyTrue()) {
+                    periodic = periodic.or(repeat);
+                    active = active.andNot(repeat);
+                }
+                if (iter + 1 == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        double[] counts = count.toArray();
+        double[] xs = x.toArray(), ys = y.toArray(), savedXs = savedX.toArray(), savedYs = savedY.toArray();
+        for (int i = 0; i < DOUBLES.length(); i++) {
+            if (!lanes.laneIsSet(i)) break;
+            if (inside.laneIsSet(i) || periodic.laneIsSet(i)) {
+                if (periodic.laneIsSet(i)) frame.stats.periodic.increment();
+                frame.iterations[index + i] = maxIter;
+                frame.magnitudes[index + i] = 0;
+            } else if (active.laneIsSet(i)) {
+                finishEscape(index + i, xs[i], ys[i], frame.xCoords[column + i], y0, (int) counts[i],
+                        savedXs[i], savedYs[i], nextSave);
+            } else {
+                escaped(index + i, (int) counts[i], (float) Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i]));
+            }
+        }
+    }
+
+    /**
+     * The loop of escape for one lane handed off at count iter, the same operations without vectors
+     */
+    private void finishEscape(int index, double x, double y, double x0, double y0, int iter,
+                              double savedX, double savedY, int nextSave) {
+        for (; iter < maxIter; iter++) {
+            double xx = x * x, yy = y * y;
+            if (!(xx + yy <= 4.0)) break;
+            double xtemp = xx - yy + x0;
+            y = x * 2.0 * y + y0;
+            x = xtemp;
+            if (checks) {
+                if (x == savedX && y == savedY) {
+                    frame.stats.periodic.increment();
+                    frame.iterations[index] = maxIter;
+                    frame.magnitudes[index] = 0;
+                    return;
+                }
+                if (iter + 1 == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        escaped(index, iter, (float) Math.sqrt(x * x + y * y));
+    }
+
+    /**
+     * RenderFrame.orbitTrap for one group of lanes. The minimum and the escape magnitude are kept
+     * squared and rooted once at the end, which gives the same values since sqrt is monotonic and
+     * correctly rounded. The escape iteration is counted without branching: bounded counts the
+     * orbit points up to the first one past radius 2, see trapped.
+     *
+     * Unlike in escape, lanes that are done keep iterating unmasked: past radius 10 their z only
+     * grows (to NaN eventually, which no comparison accepts) and a cycling orbit only revisits its
+     * points, so neither can change the minimum, the count or the escape magnitude any more.
+     */
+    private void orbitTrap(int index, DoubleVector cx, double y0, VectorMask<Double> lanes) {
+        DoubleVector cy = DoubleVector.broadcast(DOUBLES, y0);
+        DoubleVector two = DoubleVector.broadcast(DOUBLES, 2.0);
+        DoubleVector x = cx, y = cy;
+        DoubleVector minR2 = DoubleVector.broadcast(DOUBLES, Double.MAX_VALUE);
+        DoubleVector xx = x.mul(x), yy = y.mul(y);
+        DoubleVector r2 = xx.add(yy);
+        VectorMask<Double> inside = r2.compare(VectorOperators.LE, 4.0); //no orbit point past radius 2 yet
+        DoubleVector escapeR2 = DoubleVector.zero(DOUBLES).blend(r2, inside.not());
+        DoubleVector bounded = DoubleVector.zero(DOUBLES).blend(DoubleVector.broadcast(DOUBLES, 1.0), inside);
+        VectorMask<Double> active = lanes;
+        DoubleVector savedX = x, savedY = y;
+        int nextSave = 2;
+        int i = 0;
+        for (; i < maxIter && active.trueCount() > DOUBLE_HANDOFF; i++) {
+            DoubleVector xtemp = xx.sub(yy).add(cx);
+            y = x.mul(two).mul(y).add(cy);
+            x = xtemp;
+            xx = x.mul(x);
+            yy = y.mul(y);
+            r2 = xx.add(yy);
+            minR2 = minR2.blend(r2, r2.compare(VectorOperators.LT, minR2));
+            VectorMask<Double> leaving = r2.compare(VectorOperators.GT, 4.0).and(inside);
+            escapeR2 = escapeR2.blend(r2, leaving);
+            inside = inside.andNot(leaving);
+            bounded = bounded.blend(bounded.add(1.0), inside);
+            active = active.andNot(r2.compare(VectorOperators.GT, 100.0));
+            if (checks) {
+                VectorMask<Double> repeat = x.compare(VectorOperators.EQ, savedX)
+                        .and(y.compare(VectorOperators.EQ, savedY)).and(active);
+                if (repeat.anyTrue()) {
+                    frame.stats.periodic.add(repeat.trueCount());
+                    active = active.andNot(repeat);
+                }
+                if (i == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        double[] counts = bounded.toArray(), mags = escapeR2.toArray(), mins = minR2.toArray();
+        double[] xs = x.toArray(), ys = y.toArray(), savedXs = savedX.toArray(), savedYs = savedY.toArray();
+        double[] x0 = cx.toArray();
+        for (int lane = 0; lane < DOUBLES.length(); lane++) {
+            if (!lanes.laneIsSet(lane)) break;
+            if (active.laneIsSet(lane)) {
+                finishTrap(index + lane, xs[lane], ys[lane], x0[lane], y0, i, mins[lane], inside.laneIsSet(lane),
+                        (int) counts[lane], mags[lane], savedXs[lane], savedYs[lane], nextSave);
+            } else {
+                trapped(index + lane, inside.laneIsSet(lane), (int) counts[lane], mags[lane], mins[lane], false);
+            }
+        }
+    }
+
+    /**
+     * The loop of orbitTrap for one lane handed off before iteration i. A lane that runs all the
+     * way to maxIter ends like the scalar loop with i == maxIter, see trapped.
+     */
+    private void finishTrap(int index, double x, double y, double x0, double y0, int i, double minR2,
+                            boolean inside, int bounded, double escapeR2, double savedX, double savedY,
+                            int nextSave) {
+        for (; i < maxIter; i++) {
+            double xtemp = x * x - y * y + x0;
+            y = x * 2.0 * y + y0;
+            x = xtemp;
+            double r2 = x * x + y * y;
+            if (r2 < minR2) minR2 = r2;
+            if (inside && r2 > 4.0) {
+                inside = false;
+                escapeR2 = r2;
+            } else if (inside) {
+                bounded++;
+            }
+            if (r2 > 100.0) break;
+            if (checks) {
+                if (x == savedX && y == savedY) {
+                    frame.stats.periodic.increment();
+                    break;
+                }
+                if (i == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        trapped(index, inside, bounded, escapeR2, minR2, i == maxIter);
+    }
+
+    /**
+     * RenderFrame.escapeFloat for one group of lanes, the interior test runs on the double
+     * coordinates like in the scalar kernel
+     */
+    private void escapeFloat(int index, int column, FloatVector cx, double y0, VectorMask<Float> lanes) {
+        boolean[] inside = new boolean[FLOATS.length()];
+        if (checks) {
+            for (int i = 0; i < FLOATS.length() && lanes.laneIsSet(i); i++) {
+                inside[i] = frame.inCardioidOrBulb(frame.xCoords[column + i], y0, 0);
+            }
+        }
+        VectorMask<Float> active = lanes.andNot(VectorMask.fromArray(FLOATS, inside, 0));
+        VectorMask<Float> periodic = FLOATS.maskAll(false);
+        float fy0 = (float) y0;
+        FloatVector x = FloatVector.zero(FLOATS), y = x, count = x;
+        FloatVector savedX = x, savedY = x;
+        int nextSave = 2;
+        for (int iter = 0; iter < maxIter && active.trueCount() > FLOAT_HANDOFF; iter++) {
+            FloatVector xx = x.mul(x), yy = y.mul(y);
+            active = active.and(xx.add(yy).compare(VectorOperators.LE, 4f));
+            if (!active.anyTrue()) break;
+            FloatVector xtemp = xx.sub(yy).add(cx);
+            y = y.blend(x.mul(2f).mul(y).add(fy0), active);
+            x = x.blend(xtemp, active);
+            count = count.blend(count.add(1f), active);
+            if (checks) {
+                VectorMask<Float> repeat = x.compare(VectorOperators.EQ, savedX)
+                        .and(y.compare(VectorOperators.EQ, savedY)).and(active);
+                if (repeat.anyTrue()) {
+                    periodic = periodic.or(repeat);
+                    active = active.andNot(repeat);
+                }
+                if (iter + 1 == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        float[] counts = count.toArray();
+        float[] xs = x.toArray(), ys = y.toArray(), savedXs = savedX.toArray(), savedYs = savedY.toArray();
+        for (int i = 0; i < FLOATS.length(); i++) {
+            if (!lanes.laneIsSet(i)) break;
+            if (inside[i] || periodic.laneIsSet(i)) {
+                if (periodic.laneIsSet(i)) frame.stats.periodic.increment();
+                frame.iterations[index + i] = maxIter;
+                frame.magnitudes[index + i] = 0;
+            } else if (active.laneIsSet(i)) {
+                finishEscapeFloat(index + i, xs[i], ys[i], xFloats[column + i], fy0, (int) counts[i],
+                        savedXs[i], savedYs[i], nextSave);
+            } else {
+                escaped(index + i, (int) counts[i], (float) Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i]));
+            }
+        }
+    }
+
+    /**
+     * finishEscape in floats
+     */
+    private void finishEscapeFloat(int index, float x, float y, float x0, float y0, int iter,
+                                   float savedX, float savedY, int nextSave) {
+        for (; iter < maxIter; iter++) {
+            float xx = x * x, yy = y * y;
+            if (!(xx + yy <= 4f)) break;
+            float xtemp = xx - yy + x0;
+            y = x * 2f * y + y0;
+            x = xtemp;
+            if (checks) {
+                if (x == savedX && y == savedY) {
+                    frame.stats.periodic.increment();
+                    frame.iterations[index] = maxIter;
+                    frame.magnitudes[index] = 0;
+                    return;
+                }
+                if (iter + 1 == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        escaped(index, iter, (float) Math.sqrt(x * x + y * y));
+    }
+
+    /**
+     * RenderFrame.orbitTrapFloat for one group of lanes, see orbitTrap
+     */
+    private void orbitTrapFloat(int index, FloatVector cx, double y0, VectorMask<Float> lanes) {
+        FloatVector cy = FloatVector.broadcast(FLOATS, (float) y0);
+        FloatVector two = FloatVector.broadcast(FLOATS, 2f);
+        FloatVector x = cx, y = cy;
+        FloatVector minR2 = FloatVector.broadcast(FLOATS, Float.MAX_VALUE);
+        FloatVector xx = x.mul(x), yy = y.mul(y);
+        FloatVector r2 = xx.add(yy);
+        VectorMask<Float> inside = r2.compare(VectorOperators.LE, 4f);
+        FloatVector escapeR2 = FloatVector.zero(FLOATS).blend(r2, inside.not());
+        FloatVector bounded = FloatVector.zero(FLOATS).blend(FloatVector.broadcast(FLOATS, 1f), inside);
+        VectorMask<Float> active = lanes;
+        FloatVector savedX = x, savedY = y;
+        int nextSave = 2;
+        int i = 0;
+        for (; i < maxIter && active.trueCount() > FLOAT_HANDOFF; i++) {
+            FloatVector xtemp = xx.sub(yy).add(cx);
+            y = x.mul(two).mul(y).add(cy);
+            x = xtemp;
+            xx = x.mul(x);
+            yy = y.mul(y);
+            r2 = xx.add(yy);
+            minR2 = minR2.blend(r2, r2.compare(VectorOperators.LT, minR2));
+            VectorMask<Float> leaving = r2.compare(VectorOperators.GT, 4f).and(inside);
+            escapeR2 = escapeR2.blend(r2, leaving);
+            inside = inside.andNot(leaving);
+            bounded = bounded.blend(bounded.add(1f), inside);
+            active = active.andNot(r2.compare(VectorOperators.GT, 100f));
+            if (checks) {
+                VectorMask<Float> repeat = x.compare(VectorOperators.EQ, savedX)
+                        .and(y.compare(VectorOperators.EQ, savedY)).and(active);
+                if (repeat.anyTrue()) {
+                    frame.stats.periodic.add(repeat.trueCount());
+                    active = active.andNot(repeat);
+                }
+                if (i == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        float[] counts = bounded.toArray(), mags = escapeR2.toArray(), mins = minR2.toArray();
+        float[] xs = x.toArray(), ys = y.toArray(), savedXs = savedX.toArray(), savedYs = savedY.toArray();
+        float[] x0 = cx.toArray();
+        for (int lane = 0; lane < FLOATS.length(); lane++) {
+            if (!lanes.laneIsSet(lane)) break;
+            if (active.laneIsSet(lane)) {
+                finishTrapFloat(index + lane, xs[lane], ys[lane], x0[lane], (float) y0, i, mins[lane],
+                        inside.laneIsSet(lane), (int) counts[lane], mags[lane], savedXs[lane], savedYs[lane],
+                        nextSave);
+            } else {
+                trapped(index + lane, inside.laneIsSet(lane), (int) counts[lane], mags[lane], mins[lane], false);
+            }
+        }
+    }
+
+    /**
+     * finishTrap in floats
+     */
+    private void finishTrapFloat(int index, float x, float y, float x0, float y0, int i, float minR2,
+                                 boolean inside, int bounded, float escapeR2, float savedX, float savedY,
+                                 int nextSave) {
+        for (; i < maxIter; i++) {
+            float xtemp = x * x - y * y + x0;
+            y = x * 2f * y + y0;
+            x = xtemp;
+            float r2 = x * x + y * y;
+            if (r2 < minR2) minR2 = r2;
+            if (inside && r2 > 4f) {
+                inside = false;
+                escapeR2 = r2;
+            } else if (inside) {
+                bounded++;
+            }
+            if (r2 > 100f) break;
+            if (checks) {
+                if (x == savedX && y == savedY) {
+                    frame.stats.periodic.increment();
+                    break;
+                }
+                if (i == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        trapped(index, inside, bounded, escapeR2, minR2, i == maxIter);
+    }
+
+    private void escaped(int index, int iter, float magnitude) {
+        frame.iterations[index] = iter;
+        if (iter == maxIter) {
+            frame.stats.maxIter.increment();
+            frame.magnitudes[index] = 0;
+        } else {
+            frame.magnitudes[index] = magnitude;
+        }
+    }
+
+    /**
+     * Stores a trap lane the way the scalar kernel would. The first orbit point past radius 2 is
+     * z at iteration bounded + 1, which only counts as an escape if it comes more than one step
+     * before maxIter, or right at z1. ranOut is set for lanes that iterated all the way to maxIter.
+     */
+    private void trapped(int index, boolean inside, int bounded, double escapeR2, double minR2, boolean ranOut) {
+        int escapeIter = bounded + 1;
+        if (inside || (bounded > 0 && escapeIter >= maxIter)) escapeIter = maxIter;
+        if (ranOut && escapeIter == maxIter) frame.stats.maxIter.increment();
+        frame.iterations[index] = escapeIter;
+        frame.magnitudes[index] = escapeIter == maxIter && bounded > 0 ? 0 : (float) Math.sqrt(escapeR2);
+        frame.traps[index] = (float) Math.sqrt(minR2);
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Different render modes for the color calculation. Shared between the Swing panel and the
+ * headless renderer so both produce the same images for the same settings.
+ */
+public enum ColorMode {
+    ESCAPE_TIME, //classic Mandelbrot, produces sharp edges and banded concentric rings
+    SMOOTH,      //smooths bands with logarithmic smoothing
+    ORBIT_TRAP   //very different, somewhat abstract and organic patterns
+}
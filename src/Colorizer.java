@@ -0,0 +1,60 @@
+/**
+ * Turns the raw values of an IterationField into packed RGB colors. The render kernels only
+ * produce iteration data, so the same formulas color a fresh frame and recolor a cached one.
+ */
+final class Colorizer {
+
+    private static final double LOG2 = Math.log(2);
+
+    private Colorizer() {
+    }
+
+    /**
+     * Colors count pixels starting at index, reading the field and writing pixels at the same index
+     */
+    static void colorRun(IterationField field, ColorMode mode, int maxIter, int[] palette,
+                         int[] pixels, int index, int count) {
+        int[] iterations = field.iterations;
+        int end = index + count;
+        switch (mode) {
+            case ESCAPE_TIME -> {
+                for (int i = index; i < end; i++) pixels[i] = escape(iterations[i], maxIter, palette);
+            }
+            case SMOOTH -> {
+                float[] magnitudes = field.magnitudes;
+                for (int i = index; i < end; i++) pixels[i] = smooth(iterations[i], magnitudes[i], maxIter, palette);
+            }
+            case ORBIT_TRAP -> {
+                float[] traps = field.traps;
+                for (int i = index; i < end; i++) pixels[i] = trap(traps[i], palette);
+            }
+        }
+    }
+
+    static int escape(int iter, int maxIter, int[] palette) {
+        if (iter == maxIter) {
+            return 0x000000;  // Inside the Mandelbrot set
+        }
+        // Wrap the index every 256 steps to simulate shader behavior
+        return palette[iter % palette.length];
+    }
+
+    static int smooth(int iter, double zn, int maxIter, int[] palette) {
+        if (iter == maxIter) {
+            return palette[0]; //inside the set, same as the shader
+        }
+        //zn is |z|, the magnitude of the final complex value,
+        //then estimates how far between two interations the point escaped
+        double smooth = iter + 1 - Math.log(Math.log(zn)) / LOG2;
+        int paletteIndex = (int) (smooth * 5) % palette.length; //smooth factor * 5 can be adjusted
+        return palette[Math.max(0, Math.min(paletteIndex, palette.length - 1))];
+    }
+
+    static int trap(double minDist, int[] palette) {
+        double t = Math.exp(-minDist * 5.0);   // falloff multiplier matches shader
+        t = Math.pow(t, 1.5);                  // gamma correction
+
+        int paletteIndex = (int) (t * (palette.length - 1));
+        return palette[Math.max(0, Math.min(paletteIndex, palette.length - 1))];
+    }
+}
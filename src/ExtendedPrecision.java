@@ -0,0 +1,212 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Direct kernels past double precision, for frames that iterate every pixel on its own instead of
+ * perturbing around a reference: double-double, an unevaluated sum hi + lo of two doubles good for
+ * about 106 bits, and fixed point on BigInteger limbs for any depth. Both give the exact orbit
+ * perturbation is compared against, and pick up the few pixels perturbation can't place.
+ *
+ * Pixel coordinates arrive as the frame's double offsets from the view center; the center itself
+ * is kept here in full precision.
+ */
+final class ExtendedPrecision {
+
+    /**
+     * How far inside the cardioid or bulb a point has to be before the double test is trusted,
+     * far above what rounding the coordinates to doubles can move the test's value
+     */
+    private static final double INTERIOR_MARGIN = 1e-12;
+
+    private final RenderFrame frame;
+    private final double centerXHi, centerXLo, centerYHi, centerYLo;
+    private final int bits; //fixed point scale, values are stored times 2^bits
+    private final BigInteger[] fixedX, fixedY; //fixed point coordinate of every column and row, on first use
+
+    ExtendedPrecision(RenderFrame frame, RenderRequest request) {
+        this.frame = frame;
+        BigDecimal cx = request.getCenterX(), cy = request.getCenterY();
+        centerXHi = cx.doubleValue();
+        centerXLo = cx.subtract(new BigDecimal(centerXHi)).doubleValue();
+        centerYHi = cy.doubleValue();
+        centerYLo = cy.subtract(new BigDecimal(centerYHi)).doubleValue();
+        bits = fixedBits(request.getPixelSize());
+        fixedX = new BigInteger[frame.width];
+        fixedY = new BigInteger[frame.height];
+    }
+
+    /**
+     * Fixed point bits for a pixel spacing: enough to reach it, plus headroom for the rounding
+     * every step adds
+     */
+    static int fixedBits(double pixelSize) {
+        return Math.max(64, -Math.getExponent(pixelSize) + 64);
+    }
+
+    static BigInteger toFixed(BigDecimal value, int bits) {
+        return value.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(bits)))
+                .setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+    }
+
+    /**
+     * Double-double escape kernel. Every product is split exactly into a double and its rounding
+     * error with fma, so z carries twice the bits of a plain double for about ten times the work.
+     * The cardioid and bulb test runs on the rounded coordinates, with a margin.
+     */
+    void doubleDouble(int index, double offsetX, double offsetY, boolean trap) {
+        //c = center + offset, both exact doubles, as a normalized hi + lo pair
+        double s = centerXHi + offsetX, v = s - centerXHi;
+        double e = (centerXHi - (s - v)) + (offsetX - v) + centerXLo;
+        double cxh = s + e, cxl = e - (cxh - s);
+        s = centerYHi + offsetY;
+        v = s - centerYHi;
+        e = (centerYHi - (s - v)) + (offsetY - v) + centerYLo;
+        double cyh = s + e, cyl = e - (cyh - s);
+        if (!trap && frame.interiorChecks && frame.inCardioidOrBulb(cxh, cyh, INTERIOR_MARGIN)) {
+            interior(index, false, 0);
+            return;
+        }
+
+        int maxIter = frame.maxIter;
+        boolean checks = frame.interiorChecks;
+        double xh = 0, xl = 0, yh = 0, yl = 0;
+        double savedXh = 0, savedXl = 0, savedYh = 0, savedYl = 0;
+        int nextSave = 2;
+        double minDist = Double.MAX_VALUE;
+        int n = 0;
+        while (true) {
+            //x^2 and y^2, hi products split with fma
+            double p = xh * xh;
+            double q = Math.fma(xh, xh, -p) + 2 * xh * xl;
+            double xxh = p + q, xxl = q - (xxh - p);
+            p = yh * yh;
+            q = Math.fma(yh, yh, -p) + 2 * yh * yl;
+            double yyh = p + q, yyl = q - (yyh - p);
+            double r2 = xxh + yyh;
+            if (trap && n >= 2) minDist = Math.min(minDist, Math.sqrt(r2));
+            if (r2 > 4 || n == maxIter) break;
+            //2xy
+            p = xh * yh;
+            q = Math.fma(xh, yh, -p) + (xh * yl + xl * yh);
+            double xyh = 2 * (p + q), xyl = 2 * (q - ((p + q) - p));
+            //x = x^2 - y^2 + cx
+            s = xxh - yyh;
+            v = s - xxh;
+            e = (xxh - (s - v)) + (-yyh - v) + (xxl - yyl);
+            double th = s + e, tl = e - (th - s);
+            s = th + cxh;
+            v = s - th;
+            e = (th - (s - v)) + (cxh - v) + (tl + cxl);
+            xh = s + e;
+            xl = e - (xh - s);
+            //y = 2xy + cy
+            s = xyh + cyh;
+            v = s - xyh;
+            e = (xyh - (s - v)) + (cyh - v) + (xyl + cyl);
+            yh = s + e;
+            yl = e - (yh - s);
+            n++;
+            if (checks) {
+                if (xh == savedXh && xl == savedXl && yh == savedYh && yl == savedYl) {
+                    frame.stats.periodic.increment();
+                    interior(index, trap, minDist);
+                    return;
+                }
+                if (n == nextSave) {
+                    savedXh = xh; savedXl = xl; savedYh = yh; savedYl = yl;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        if (n == maxIter) {
+            frame.stats.maxIter.increment();
+            interior(index, trap, minDist);
+            return;
+        }
+        escaped(index, n, Math.sqrt(xh * xh + yh * yh), trap, xh, yh, cxh, cyh, minDist);
+    }
+
+    /**
+     * Fixed point escape kernel: z is a pair of BigIntegers scaled by 2^bits, the same arithmetic
+     * as ReferenceOrbit. Exact at any depth and by far the slowest tier, every step allocates.
+     */
+    void fixedPoint(int index, int column, int row, boolean trap) {
+        double cx = centerXHi + frame.xCoords[column], cy = centerYHi + frame.yCoords[row];
+        if (!trap && frame.interiorChecks && frame.inCardioidOrBulb(cx, cy, INTERIOR_MARGIN)) {
+            interior(index, false, 0);
+            return;
+        }
+        BigInteger x0 = fixedX(column), y0 = fixedY(row);
+        BigInteger four = BigInteger.valueOf(4).shiftLeft(bits);
+        int maxIter = frame.maxIter;
+        boolean checks = frame.interiorChecks;
+        BigInteger x = BigInteger.ZERO, y = BigInteger.ZERO;
+        BigInteger savedX = x, savedY = y;
+        int nextSave = 2;
+        double minDist = Double.MAX_VALUE;
+        int n = 0;
+        while (true) {
+            BigInteger xx = x.multiply(x).shiftRight(bits);
+            BigInteger yy = y.multiply(y).shiftRight(bits);
+            BigInteger r2 = xx.add(yy);
+            if (trap && n >= 2) minDist = Math.min(minDist, Math.sqrt(Math.scalb(r2.doubleValue(), -bits)));
+            if (r2.compareTo(four) > 0 || n == maxIter) break;
+            BigInteger xy = x.multiply(y).shiftRight(bits - 1);
+            x = xx.subtract(yy).add(x0);
+            y = xy.add(y0);
+            n++;
+            if (checks) {
+                if (x.equals(savedX) && y.equals(savedY)) {
+                    frame.stats.periodic.increment();
+                    interior(index, trap, minDist);
+                    return;
+                }
+                if (n == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        if (n == maxIter) {
+            frame.stats.maxIter.increment();
+            interior(index, trap, minDist);
+            return;
+        }
+        double zx = Math.scalb(x.doubleValue(), -bits), zy = Math.scalb(y.doubleValue(), -bits);
+        escaped(index, n, Math.hypot(zx, zy), trap, zx, zy, cx, cy, minDist);
+    }
+
+    private BigInteger fixedX(int column) {
+        //racing threads compute the same value, no need to synchronize
+        BigInteger value = fixedX[column];
+        if (value == null) {
+            value = toFixed(frame.request.getFrame().getCenterX().add(new BigDecimal(frame.xCoords[column])), bits);
+            fixedX[column] = value;
+        }
+        return value;
+    }
+
+    private BigInteger fixedY(int row) {
+        BigInteger value = fixedY[row];
+        if (value == null) {
+            value = toFixed(frame.request.getFrame().getCenterY().add(new BigDecimal(frame.yCoords[row])), bits);
+            fixedY[row] = value;
+        }
+        return value;
+    }
+
+    private void interior(int index, boolean trap, double minDist) {
+        frame.iterations[index] = frame.maxIter;
+        frame.magnitudes[index] = 0;
+        if (trap) frame.traps[index] = (float) minDist;
+    }
+
+    private void escaped(int index, int n, double magnitude, boolean trap,
+                         double zx, double zy, double cx, double cy, double minDist) {
+        frame.iterations[index] = n;
+        frame.magnitudes[index] = (float) magnitude;
+        if (trap) frame.traps[index] = (float) frame.escapedTrap(zx, zy, cx, cy, n, minDist);
+    }
+}
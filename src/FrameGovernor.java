@@ -0,0 +1,106 @@
+/**
+ * Picks how many progressive passes (see MandelbrotRenderer.startProgressive) the frames shown
+ * while the view is being dragged or zoomed get, so they keep up with a target frame rate: the
+ * cost per computed pixel of recent frames predicts what each number of passes will take, and the
+ * most passes that fit the frame budget win. Input that arrives while a preview is still
+ * rendering is coalesced, the newest view starts once the preview is done, rather than cancelling
+ * previews one after another and never showing any. Full frames give way to input at once.
+ *
+ * The panel calls it from both the EDT and its render thread, the state is guarded by the
+ * governor's lock.
+ */
+final class FrameGovernor {
+
+    static final double DEFAULT_FPS = 30;
+    /**
+     * Passes of the first previews, before any frame was measured: one pixel in 16, a quarter
+     * scale frame
+     */
+    private static final int UNMEASURED_PASSES = 3;
+    /**
+     * Weight of the newest frame in the cost estimate
+     */
+    private static final double SMOOTHING = 0.3;
+    /**
+     * A preview running this many budgets has mispredicted badly, the next view cancels it
+     */
+    private static final int OVERRUN = 4;
+
+    private final long budgetNs;
+    private double nsPerPixel = Double.NaN;
+    //the frame on the render thread: its generation, pixels, start, and whether it is a preview
+    private long inFlight = -1;
+    private long inFlightPixels;
+    private long inFlightStart;
+    private boolean inFlightPreview;
+
+    FrameGovernor(double fps) {
+        if (!(fps > 0)) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + fps);
+        }
+        budgetNs = (long) (1e9 / fps);
+    }
+
+    /**
+     * Time without input after which the view counts as idle and finishes its passes:
+     * two frame intervals, input events come at least that often while a drag or scroll goes on
+     */
+    int idleDelayMs() {
+        return (int) Math.max(1, 2 * budgetNs / 1_000_000);
+    }
+
+    /**
+     * Most passes, at least one, that a frame of the given pixels is predicted to render within
+     * the frame budget
+     */
+    synchronized int previewPasses(long pixels) {
+        if (Double.isNaN(nsPerPixel)) return UNMEASURED_PASSES;
+        for (int passes = MandelbrotRenderer.PASSES; passes > 1; passes--) {
+            if (nsPerPixel * pixels * MandelbrotRenderer.Progressive.sampledFraction(passes) <= budgetNs) {
+                return passes;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * False while a preview that is still within its budget renders, the next view waits for it
+     * and starts when frameFinished is called
+     */
+    synchronized boolean shouldStart() {
+        if (inFlight < 0 || !inFlightPreview) return true;
+        long elapsed = System.nanoTime() - inFlightStart;
+        if (elapsed < OVERRUN * budgetNs) return false;
+        //it never reports its cost now, but it took at least this long
+        record(elapsed, inFlightPixels);
+        return true;
+    }
+
+    synchronized void frameStarted(long generation, long pixels, boolean preview) {
+        inFlight = generation;
+        inFlightPixels = pixels;
+        inFlightStart = System.nanoTime();
+        inFlightPreview = preview;
+    }
+
+    /**
+     * The frame of the generation is done, finished or cancelled
+     */
+    synchronized void frameFinished(long generation) {
+        if (generation == inFlight) inFlight = -1;
+    }
+
+    /**
+     * Adds what computing some pixels of a frame, a whole one or some of its passes, cost to the
+     * estimate. Recolors cost next to nothing and say nothing about rendering, leave them out.
+     */
+    synchronized void rendered(long ns, long pixels) {
+        record(ns, pixels);
+    }
+
+    private void record(long ns, long pixels) {
+        if (pixels <= 0) return;
+        double cost = (double) ns / pixels;
+        nsPerPixel = Double.isNaN(nsPerPixel) ? cost : nsPerPixel + SMOOTHING * (cost - nsPerPixel);
+    }
+}
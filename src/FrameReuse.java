@@ -0,0 +1,117 @@
+/**
+ * Maps the pixels of a new frame onto the completed field of an earlier frame whose pixel grid
+ * lines up with it: a pan by whole pixels, or a zoom by a power of two around an old grid point.
+ * Pixels that land on an old sample copy it instead of iterating again, so a drag only iterates
+ * the strips it uncovers and a 2x zoom in or out copies a quarter of the frame.
+ */
+final class FrameReuse {
+
+    /**
+     * How far, in old pixels, a new sample may sit from an old one and still count as the same
+     * point. Pans and zooms accumulate rounding in the bounds, so exact equality never holds.
+     */
+    private static final double TOLERANCE = 1e-3;
+    /**
+     * Largest zoom step, as a power of two, that is still checked for shared samples
+     */
+    private static final int MAX_ZOOM_EXPONENT = 4;
+
+    final IterationField previous;
+    private final int previousWidth;
+    //old column/row of every new column/row, or -1 if it falls between old samples or outside
+    private final int[] srcX;
+    private final int[] srcY;
+    final long reusedPixels;
+
+    private FrameReuse(IterationField previous, int[] srcX, int[] srcY, long reusedPixels) {
+        this.previous = previous;
+        this.previousWidth = previous.getWidth();
+        this.srcX = srcX;
+        this.srcY = srcY;
+        this.reusedPixels = reusedPixels;
+    }
+
+    /**
+     * Returns the mapping from the request's pixels onto the previous field, or null if the two
+     * frames share no samples or the previous field lacks the data the request's color mode needs
+     */
+    static FrameReuse between(IterationField previous, RenderRequest request) {
+        RenderRequest old = previous.getRequest();
+        if (old == null || old.getMaxIter() != request.getMaxIter() || !previous.canColor(request.getColorMode())) {
+            return null;
+        }
+        double[] oldBounds, bounds;
+        if (old.isDeep() || request.isDeep()) {
+            //the bounds don't fit in doubles any more, measure both frames from the old center
+            double offsetX = request.getCenterX().subtract(old.getCenterX()).doubleValue();
+            double offsetY = request.getCenterY().subtract(old.getCenterY()).doubleValue();
+            oldBounds = relativeBounds(old, 0, 0);
+            bounds = relativeBounds(request, offsetX, offsetY);
+        } else {
+            oldBounds = old.normalizedBounds();
+            bounds = request.normalizedBounds();
+        }
+        int[] srcX = map(oldBounds[0], oldBounds[1], old.getWidth(), bounds[0], bounds[1], request.getWidth());
+        int[] srcY = map(oldBounds[2], oldBounds[3], old.getHeight(), bounds[2], bounds[3], request.getHeight());
+        if (srcX == null || srcY == null) return null;
+        long columns = 0, rows = 0;
+        for (int x : srcX) if (x >= 0) columns++;
+        for (int y : srcY) if (y >= 0) rows++;
+        if (columns == 0 || rows == 0) return null;
+        return new FrameReuse(previous, srcX, srcY, columns * rows);
+    }
+
+    private static double[] relativeBounds(RenderRequest request, double offsetX, double offsetY) {
+        double spanX = request.getSpan(), spanY = spanX * request.getHeight() / request.getWidth();
+        return new double[]{offsetX - spanX / 2, offsetX + spanX / 2, offsetY - spanY / 2, offsetY + spanY / 2};
+    }
+
+    /**
+     * Old sample index for every new sample along one axis, using the same coordinate formula as
+     * RenderFrame, or null if the spacing ratio isn't a power of two
+     */
+    private static int[] map(double oldMin, double oldMax, int oldSize, double min, double max, int size) {
+        double oldStep = (oldMax - oldMin) / oldSize;
+        double ratio = ((max - min) / size) / oldStep;
+        int exponent = (int) Math.round(Math.log(ratio) / Math.log(2));
+        if (Math.abs(exponent) > MAX_ZOOM_EXPONENT || Math.abs(ratio / Math.scalb(1.0, exponent) - 1) > 1e-9) {
+            return null;
+        }
+        int[] src = new int[size];
+        for (int i = 0; i < size; i++) {
+            double coord = min + i * (max - min) / size;
+            double position = (coord - oldMin) / oldStep;
+            double nearest = Math.rint(position);
+            boolean onGrid = Math.abs(position - nearest) < TOLERANCE && nearest >= 0 && nearest < oldSize;
+            src[i] = onGrid ? (int) nearest : -1;
+        }
+        return src;
+    }
+
+    /**
+     * Old row for a new row, or -1 if every pixel in it has to be iterated
+     */
+    int sourceRow(int y) {
+        return srcY[y];
+    }
+
+    /**
+     * True if the pixel at column x, row y has an old sample to copy, so it counts as reused
+     */
+    boolean covers(int x, int y) {
+        return srcY[y] >= 0 && srcX[x] >= 0;
+    }
+
+    /**
+     * Copies the old sample under the new pixel into the field, returns false if there is none
+     */
+    boolean copy(int x, int sourceRow, int index, IterationField field) {
+        int sx = srcX[x];
+        if (sx < 0) return false;
+        int from = sourceRow * previousWidth + sx;
+        field.iterations[index] = previous.iterations[from];
+        field.magnitudes[index] = previous.magnitudes[from];
+        field.traps[index] = previous.traps[from];
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Raw per-pixel results of one rendered frame, kept separately from the colors: the escape
+ * iteration count, |z| at the moment of escape (for the smooth coloring) and the closest distance
+ * of the orbit to the origin (for the orbit trap). Any palette or color mode the field has data
+ * for can be recolored from it without iterating the fractal again.
+ *
+ * Fields are reusable: the renderer resets and refills one for every frame of the same size.
+ */
+public final class IterationField {
+
+    private final int width, height;
+    final int[] iterations;
+    final float[] magnitudes; //|z| at escape, 0 for pixels inside the set
+    final float[] traps;      //minimum |z| over the orbit
+    private RenderRequest request; //the frame this field holds, null while it is being filled
+    private boolean hasMagnitudes;
+    private boolean hasTraps;
+    private RenderStats stats;
+
+    public IterationField(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Field size must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.iterations = new int[width * height];
+        this.magnitudes = new float[width * height];
+        this.traps = new float[width * height];
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /**
+     * Escape iteration count of every pixel, or maxIter for pixels inside the set
+     */
+    public int[] getIterations() { return iterations; }
+
+    public float[] getMagnitudes() { return magnitudes; }
+
+    public float[] getTraps() { return traps; }
+
+    /**
+     * The request of the completed frame in this field, or null if it holds no complete frame
+     */
+    public RenderRequest getRequest() { return request; }
+
+    /**
+     * Interior short-circuit counts of the render that filled the field
+     */
+    public RenderStats getStats() { return stats; }
+
+    /**
+     * True if the field holds a complete frame with the data the color mode needs. Escape time
+     * only needs iteration counts; smooth needs the escape magnitudes, which subdivision fills
+     * don't produce; the orbit trap needs trap distances, which are only tracked in that mode.
+     */
+    public boolean canColor(ColorMode mode) {
+        if (request == null) return false;
+        return switch (mode) {
+            case ESCAPE_TIME -> true;
+            case SMOOTH -> hasMagnitudes;
+            case ORBIT_TRAP -> hasTraps;
+        };
+    }
+
+    /**
+     * True if the field holds a complete frame of the same view that can be colored with the
+     * request's mode, so the request only needs a recolor pass
+     */
+    public boolean canRecolor(RenderRequest other) {
+        return request != null && request.sameField(other) && canColor(other.getColorMode());
+    }
+
+    boolean fits(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    /**
+     * Marks the field as being overwritten, it holds no usable frame until complete is called
+     */
+    void invalidate() {
+        request = null;
+        hasMagnitudes = false;
+        hasTraps = false;
+        stats = null;
+    }
+
+    void complete(RenderRequest request, boolean hasMagnitudes, boolean hasTraps, RenderStats stats) {
+        this.stats = stats;
+        this.hasMagnitudes = hasMagnitudes;
+        this.hasTraps = hasTraps;
+        this.request = request;
+    }
+}
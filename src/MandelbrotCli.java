@@ -0,0 +1,701 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.imageio.ImageIO;
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Command line front end for the headless renderer. Renders one view, or a batch file of views,
+ * straight to image files without starting Swing, so it can run on machines with no display.
+ *
+ * Example: java -cp out MandelbrotCli --size 3840x2160 --center -0.745,0.113 --span 0.01 --out seahorse.png
+ */
+public class MandelbrotCli {
+
+    /**
+     * Memory for tiles when only --tile-store is given
+     */
+    private static final long DEFAULT_TILE_CACHE_MB = 256;
+
+    /**
+     * How long a coordinator waits for its workers to connect
+     */
+    private static final long WORKER_WAIT_MS = 60_000;
+
+    //set once a shutdown hook stopped the tile server, the JVM is exiting already
+    private static volatile boolean stopping;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java MandelbrotCli [options]",
+            "  --size WxH              output size in pixels (default 1920x1080)",
+            "  --bounds x0,x1,y0,y1    view bounds in the complex plane (default -2,1,-1.5,1.5)",
+            "  --center x,y            view center, use together with --span; any number of digits",
+            "  --span w                view width in the complex plane, deep zooms down to about 1e-290",
+            "  --iter n                maximum iterations (default 2000)",
+            "  --mode m                escape | smooth | orbit (default escape)",
+            "  --palette p             palette name or index, e.g. Fire or 4 (default Fire)",
+            "  --threads n             worker threads (default: all cores)",
+            "  --tile-size n           tile edge in pixels for the work-stealing scheduler (default 32)",
+            "  --report                print per-thread utilization after each frame",
+            "  --metrics               publish render metrics over JMX while running, print a summary at the end",
+            "  --subdivide m           off | fast | accurate Mariani-Silver fill, escape mode only (default off)",
+            "  --no-interior-checks    iterate interior points fully (no cardioid/bulb test or cycle detection)",
+            "  --precision p           auto | float | double | double_double | fixed_point | perturbation",
+            "                          (default auto: float, double or perturbation by pixel spacing)",
+            "  --no-series             perturbation without the series approximation",
+            "  --antialias n           sample pixels that contrast with a neighbor again on an n x n grid (odd n)",
+            "  --simd                  SIMD kernels for float and double frames (needs --add-modules jdk.incubator.vector)",
+            "  --validate              compare subdivision against brute force for the view and exit",
+            "  --compare-precision     time every precision tier on the view against fixed point and exit",
+            "  --out file              output image, format from extension (default mandelbrot.png)",
+            "  --iterations file       also write the raw iteration buffer",
+            "  --stream                render in bands straight into the PNG, for images larger than memory",
+            "                          (automatic when the frame wouldn't fit in the heap)",
+            "  --checkpoint s          stream, saving a checkpoint next to the PNG every s seconds",
+            "  --resume file           continue the streamed export of file from its checkpoint",
+            "  --batch file            render every line \"x0 x1 y0 y1 outfile\" of the file",
+            "  --zoom-to w             zoom video into the view center down to span w, frames named by --out",
+            "                          with a %d for the frame number (default: name_%05d.png)",
+            "  --fps n                 zoom video frame rate (default 30)",
+            "  --seconds s             zoom video length (default 10)",
+            "  --tile-cache mb         keep up to mb megabytes of tiles for batch views that revisit earlier ones",
+            "  --tile-store file       also keep the tiles in a memory-mapped file, reused by later runs",
+            "  --serve [host:]port     serve 256px tiles over HTTP at /tiles/z/x/y.png and .iter until stopped",
+            "                          (default host: loopback); --iter, --mode and --palette are the defaults",
+            "  --coordinator [host:]port",
+            "                          render across worker JVMs that connect to this port (default host: loopback)",
+            "  --workers n             workers to wait for before rendering (default 1)",
+            "  --local-workers n       start n workers on this machine, splitting --threads between them",
+            "  --scaling               render the view with 1, 2, ... all workers and print the scaling efficiency",
+            "  --worker [host:]port    render tiles for the coordinator at the address until it hangs up",
+            "  --help                  show this message");
+
+    public static void main(String[] args) {
+        //never load a display, we only draw into BufferedImages
+        System.setProperty("java.awt.headless", "true");
+        try {
+            int code = run(args);
+            if (!stopping) System.exit(code); //exit blocks for good while the shutdown hooks run
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+
+    static int run(String[] args) {
+        int width = 1920, height = 1080;
+        double[] bounds = {-2.0, 1.0, -1.5, 1.5};
+        BigDecimal[] center = null;
+        double span = Double.NaN;
+        int maxIter = 2000;
+        ColorMode mode = ColorMode.ESCAPE_TIME;
+        int[] palette = MandelbrotPalettes.generateFirePalette();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = "mandelbrot.png";
+        String iterationsOut = null;
+        String batch = null;
+        int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+        long tileCacheMb = 0;
+        String tileStore = null;
+        boolean report = false;
+        boolean metrics = false;
+        boolean validate = false;
+        boolean comparePrecision = false;
+        boolean interiorChecks = true;
+        boolean series = true;
+        boolean simd = false;
+        boolean stream = false;
+        long checkpointSeconds = 0;
+        String resume = null;
+        double zoomTo = Double.NaN;
+        int fps = 30;
+        int antialias = 1;
+        double seconds = 10;
+        String serve = null;
+        String coordinator = null;
+        String worker = null;
+        int workers = 1;
+        int localWorkers = 0;
+        boolean scaling = false;
+        MandelbrotRenderer.Precision precision = MandelbrotRenderer.Precision.AUTO;
+        MandelbrotRenderer.Subdivision subdivision = MandelbrotRenderer.Subdivision.OFF;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                System.out.println(USAGE);
+                return 0;
+            }
+            if (arg.equals("--report")) {
+                report = true;
+                continue;
+            }
+            if (arg.equals("--metrics")) {
+                metrics = true;
+                continue;
+            }
+            if (arg.equals("--validate")) {
+                validate = true;
+                continue;
+            }
+            if (arg.equals("--compare-precision")) {
+                comparePrecision = true;
+                continue;
+            }
+            if (arg.equals("--no-interior-checks")) {
+                interiorChecks = false;
+                continue;
+            }
+            if (arg.equals("--no-series")) {
+                series = false;
+                continue;
+            }
+            if (arg.equals("--simd")) {
+                simd = true;
+                continue;
+            }
+            if (arg.equals("--stream")) {
+                stream = true;
+                continue;
+            }
+            if (arg.equals("--scaling")) {
+                scaling = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--size" -> {
+                    String[] parts = value.toLowerCase(Locale.ROOT).split("x");
+                    if (parts.length != 2) throw new IllegalArgumentException("Bad size: " + value);
+                    width = Integer.parseInt(parts[0]);
+                    height = Integer.parseInt(parts[1]);
+                }
+                case "--bounds" -> bounds = parseDoubles(value, 4);
+                case "--center" -> center = parseCenter(value);
+                case "--span" -> span = Double.parseDouble(value);
+                case "--iter" -> maxIter = Integer.parseInt(value);
+                case "--mode" -> mode = parseMode(value);
+                case "--palette" -> palette = MandelbrotPalettes.byName(value);
+                case "--threads" -> threads = Integer.parseInt(value);
+                case "--tile-size" -> tileSize = Integer.parseInt(value);
+                case "--precision" -> precision = MandelbrotRenderer.Precision.valueOf(value.toUpperCase(Locale.ROOT));
+                case "--subdivide" -> subdivision = MandelbrotRenderer.Subdivision.valueOf(value.toUpperCase(Locale.ROOT));
+                case "--out" -> out = value;
+                case "--checkpoint" -> checkpointSeconds = Long.parseLong(value);
+                case "--resume" -> resume = value;
+                case "--iterations" -> iterationsOut = value;
+                case "--batch" -> batch = value;
+                case "--tile-cache" -> tileCacheMb = Long.parseLong(value);
+                case "--tile-store" -> tileStore = value;
+                case "--zoom-to" -> zoomTo = Double.parseDouble(value);
+                case "--fps" -> fps = Integer.parseInt(value);
+                case "--antialias" -> antialias = Integer.parseInt(value);
+                case "--seconds" -> seconds = Double.parseDouble(value);
+                case "--serve" -> serve = value;
+                case "--coordinator" -> coordinator = value;
+                case "--workers" -> workers = Integer.parseInt(value);
+                case "--local-workers" -> localWorkers = Integer.parseInt(value);
+                case "--worker" -> worker = value;
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        RenderRequest base;
+        if (center != null) {
+            if (Double.isNaN(span)) throw new IllegalArgumentException("--center needs --span");
+            base = RenderRequest.centered(center[0], center[1], span, width, height, maxIter, mode, palette);
+        } else {
+            base = new RenderRequest(bounds[0], bounds[1], bounds[2], bounds[3],
+                    width, height, maxIter, mode, palette);
+        }
+        MandelbrotRenderer renderer = new MandelbrotRenderer(threads, tileSize);
+        renderer.setSubdivision(subdivision);
+        renderer.setInteriorChecks(interiorChecks);
+        renderer.setPrecision(precision);
+        renderer.setSeriesApproximation(series);
+        renderer.setAntialiasing(antialias);
+        RenderTelemetry telemetry = metrics ? RenderTelemetry.install(renderer, "cli") : null;
+        TileStore store = null;
+        if (tileStore != null) {
+            try {
+                store = TileStore.open(Path.of(tileStore), TileStore.DEFAULT_CAPACITY);
+            } catch (IOException e) {
+                System.err.println("Could not open tile store: " + e.getMessage());
+                return 1;
+            }
+        }
+        if (tileCacheMb > 0 || store != null) {
+            renderer.setTileCache(new TileCache((tileCacheMb > 0 ? tileCacheMb : DEFAULT_TILE_CACHE_MB) << 20, store));
+        }
+        if (simd) {
+            try {
+                renderer.setVectorized(true);
+            } catch (UnsupportedOperationException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        try {
+            if (validate) {
+                System.out.print(renderer.validateSubdivision(base));
+                return 0;
+            }
+            if (comparePrecision) {
+                System.out.print(renderer.comparePrecision(base));
+                return 0;
+            }
+
+            if (worker != null) {
+                return work(renderer, worker);
+            }
+            if (resume != null) {
+                if (coordinator != null || localWorkers > 0) {
+                    throw new IllegalArgumentException("Exports only resume on this machine");
+                }
+                return resume(renderer, resume, checkpointSeconds);
+            }
+            if (coordinator != null || localWorkers > 0) {
+                if (batch != null || serve != null || !Double.isNaN(zoomTo)) {
+                    throw new IllegalArgumentException("Distributed rendering only renders single views");
+                }
+                if (checkpointSeconds > 0) {
+                    throw new IllegalArgumentException("--checkpoint only works for exports on this machine");
+                }
+                List<String> workerArgs = new ArrayList<>();
+                if (!interiorChecks) workerArgs.add("--no-interior-checks");
+                if (!series) workerArgs.add("--no-series");
+                return coordinate(renderer, base, coordinator, Math.max(workers, localWorkers), localWorkers,
+                        Math.max(1, threads / Math.max(1, localWorkers)), workerArgs, scaling, report,
+                        stream || (long) width * height * 16 > Runtime.getRuntime().maxMemory() / 2, out,
+                        iterationsOut);
+            }
+            if (serve != null) {
+                return serve(renderer, base, serve);
+            }
+            if (!Double.isNaN(zoomTo)) {
+                return zoomVideo(renderer, base, zoomTo, (int) Math.round(fps * seconds), out);
+            }
+            //a whole frame takes 16 bytes per pixel, past half the heap it goes to the file band by band
+            if (batch == null && (stream || checkpointSeconds > 0
+                    || (long) width * height * 16 > Runtime.getRuntime().maxMemory() / 2)) {
+                return export(renderer, base, out, iterationsOut, checkpointSeconds);
+            }
+            if (batch == null) {
+                RenderResult result = renderer.render(base);
+                write(result, out, iterationsOut);
+                System.out.printf("Rendered %s (%dx%d) in %.2f ms%n", out, width, height, result.getRenderTimeMs());
+                printAntialiased(renderer, result);
+                if (report) {
+                    System.out.println(result.getStats());
+                    if (renderer.getLastUtilization() != null) System.out.print(renderer.getLastUtilization());
+                }
+                if (renderer.getTileCache() != null) System.out.println(renderer.getTileCache());
+                return 0;
+            }
+            return runBatch(renderer, base, Path.of(batch), report);
+        } finally {
+            if (telemetry != null) System.out.print(telemetry);
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    System.err.println("Could not write tile store: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders every view in the batch file. Encoding a frame runs on its own thread while the next
+     * frame renders, with at most one frame waiting to be written.
+     */
+    private static int runBatch(MandelbrotRenderer renderer, RenderRequest base, Path batchFile, boolean report) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(batchFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not read batch file: " + e.getMessage());
+            return 1;
+        }
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        List<Future<?>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+        int frames = 0;
+        try {
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\\s+");
+                if (parts.length != 5) {
+                    System.err.println("Skipping malformed batch line: " + line);
+                    continue;
+                }
+                RenderRequest request = base.withBounds(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                        Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+                String out = parts[4];
+                RenderResult result = renderer.render(request);
+                printAntialiased(renderer, result);
+                if (report && renderer.getLastUtilization() != null) {
+                    System.out.print(renderer.getLastUtilization());
+                }
+                //wait for the frame before last, so only one encoded frame is ever queued
+                if (pending.size() > 1) pending.remove(0).get();
+                pending.add(writer.submit(() -> {
+                    write(result, out, null);
+                    return null;
+                }));
+                frames++;
+            }
+            for (Future<?> f : pending) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to write frame: " + e.getCause().getMessage());
+            return 1;
+        } finally {
+            writer.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rendered %d frames in %.2f s (%.1f frames/hour)%n",
+                frames, seconds, frames == 0 ? 0 : frames * 3600 / seconds);
+        if (renderer.getTileCache() != null) System.out.println(renderer.getTileCache());
+        return 0;
+    }
+
+    /**
+     * Serves tiles until the JVM is told to stop, see TileServer
+     */
+    private static int serve(MandelbrotRenderer renderer, RenderRequest defaults, String address) {
+        InetSocketAddress socket = parseAddress(address, "--serve");
+        TileServer server;
+        try {
+            server = new TileServer(renderer, socket, defaults, TileServer.DEFAULT_QUEUE, TileServer.DEFAULT_CACHE_BYTES);
+        } catch (IOException e) {
+            System.err.println("Could not start tile server: " + e.getMessage());
+            return 1;
+        }
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread main = Thread.currentThread();
+        //on Ctrl-C stop serving, then give run() the chance to print and close the tile store
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopping = true;
+            server.close();
+            stopped.countDown();
+            try {
+                main.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        server.start();
+        System.out.printf("Serving tiles on http://%s:%d/tiles/{z}/{x}/{y}.png, stats at /stats%n",
+                socket.getHostString(), server.getPort());
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.print(server);
+        return 0;
+    }
+
+    /**
+     * [host:]port, loopback if the host is left out
+     */
+    private static InetSocketAddress parseAddress(String address, String option) {
+        int colon = address.lastIndexOf(':');
+        try {
+            int port = Integer.parseInt(address.substring(colon + 1));
+            return colon < 0 ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                    : new InetSocketAddress(address.substring(0, colon), port);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad " + option + " address, expected [host:]port: " + address);
+        }
+    }
+
+    /**
+     * Renders tiles for a coordinator until it closes the connection, see RenderWorker
+     */
+    private static int work(MandelbrotRenderer renderer, String address) {
+        InetSocketAddress coordinator = parseAddress(address, "--worker");
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        try {
+            long tiles = RenderWorker.run(renderer, coordinator, ProcessHandle.current().pid() + "@" + host);
+            System.out.printf("Coordinator hung up after %d tiles%n", tiles);
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Lost the coordinator at " + address + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Renders the view on workers that connect to a RenderCoordinator, started here or elsewhere.
+     * With scaling, renders it on 1, 2, ... all of them instead and prints how the time falls.
+     */
+    private static int coordinate(MandelbrotRenderer renderer, RenderRequest request, String address, int wanted,
+                                  int localWorkers, int workerThreads, List<String> workerArgs, boolean scaling,
+                                  boolean report, boolean stream, String out, String iterationsOut) {
+        InetSocketAddress socket = address == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)
+                : parseAddress(address, "--coordinator");
+        List<Process> processes = new ArrayList<>();
+        try (RenderCoordinator coordinator = new RenderCoordinator(renderer, socket, RenderCoordinator.DEFAULT_TILE_SIZE)) {
+            System.out.printf("Coordinating on port %d, waiting for %d workers%n", coordinator.getPort(), wanted);
+            for (int i = 0; i < localWorkers; i++) {
+                processes.add(startWorker(coordinator.getPort(), workerThreads, workerArgs));
+            }
+            if (!coordinator.awaitWorkers(wanted, WORKER_WAIT_MS)) {
+                System.err.printf("Only %d of %d workers connected%n", coordinator.getWorkerCount(), wanted);
+                return 1;
+            }
+            if (scaling) {
+                printScaling(coordinator, request, wanted);
+                return 0;
+            }
+            long start = System.nanoTime();
+            if (stream) {
+                if (iterationsOut != null) {
+                    throw new IllegalArgumentException("--iterations needs the whole frame in memory, it can't be streamed");
+                }
+                PosterExport.write(coordinator, request, Path.of(out), RenderMonitor.NONE);
+                System.out.printf("Streamed %s (%dx%d) in %.2f s on %d workers%n", out, request.getWidth(),
+                        request.getHeight(), (System.nanoTime() - start) / 1e9, coordinator.getWorkerCount());
+                return 0;
+            }
+            RenderResult result = coordinator.render(request);
+            write(result, out, iterationsOut);
+            System.out.printf("Rendered %s (%dx%d) in %.2f ms on %d workers%n", out, request.getWidth(),
+                    request.getHeight(), result.getRenderTimeMs(), coordinator.getWorkerCount());
+            if (report) {
+                System.out.println(result.getStats());
+                System.out.print(result.getUtilization());
+                System.out.printf("%d tiles reassigned from lost workers, %d hedged%n",
+                        coordinator.getLastReassigned(), coordinator.getLastHedged());
+            }
+            return 0;
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Distributed render failed: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            for (Process process : processes) process.destroy();
+        }
+    }
+
+    /**
+     * Starts a worker JVM on the same classpath that connects back to the coordinator on this
+     * machine. Its output is dropped, errors go to ours.
+     */
+    private static Process startWorker(int port, int threads, List<String> args) throws IOException {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                "MandelbrotCli", "--worker", String.valueOf(port), "--threads", String.valueOf(threads)));
+        command.addAll(args);
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    /**
+     * Renders the view on 1 to workers workers after a warm-up frame on all of them. Efficiency is
+     * the one-worker time over k times the k-worker time, 100% when k workers are k times as fast.
+     */
+    private static void printScaling(RenderCoordinator coordinator, RenderRequest request, int workers) {
+        coordinator.render(request); //so no run pays for the workers' JIT warm-up
+        System.out.println("Workers  Time (ms)  Speedup  Efficiency  Utilization");
+        double single = 0;
+        for (int k = 1; k <= workers; k++) {
+            RenderResult result = coordinator.render(request, k);
+            double ms = result.getRenderTimeMs();
+            if (k == 1) single = ms;
+            System.out.printf("%7d %10.1f %8.2f %10.1f%% %11.1f%%%n", k, ms, single / ms, 100 * single / (k * ms),
+                    100 * result.getUtilization().getUtilization());
+        }
+    }
+
+    /**
+     * Writes the frames of a zoom from the view into its center, see ZoomVideo
+     */
+    private static int zoomVideo(MandelbrotRenderer renderer, RenderRequest request, double endSpan, int frames,
+                                 String out) {
+        String pattern = out;
+        if (!out.contains("%")) {
+            int dot = out.lastIndexOf('.');
+            pattern = dot > out.lastIndexOf(File.separatorChar) ? out.substring(0, dot) + "_%05d" + out.substring(dot)
+                    : out + "_%05d.png";
+        }
+        ZoomVideo video = new ZoomVideo(request, endSpan, frames);
+        long start = System.nanoTime();
+        try {
+            video.write(renderer, pattern);
+        } catch (IOException e) {
+            System.err.println("Could not write frames: " + e.getMessage());
+            return 1;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rendered %d frames (%dx%d) in %.2f s, %.2f s of it for the %dx%d exponential map%n",
+                frames, request.getWidth(), request.getHeight(), seconds, video.getMapTimeMs() / 1000,
+                video.getColumns(), video.getRows());
+        return 0;
+    }
+
+    /**
+     * Streams the view into a PNG file without ever holding the whole image, see PosterExport
+     */
+    private static int export(MandelbrotRenderer renderer, RenderRequest request, String out, String iterationsOut,
+                              long checkpointSeconds) {
+        if (iterationsOut != null) {
+            throw new IllegalArgumentException("--iterations needs the whole frame in memory, it can't be streamed");
+        }
+        String name = new File(out).getName();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            out += ".png";
+        } else if (!name.substring(dot + 1).equalsIgnoreCase("png")) {
+            throw new IllegalArgumentException("Streamed images can only be written as PNG: " + out);
+        }
+        long start = System.nanoTime();
+        try {
+            PosterExport.write(renderer, request, Path.of(out), checkpointSeconds * 1000, RenderMonitor.NONE);
+        } catch (IOException e) {
+            System.err.println("Could not write " + out + ": " + e.getMessage());
+            if (Files.exists(PosterCheckpoint.of(Path.of(out)))) System.err.println("Continue it with --resume " + out);
+            return 1;
+        }
+        System.out.printf("Streamed %s (%dx%d) in %.2f s%n", out, request.getWidth(), request.getHeight(),
+                (System.nanoTime() - start) / 1e9);
+        if (renderer.getTileCache() != null) System.out.println(renderer.getTileCache());
+        return 0;
+    }
+
+    /**
+     * Continues a streamed export from its checkpoint, see PosterExport.resume
+     */
+    private static int resume(MandelbrotRenderer renderer, String out, long checkpointSeconds) {
+        long start = System.nanoTime();
+        RenderRequest request;
+        try {
+            request = PosterExport.resume(renderer, Path.of(out), checkpointSeconds * 1000, RenderMonitor.NONE);
+        } catch (IOException e) {
+            System.err.println("Could not resume " + out + ": " + e.getMessage());
+            return 1;
+        }
+        System.out.printf("Resumed and finished %s (%dx%d) in %.2f s%n", out, request.getWidth(), request.getHeight(),
+                (System.nanoTime() - start) / 1e9);
+        return 0;
+    }
+
+    private static void printAntialiased(MandelbrotRenderer renderer, RenderResult result) {
+        if (renderer.getAntialiasing() > 1) {
+            System.out.printf("Antialiased %d of %d pixels%n", result.getStats().getAntialiasedPixels(),
+                    result.getStats().getPixels());
+        }
+    }
+
+    static void write(RenderResult result, String out, String iterationsOut) {
+        int width = result.getWidth(), height = result.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(result.getPixels(), 0, raster, 0, width * height);
+        File file = new File(out);
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String format = dot < 0 ? "png" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (dot < 0) file = new File(file.getPath() + ".png");
+        try {
+            if (!ImageIO.write(image, format, file)) {
+                throw new UncheckedIOException(new IOException("No image writer for format " + format));
+            }
+            if (iterationsOut != null) {
+                writeIterations(result, new File(iterationsOut));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Raw iteration buffer: "MITR" magic, width, height, maxIter, then one big-endian int per pixel
+     */
+    static void writeIterations(RenderResult result, File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeIterations(result, out);
+        }
+    }
+
+    /**
+     * The same format into a stream, which stays open
+     */
+    static void writeIterations(RenderResult result, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeBytes("MITR");
+        out.writeInt(result.getWidth());
+        out.writeInt(result.getHeight());
+        out.writeInt(result.getRequest().getMaxIter());
+        for (int iter : result.getIterations()) {
+            out.writeInt(iter);
+        }
+        out.flush();
+    }
+
+    static ColorMode parseMode(String value) {
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case "escape", "escape_time" -> ColorMode.ESCAPE_TIME;
+            case "smooth" -> ColorMode.SMOOTH;
+            case "orbit", "orbit_trap" -> ColorMode.ORBIT_TRAP;
+            default -> throw new IllegalArgumentException("Unknown color mode: " + value);
+        };
+    }
+
+    /**
+     * Parses "x,y" keeping every digit, deep zoom centers need far more than a double holds
+     */
+    static BigDecimal[] parseCenter(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected 2 comma separated numbers: " + value);
+        }
+        try {
+            return new BigDecimal[]{new BigDecimal(parts[0].trim()), new BigDecimal(parts[1].trim())};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad center: " + value);
+        }
+    }
+
+    static double[] parseDoubles(String value, int count) {
+        String[] parts = value.split(",");
+        if (parts.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " comma separated numbers: " + value);
+        }
+        double[] result = new double[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = Double.parseDouble(parts[i].trim());
+        }
+        return result;
+    }
+}
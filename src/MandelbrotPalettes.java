@@ -0,0 +1,171 @@
+import java.awt.Color;
+
+/**
+ * Palette generators used by the CPU renderers. Every palette has 256 entries so the escape time
+ * coloring wraps the same way the shaders do. Indexes match the palette combo box in the viewer.
+ * Colors are packed 0xRRGGBB ints so the render loops can write them straight into an
+ * INT_RGB raster without going through java.awt.Color.
+ */
+public final class MandelbrotPalettes {
+
+    public static final String[] NAMES = {
+            "Grayscale", "Orange-Black", "Cyan", "Blue-Green", "Fire", "HSV1", "HSV2", "HSV3"};
+
+    private MandelbrotPalettes() {
+    }
+
+    /**
+     * Returns the palette for a combo box index, or a gradient of the base color for any other index
+     */
+    public static int[] byIndex(int index, int baseRgb) {
+        return switch (index) {
+            case 0 -> generateGrayscalePalette();
+            case 1 -> generateOrangeBlackPalette();
+            case 2 -> generateCyanPalette();
+            case 3 -> generateBlueGreenPalette();
+            case 4 -> generateFirePalette();
+            case 5 -> generateHSV1Palette();
+            case 6 -> generateHSV2Palette();
+            case 7 -> generateHSV3Palette();
+            default -> generatePalette(baseRgb);
+        };
+    }
+
+    /**
+     * Looks up a palette by (case-insensitive) name, falling back to a numeric index. Used by the CLI.
+     */
+    public static int[] byName(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name)) {
+                return byIndex(i, 0x0000FF);
+            }
+        }
+        return byIndex(Integer.parseInt(name), 0x0000FF);
+    }
+
+    /**
+     * Gradient from black to the given 0xRRGGBB base color
+     */
+    public static int[] generatePalette(int baseRgb) {
+        int baseR = (baseRgb >> 16) & 0xFF, baseG = (baseRgb >> 8) & 0xFF, baseB = baseRgb & 0xFF;
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            int r = (baseR * i) / 255;
+            int g = (baseG * i) / 255;
+            int b = (baseB * i) / 255;
+            colors[i] = rgb(r, g, b);
+        }
+        return colors;
+    }
+
+    public static int[] generateOrangeBlackPalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float t = i / 255f;
+            int r = (int) (t * 255);
+            int g = (int) (t * 153);  // ~0.6 * 255
+            int b = (int) (t * 51);   // ~0.2 * 255
+            colors[i] = rgb(r, g, b);
+        }
+        return colors;
+    }
+
+    public static int[] generateCyanPalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float t = i / 255f;
+            int r = (int) (51 + t * 204);   // from 0.2 to 1.0
+            int g = (int) (25 + t * 102);   // from 0.1 to 0.5
+            int b = (int) (255 - t * 229);  // from 1.0 to ~0.1
+            colors[i] = rgb(clamp(r), clamp(g), clamp(b));
+        }
+        return colors;
+    }
+
+    public static int[] generateBlueGreenPalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float t = i / 255f;
+            int r = (int) (25 + t * 51);    // 0.1 to ~0.3
+            int g = (int) (t * 230);        // 0 to ~0.9
+            int b = (int) (179 + t * 76);   // 0.7 to ~1.0
+            colors[i] = rgb(clamp(r), clamp(g), clamp(b));
+        }
+        return colors;
+    }
+
+    public static int[] generateFirePalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            double rFrac = Math.min(1.0, i / 85.0);
+            double gFrac = Math.min(1.0, Math.max(0.0, (i - 85) / 85.0));
+            double bFrac = Math.min(1.0, Math.max(0.0, (i - 170) / 85.0));
+            int r = (int) (255 * rFrac);
+            int g = (int) (255 * gFrac);
+            int b = (int) (255 * bFrac);
+            colors[i] = rgb(r, g, b);
+        }
+        return colors;
+    }
+
+    public static int[] generateHSV1Palette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float hue = (i / 256f);
+            colors[i] = Color.HSBtoRGB(hue, 1f, 1f) & 0xFFFFFF;
+        }
+        return colors;
+    }
+
+    public static int[] generateHSV2Palette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float hue = (float) Math.pow(i / 256f, 0.8);
+            colors[i] = Color.HSBtoRGB(hue, 1f, 1f) & 0xFFFFFF;
+        }
+        return colors;
+    }
+
+    public static int[] generateHSV3Palette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float hue = (float) Math.sqrt(i / 256f);
+            colors[i] = Color.HSBtoRGB(hue, 1f, 1f) & 0xFFFFFF;
+        }
+        return colors;
+    }
+
+    public static int[] generateCoolPalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float t = i / 255f;
+            int r = (int)(64 + 128 * t);
+            int g = (int)(32 + 64 * t);
+            int b = (int)(128 + 127 * t);
+            colors[i] = rgb(r, g, b);
+        }
+        return colors;
+    }
+
+    public static int[] generateGrayscalePalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = rgb(i, i, i);
+        }
+        return colors;
+    }
+
+    /**
+     * Packs 0-255 channels into 0xRRGGBB
+     */
+    private static int rgb(int r, int g, int b) {
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Helper method for color generation
+     */
+    private static int clamp(int val) {
+        return Math.max(0, Math.min(255, val));
+    }
+}
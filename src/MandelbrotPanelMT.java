@@ -2,10 +2,17 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
 import javax.imageio.ImageIO;
-import java.util.concurrent.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A panel display that shows the Mandelbrot set, rendered with the CPU, in either multicore or
@@ -14,32 +21,96 @@ import java.util.concurrent.*;
  */
 public class MandelbrotPanelMT extends JPanel {
 
-    enum ColorMode { ESCAPE_TIME, SMOOTH, ORBIT_TRAP } // Different render modes for color calc
     private ColorMode colorMode = ColorMode.ESCAPE_TIME; //simplest for default
 
-    private double xMin = -2.0, xMax = 1.0, yMin = -1.5, yMax = 1.5;
+    //the center keeps full precision so deep zooms stay where they are, see RenderRequest.isDeep
+    private BigDecimal centerX = BigDecimal.valueOf(-0.5), centerY = BigDecimal.ZERO;
+    private double viewWidth = 3.0, viewHeight = 3.0;
     private int maxIter = 2000;
     private Color baseColor = Color.BLUE;
-    private Color[] palette = generateFirePalette();
+    private int[] palette = MandelbrotPalettes.generateFirePalette(); //packed 0xRRGGBB
     private int paletteIndex = 1;
-    private BufferedImage image;
-    private int renderScale = 1;
+    private volatile BufferedImage image; //last fully rendered frame, used for saving
+    private volatile BufferedImage displayImage; //frame on screen, may still be filling in tile by tile
+    private RenderRequest displayedRequest; //view of displayImage, render thread only
+    //two reusable images and iteration fields per render scale, reallocated only when the panel is resized.
+    //a new frame always draws into the image that is not on screen and the field that doesn't hold
+    //the last complete frame, so a recolor can still read it. Only touched by the render thread.
+    private final BufferedImage[][] imagePool = new BufferedImage[5][2];
+    private final IterationField[][] fieldPool = new IterationField[5][2];
+    private final IterationField[] completeField = new IterationField[5];
+    private int baseScale = 1; //chosen by the user
+    //progressive passes of the frames being rendered, fewer while input goes on
+    private int renderPasses = MandelbrotRenderer.PASSES;
+    //frame on screen that still has passes to go, and its image. Render thread only
+    private MandelbrotRenderer.Progressive progressive;
+    private BufferedImage progressiveImage;
     private boolean boxZoomEnabled = false; //Note: disabled by default because box zoom not implemented yet
     private double totalRenderTimeMT = 0;
     private double totalRenderTimeST = 0;
     private int renderCountMT = 0;
     private int renderCountST = 0;
-    private boolean autoRefine = true; //loads smaller resolution first, then refines, for smoother zooming
-    private boolean showTimer = true;
+    private boolean autoRefine = true; //only the first passes while the view moves, for smoother zooming
+    //picks the preview passes while the view is moving, and refines once input has been idle a moment
+    private final FrameGovernor governor = new FrameGovernor(FrameGovernor.DEFAULT_FPS);
+    private final javax.swing.Timer refineTimer;
+    private volatile boolean showTimer = true;
     private int dragStartX, dragStartY; //for mouse clicking and dragging
     private boolean multithreaded = true;
     private boolean gpuEnabled = false;
+    private final MandelbrotRenderer renderer = new MandelbrotRenderer(); //does the actual CPU computation
+    private final RenderTelemetry telemetry = new RenderTelemetry(renderer); //published over JMX as "viewer"
+    private volatile RenderResult costedFrame; //last frame with tile costs, for the heatmap
+    private volatile boolean showHeatmap = false;
+    //tiles of the views visited so far, rooted at the first full resolution frame of the panel's size
+    private static final long TILE_CACHE_BYTES = 256L << 20;
+    private final TileCache tileCache = new TileCache(TILE_CACHE_BYTES);
+    private int cachedWidth, cachedHeight; //render thread only
+    //frames render one after another on this thread, never on the EDT
+    private final ExecutorService renderThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mandelbrot-render");
+        t.setDaemon(true);
+        return t;
+    });
+    //bumped for every new view, any frame with an older generation stops at its next tile
+    private final AtomicLong generation = new AtomicLong();
+    private RenderRequest lastRequested; //EDT only
+    private int lastPasses; //passes lastRequested was started with, EDT only
+    //zooms stop here: the perturbation works with pixel offsets in doubles, which lose precision
+    //once they get near the smallest normal double (about 2e-308)
+    private static final double MIN_PIXEL_SIZE = 1e-290;
 
     public MandelbrotPanelMT() {
         setBackground(Color.BLACK);
         setColorMode(0);
         setPalette(0);
         setupMouseListeners();
+        renderer.setTileCache(tileCache);
+        renderer.setMetrics(telemetry);
+        renderer.setMirroring(true); //views across the real axis render the overlap with their reflection once
+        refineTimer = new javax.swing.Timer(governor.idleDelayMs(), e -> {
+            renderPasses = MandelbrotRenderer.PASSES;
+            repaint();
+        });
+        refineTimer.setRepeats(false);
+        try {
+            telemetry.register("viewer");
+        } catch (IllegalArgumentException e) {
+            //another viewer in this JVM has the name, its metrics are published and these aren't
+        }
+    }
+
+    public RenderTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Shades every tile of the last frame by what it cost, blue for the cheapest to red for the
+     * most expensive on a log scale, to see where the time goes and how it spreads over the workers
+     */
+    public void setHeatmap(boolean enabled) {
+        showHeatmap = enabled;
+        repaint();
     }
 
     public void setColorMode(int index) {
@@ -51,23 +122,31 @@ public class MandelbrotPanelMT extends JPanel {
         Color c = JColorChooser.showDialog(this, "Pick Base Color", baseColor);
         if (c != null) {
             baseColor = c; //JColorChooser will show last previously picked color
-            palette = generatePalette(c);
+            palette = MandelbrotPalettes.generatePalette(c.getRGB());
             repaint();
         }
     }
 
     public void resetView() {
-        xMin = -2.0; xMax = 1.0; yMin = -1.5; yMax = 1.5;
+        centerX = BigDecimal.valueOf(-0.5);
+        centerY = BigDecimal.ZERO;
+        viewWidth = 3.0;
+        viewHeight = 3.0;
         repaint();
     }
 
     public void setRenderScale(int scale) {
-        renderScale = scale;
+        baseScale = scale;
         repaint();
     }
 
     public void setAutoRefine(boolean enabled) {
         autoRefine = enabled;
+        if (!enabled && renderPasses != MandelbrotRenderer.PASSES) {
+            refineTimer.stop();
+            renderPasses = MandelbrotRenderer.PASSES;
+            repaint();
+        }
     }
 
     public void toggleTimer(boolean enabled) {
@@ -76,15 +155,16 @@ public class MandelbrotPanelMT extends JPanel {
 
     //used for syncing zoom and position between CPU and GPU panels
     public double[] getViewBounds() {
-        return new double[]{xMin, xMax, yMin, yMax};
+        double cx = centerX.doubleValue(), cy = centerY.doubleValue();
+        return new double[]{cx - viewWidth / 2, cx + viewWidth / 2, cy - viewHeight / 2, cy + viewHeight / 2};
     }
 
     //used for syncing zoom and position between CPU and GPU panels
     public void setViewBounds(double xMin, double xMax, double yMin, double yMax) {
-        this.xMin = xMin;
-        this.xMax = xMax;
-        this.yMin = yMin;
-        this.yMax = yMax;
+        centerX = new BigDecimal((xMin + xMax) / 2);
+        centerY = new BigDecimal((yMin + yMax) / 2);
+        viewWidth = xMax - xMin;
+        viewHeight = yMax - yMin;
         repaint();
     }
 
@@ -108,312 +188,394 @@ public class MandelbrotPanelMT extends JPanel {
         }
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        int width = getWidth() / renderScale;
-        int height = getHeight() / renderScale;
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-        long start = System.nanoTime();
-
-        if (gpuEnabled) {
-            renderWithGPU(image, width, height);
-        } else if (multithreaded) {
-            renderMultiThreaded(image, width, height);
-        } else {
-            renderSingleThreaded(image, width, height);
+    /**
+     * Renders the current view at print size, far past what fits in memory, straight into a PNG
+     * file (see PosterExport). Runs on its own renderer in the background behind a progress dialog
+     * that can cancel it, so the panel stays usable meanwhile.
+     */
+    public void exportPoster() {
+        int defaultWidth = 8192, defaultHeight = (int) Math.round(8192.0 * getHeight() / Math.max(1, getWidth()));
+        String size = JOptionPane.showInputDialog(this, "Poster size in pixels (width x height):",
+                defaultWidth + "x" + defaultHeight);
+        if (size == null) return;
+        String[] parts = size.toLowerCase().split("x");
+        int width, height;
+        try {
+            width = Integer.parseInt(parts[0].trim());
+            height = Integer.parseInt(parts[parts.length - 1].trim());
+        } catch (NumberFormatException e) {
+            width = height = 0;
         }
+        if (parts.length != 2 || width <= 0 || height <= 0) {
+            JOptionPane.showMessageDialog(this, "Expected a size like 16384x9216", "Poster", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("mandelbrot_poster.png"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File chosen = fileChooser.getSelectedFile();
+        File file = chosen.getName().toLowerCase().endsWith(".png") ? chosen
+                : new File(chosen.getParentFile(), chosen.getName() + ".png");
+
+        RenderRequest request = RenderRequest.centered(centerX, centerY, viewWidth, width, height,
+                maxIter, colorMode, palette);
+        ProgressMonitor progress = new ProgressMonitor(this, "Exporting " + file.getName(), null, 0, height);
+        progress.setMillisToDecideToPopup(0);
+        MandelbrotRenderer exporter = new MandelbrotRenderer();
+        exporter.setSubdivision(renderer.getSubdivision());
+        exporter.setPrecision(renderer.getPrecision());
+        exporter.setVectorized(renderer.isVectorized());
+        RenderMonitor monitor = new RenderMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return progress.isCanceled();
+            }
 
-        long end = System.nanoTime();
-        double time = (end - start) / 1_000_000.0;
-
-        if (renderScale == 1 && showTimer) {
-            if (multithreaded) {
-                //System.out.printf("[Multithreaded] Render time: %.2f ms\n", time);
-                totalRenderTimeMT += time;
-                renderCountMT++;
-                System.out.printf("[Multithreaded] Render time: %.2f ms (Average over %d renders: %.2f ms)\n",
-                        time, renderCountMT, totalRenderTimeMT / renderCountMT);
-            } else {
-                //System.out.printf("[Single-threaded] Render time: %.2f ms\n", time);
-                totalRenderTimeST += time;
-                renderCountST++;
-                System.out.printf("[Single-threaded] Render time: %.2f ms (Average over %d renders: %.2f ms)\n",
-                        time, renderCountST, totalRenderTimeST / renderCountST);
+            @Override
+            public void tileCompleted(int x, int y, int w, int h) {
+                SwingUtilities.invokeLater(() -> progress.setProgress(y + h));
             }
-        }
-        g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+        };
+        Thread thread = new Thread(() -> {
+            try {
+                PosterExport.write(exporter, request, file.toPath(), monitor);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Saved " + file.getName()));
+            } catch (CancellationException e) {
+                //the dialog is gone already, and so is the partial file
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "Failed to export poster:\n" + e.getMessage(), "Poster", JOptionPane.ERROR_MESSAGE));
+            } finally {
+                exporter.shutdown();
+                SwingUtilities.invokeLater(progress::close);
+            }
+        }, "mandelbrot-poster");
+        thread.setDaemon(true);
+        thread.start();
     }
 
+    /**
+     * Only draws the current frame. If the view changed since the last frame was requested, a new
+     * frame is started in the background and the old one is abandoned.
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        int width = getWidth() / baseScale;
+        int height = getHeight() / baseScale;
+        if (width <= 0 || height <= 0) return; //panel not laid out yet
 
+        if (gpuEnabled) {
+            BufferedImage placeholder = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            renderWithGPU(placeholder, width, height);
+            g.drawImage(placeholder, 0, 0, getWidth(), getHeight(), null);
+            return;
+        }
 
-    public void setMultiThreaded(boolean enabled) {
-        multithreaded = enabled;
-    }
-
-    private void renderMultiThreaded(BufferedImage image, int width, int height) {
-        double[] bounds = normalizeAspectRatio(width, height);
-        double xMinAdj = bounds[0], xMaxAdj = bounds[1], yMinAdj = bounds[2], yMaxAdj = bounds[3];
-
-        int cores = Runtime.getRuntime().availableProcessors();
-        ExecutorService executor = Executors.newFixedThreadPool(cores);
-        CountDownLatch latch = new CountDownLatch(cores);
-
-        for (int thread = 0; thread < cores; thread++) {
-            int startY = thread * height / cores;
-            int endY = (thread + 1) * height / cores;
-            executor.submit(() -> {
-                for (int y = startY; y < endY; y++) {
-                    for (int x = 0; x < width; x++) {
-                        double x0 = xMinAdj + x * (xMaxAdj - xMinAdj) / width;
-                        double y0 = yMinAdj + y * (yMaxAdj - yMinAdj) / height;
-                        // color each pixel based on current ColorMode setting
-                        Color color = switch (colorMode) {
-                            case ESCAPE_TIME -> getEscapeColor(x0, y0);
-                                //int iter = mandelbrot(x0, y0);
-                                //yield palette[iter % palette.length];
-                            //smooths bands with logarithmic smoothing
-                            case SMOOTH -> getSmoothColor(x0, y0);
-                            //Very different, somewhat abstract and organic patterns
-                            case ORBIT_TRAP -> orbitTrapColor(x0, y0);
-                        };
-                        image.setRGB(x, y, color.getRGB());
-                    }
+        RenderRequest request = RenderRequest.centered(centerX, centerY, viewWidth, width, height,
+                maxIter, colorMode, palette);
+        //while a preview renders, newer views wait for it and the one after it is the latest. Once
+        //input stops, the same view gets its remaining passes. Subdivision only works on whole frames
+        boolean interlaced = autoRefine && renderer.getSubdivision() == MandelbrotRenderer.Subdivision.OFF;
+        int passes = interlaced ? renderPasses : MandelbrotRenderer.PASSES;
+        boolean refining = request.equals(lastRequested) && passes > lastPasses;
+        if ((refining || !request.equals(lastRequested)) && governor.shouldStart()) {
+            double done = refining ? MandelbrotRenderer.Progressive.sampledFraction(lastPasses) : 0;
+            lastRequested = request;
+            lastPasses = passes;
+            long gen = generation.incrementAndGet();
+            int scale = baseScale;
+            boolean mt = multithreaded;
+            double share = MandelbrotRenderer.Progressive.sampledFraction(passes) - done;
+            long pixels = (long) (share * width * height);
+            governor.frameStarted(gen, pixels, passes < MandelbrotRenderer.PASSES);
+            renderThread.execute(() -> {
+                try {
+                    renderFrame(gen, request, scale, interlaced ? passes : 0, mt);
+                } finally {
+                    governor.frameFinished(gen);
+                    repaint(); //starts the view that waited for this frame, if there is one
                 }
-                latch.countDown();
             });
         }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        BufferedImage shown = displayImage;
+        if (shown != null) {
+            g.drawImage(shown, 0, 0, getWidth(), getHeight(), null);
         }
-        executor.shutdown();
-    }
-
-    private void renderSingleThreaded(BufferedImage image, int width, int height) {
-        double[] bounds = normalizeAspectRatio(width, height);
-        double xMinAdj = bounds[0], xMaxAdj = bounds[1], yMinAdj = bounds[2], yMaxAdj = bounds[3];
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double x0 = xMinAdj + x * (xMaxAdj - xMinAdj) / width;
-                double y0 = yMinAdj + y * (yMaxAdj - yMinAdj) / height;
-                Color color = switch (colorMode) {
-                    case ESCAPE_TIME -> getEscapeColor(x0, y0);
-                        //classic Mandelbrot, produces sharp edges and banded concentric rings
-                        //int iter = mandelbrot(x0, y0);
-                        //yield palette[iter % palette.length];
-                    case SMOOTH -> getSmoothColor(x0, y0);
-                    case ORBIT_TRAP -> orbitTrapColor(x0, y0);
-                };
-                image.setRGB(x, y, color.getRGB());
-            }
+        RenderResult costed = costedFrame;
+        if (showHeatmap && costed != null) {
+            paintHeatmap(g, costed);
         }
     }
 
-    public void setGpuEnabled(boolean enabled) {
-        gpuEnabled = enabled;
-    }
-
-    private void renderWithGPU(BufferedImage image, int width, int height) {
-        // Placeholder, actual GPU rendering occurs in the MandelbrotPanelGPU class
-        Graphics2D g = image.createGraphics();
-        g.setColor(Color.BLACK);
-        g.fillRect(0, 0, width, height);
-        g.setColor(Color.RED);
-        g.drawString("[GPU rendering not yet implemented]", 10, 20);
-        g.dispose();
-    }
-
-    private int mandelbrot(double x0, double y0) {
-        double x = 0, y = 0;
-        int iter = 0;
-        while (x * x + y * y <= 4 && iter < maxIter) {
-            double xtemp = x * x - y * y + x0;
-            y = 2 * x * y + y0;
-            x = xtemp;
-            iter++;
+    private void paintHeatmap(Graphics g, RenderResult frame) {
+        UtilizationReport report = frame.getUtilization();
+        long[] costs = report.getTileCosts();
+        long min = Long.MAX_VALUE, max = 0;
+        for (long cost : costs) {
+            if (cost > 0) min = Math.min(min, cost);
+            max = Math.max(max, cost);
+        }
+        if (max == 0) return;
+        double range = Math.log((double) max / min);
+        double sx = (double) getWidth() / frame.getWidth(), sy = (double) getHeight() / frame.getHeight();
+        int size = report.getTileSize(), tilesX = report.getTilesX();
+        for (int i = 0; i < costs.length; i++) {
+            if (costs[i] == 0) continue; //skipped by a cancelled frame
+            float heat = range == 0 ? 1 : (float) (Math.log((double) costs[i] / min) / range);
+            Color hue = Color.getHSBColor((1 - heat) * 0.66f, 1, 1);
+            g.setColor(new Color(hue.getRed(), hue.getGreen(), hue.getBlue(), 110));
+            int x0 = (int) Math.round(i % tilesX * size * sx), y0 = (int) Math.round(i / tilesX * size * sy);
+            int x1 = (int) Math.round(Math.min(frame.getWidth(), (i % tilesX + 1) * size) * sx);
+            int y1 = (int) Math.round(Math.min(frame.getHeight(), (i / tilesX + 1) * size) * sy);
+            g.fillRect(x0, y0, x1 - x0, y1 - y0);
         }
-        return iter;
+        g.setColor(Color.WHITE);
+        g.drawString(String.format("Tiles %.3f to %.3f ms, imbalance %.2f", min / 1e6, max / 1e6,
+                report.getImbalance()), 10, getHeight() - 10);
     }
 
-    private Color getEscapeColor(double x0, double y0) {
-        int iter = mandelbrot(x0, y0);
-
-        if (iter == maxIter) {
-            return Color.BLACK;  // Inside the Mandelbrot set
+    /**
+     * Runs on the render thread. Puts the previous frame, moved to the new view, on screen right
+     * away, then fills in the new tiles as they finish. With passes above 0 the frame renders
+     * progressively up to that pass, and a later call for the same view goes on from there.
+     * Returns early once a newer view is requested.
+     */
+    private void renderFrame(long gen, RenderRequest request, int scale, int passes, boolean mt) {
+        if (gen != generation.get()) return; //superseded before it even started
+
+        int width = request.getWidth(), height = request.getHeight();
+        if (scale == 1 && (width != cachedWidth || height != cachedHeight)) {
+            //a resize changes the pixel size, the old pyramid's levels no longer line up
+            tileCache.clear();
+            cachedWidth = width;
+            cachedHeight = height;
         }
+        int slot = Math.min(scale, imagePool.length - 1);
+        //the preview passes of this view are on screen, the rest of its passes go into the same image
+        boolean continuing = passes > 0 && progressive != null && progressive.getRequest().equals(request)
+                && progressiveImage == displayImage;
+        int buffer = imagePool[slot][0] == displayImage ? 1 : 0;
+        BufferedImage target = continuing ? progressiveImage : pooledImage(slot, buffer, width, height);
+        //write straight into the image's backing array, no per-pixel setRGB
+        int[] raster = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+
+        double toScreenX = (double) getWidth() / width, toScreenY = (double) getHeight() / height;
+        RenderMonitor monitor = new RenderMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return generation.get() != gen;
+            }
 
-        // Wrap the index every 256 steps to simulate shader behavior
-        int wrappedIndex = iter % 256;
-
-        // Scale to match the palette length (assuming palette.length == 256)
-        int index = (int) ((wrappedIndex / 255.0) * (palette.length - 1));
+            @Override
+            public void tileCompleted(int x, int y, int w, int h) {
+                //repaint requests are thread safe and coalesced by the RepaintManager
+                repaint((int) (x * toScreenX), (int) (y * toScreenY),
+                        (int) Math.ceil(w * toScreenX) + 1, (int) Math.ceil(h * toScreenY) + 1);
+            }
 
-        return palette[iter % palette.length];
-    }
+            @Override
+            public void tilePreviewed(int x, int y, int w, int h) {
+                tileCompleted(x, y, w, h); //coarser tiles of the cache, shown the same way
+            }
+        };
 
-    private Color getSmoothColor (double x0, double y0) {
-        double x = 0, y = 0;
-        int iter = 0;
-        while (x * x + y * y <= 4 && iter < maxIter) {
-            double xtemp = x * x - y * y + x0;
-            y = 2 * x * y + y0;
-            x = xtemp;
-            iter++;
-        }
-        double zn = Math.sqrt(x * x + y * y); //calculates |z|, the magnitude of the final complex value
-        //then estimates how far between two interations the point escaped
-        double smooth = iter + 1 - Math.log(Math.log(zn)) / Math.log(2);
-        int index = (int) (smooth * 5) % palette.length; //smooth factor * 5 can be adjusted
-        return palette[Math.max(0, Math.min(index, palette.length - 1))];
-    }
-
-    private Color orbitTrapColor(double x0, double y0) {
-        double x = x0, y = y0;
-        double minDist = Double.MAX_VALUE;
-
-        for (int i = 0; i < maxIter; i++) {
-            double xtemp = x * x - y * y + x0;
-            y = 2 * x * y + y0;
-            x = xtemp;
-            double dist = Math.sqrt(x * x + y * y);
-            if (dist < minDist) minDist = dist;
-            if (x * x + y * y > 100.0) break; // match the shader's escape threshold
+        //only the palette or color mode changed, the last field colors the new frame in a few ms
+        IterationField complete = completeField[slot];
+        if (!continuing && complete != null && complete.canRecolor(request) && renderer.getAntialiasing() == 1) {
+            RenderResult result;
+            try {
+                result = renderer.recolor(complete, request, mt, raster, monitor);
+            } catch (CancellationException e) {
+                return;
+            }
+            displayImage = target;
+            displayedRequest = request;
+            image = target;
+            repaint();
+            logRenderTime(result, scale, mt);
+            return;
         }
 
-        double t = Math.exp(-minDist * 5.0);   // falloff multiplier matches shader
-        t = Math.pow(t, 1.5);                  // gamma correction
+        if (!continuing) {
+            progressive = null;
+            drawPlaceholder(target, displayImage, displayedRequest, request);
+            displayImage = target;
+            displayedRequest = request;
+            repaint();
+        }
 
-        int index = (int) (t * (palette.length - 1));
-        return palette[Math.max(0, Math.min(index, palette.length - 1))];
+        RenderResult result;
+        long start = System.nanoTime();
+        try {
+            if (passes > 0) {
+                if (!continuing) {
+                    //pans and power of two zooms copy the samples they share with the last frame
+                    progressive = renderer.startProgressive(completeField[slot], request, raster,
+                            pooledField(slot, width, height), monitor);
+                    progressiveImage = target;
+                }
+                int before = progressive.getCompletedPasses();
+                try {
+                    result = renderer.renderProgressive(progressive, passes, mt, monitor);
+                } finally {
+                    double computed = MandelbrotRenderer.Progressive.sampledFraction(progressive.getCompletedPasses())
+                            - MandelbrotRenderer.Progressive.sampledFraction(before);
+                    governor.rendered(System.nanoTime() - start, (long) (computed * width * height));
+                }
+                if (result == null) return; //the preview passes are on screen, the rest follow once input stops
+                progressive = null;
+            } else {
+                result = renderer.renderReusing(completeField[slot], request, mt, raster,
+                        pooledField(slot, width, height), monitor);
+                governor.rendered(System.nanoTime() - start, (long) width * height);
+            }
+        } catch (CancellationException e) {
+            return; //a newer view took over, its frame starts from what we have on screen
+        }
+        completeField[slot] = result.getField();
+        image = target;
+        if (result.getUtilization() != null) {
+            costedFrame = result;
+            if (showHeatmap) repaint();
+        }
+        logRenderTime(result, scale, mt);
     }
 
-    public void setPalette(int index) {
-        paletteIndex = index;
-        switch (index) {
-            case 0 -> palette = generateGrayscalePalette();
-            case 1 -> palette = generateOrangeBlackPalette();
-            case 2 -> palette = generateCyanPalette();
-            case 3 -> palette = generateBlueGreenPalette();
-            case 4 -> palette = generateFirePalette();
-            case 5 -> palette = generateHSV1Palette();
-            case 6 -> palette = generateHSV2Palette();
-            case 7 -> palette = generateHSV3Palette();
-            default -> palette = generatePalette(baseColor);
+    private void logRenderTime(RenderResult result, int scale, boolean mt) {
+        double time = result.getRenderTimeMs();
+        if (scale == 1 && showTimer) {
+            if (mt) {
+                totalRenderTimeMT += time;
+                renderCountMT++;
+                System.out.printf("[Multithreaded] Render time: %.2f ms (Average over %d renders: %.2f ms)\n",
+                        time, renderCountMT, totalRenderTimeMT / renderCountMT);
+            } else {
+                totalRenderTimeST += time;
+                renderCountST++;
+                System.out.printf("[Single-threaded] Render time: %.2f ms (Average over %d renders: %.2f ms)\n",
+                        time, renderCountST, totalRenderTimeST / renderCountST);
+            }
+            if (renderer.getAntialiasing() > 1) {
+                System.out.printf("Antialiased %d of %d pixels%n", result.getStats().getAntialiasedPixels(),
+                        result.getStats().getPixels());
+            }
         }
-        repaint();
     }
 
-    private Color[] generatePalette(Color base) {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            int r = (base.getRed() * i) / 255;
-            int g = (base.getGreen() * i) / 255;
-            int b = (base.getBlue() * i) / 255;
-            colors[i] = new Color(r, g, b);
+    /**
+     * Draws the previous frame where its content lands in the new view, so a pan or zoom shows
+     * feedback immediately while the real tiles are still computing. Uncovered areas are black.
+     */
+    private static void drawPlaceholder(BufferedImage target, BufferedImage previous,
+                                        RenderRequest previousRequest, RenderRequest request) {
+        Graphics2D g = target.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, target.getWidth(), target.getHeight());
+        if (previous != null && previous != target && previousRequest != null) {
+            //both views measured from the new center, deep views don't fit in plain bounds
+            double[] bounds = boundsAround(request, request);
+            double[] previousBounds = boundsAround(previousRequest, request);
+            double sx = target.getWidth() / (bounds[1] - bounds[0]);
+            double sy = target.getHeight() / (bounds[3] - bounds[2]);
+            int x0 = (int) Math.round((previousBounds[0] - bounds[0]) * sx);
+            int y0 = (int) Math.round((previousBounds[2] - bounds[2]) * sy);
+            int x1 = (int) Math.round((previousBounds[1] - bounds[0]) * sx);
+            int y1 = (int) Math.round((previousBounds[3] - bounds[2]) * sy);
+            g.drawImage(previous, x0, y0, x1 - x0, y1 - y0, null);
         }
-        return colors;
+        g.dispose();
     }
 
-    private Color[] generateOrangeBlackPalette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float t = i / 255f;
-            int r = (int) (t * 255);
-            int g = (int) (t * 153);  // ~0.6 * 255
-            int b = (int) (t * 51);   // ~0.2 * 255
-            colors[i] = new Color(r, g, b);
-        }
-        return colors;
+    /**
+     * Normalized bounds of a view relative to the center of another one
+     */
+    private static double[] boundsAround(RenderRequest view, RenderRequest origin) {
+        double cx = view.getCenterX().subtract(origin.getCenterX()).doubleValue();
+        double cy = view.getCenterY().subtract(origin.getCenterY()).doubleValue();
+        double w = view.getSpan(), h = w * view.getHeight() / view.getWidth();
+        return new double[]{cx - w / 2, cx + w / 2, cy - h / 2, cy + h / 2};
     }
 
-    private Color[] generateCyanPalette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float t = i / 255f;
-            int r = (int) (51 + t * 204);   // from 0.2 to 1.0
-            int g = (int) (25 + t * 102);   // from 0.1 to 0.5
-            int b = (int) (255 - t * 229);  // from 1.0 to ~0.1
-            colors[i] = new Color(clamp(r), clamp(g), clamp(b));
+    /**
+     * Returns one of the two pooled images for a render scale, allocating a new one only when the
+     * size changed.
+     */
+    private BufferedImage pooledImage(int slot, int buffer, int width, int height) {
+        BufferedImage pooled = imagePool[slot][buffer];
+        if (pooled == null || pooled.getWidth() != width || pooled.getHeight() != height) {
+            pooled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            imagePool[slot][buffer] = pooled;
         }
-        return colors;
+        return pooled;
     }
 
-    private Color[] generateBlueGreenPalette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float t = i / 255f;
-            int r = (int) (25 + t * 51);    // 0.1 to ~0.3
-            int g = (int) (t * 230);        // 0 to ~0.9
-            int b = (int) (179 + t * 76);   // 0.7 to ~1.0
-            colors[i] = new Color(clamp(r), clamp(g), clamp(b));
-        }
-        return colors;
-    }
-
-    private Color[] generateFirePalette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            double rFrac = Math.min(1.0, i / 85.0);
-            double gFrac = Math.min(1.0, Math.max(0.0, (i - 85) / 85.0));
-            double bFrac = Math.min(1.0, Math.max(0.0, (i - 170) / 85.0));
-            int r = (int) (255 * rFrac);
-            int g = (int) (255 * gFrac);
-            int b = (int) (255 * bFrac);
-            colors[i] = new Color(r, g, b);
+    /**
+     * Returns the pooled field for a render scale that doesn't hold the last complete frame,
+     * allocating a new one only when the size changed.
+     */
+    private IterationField pooledField(int slot, int width, int height) {
+        int buffer = fieldPool[slot][0] == completeField[slot] ? 1 : 0;
+        IterationField pooled = fieldPool[slot][buffer];
+        if (pooled == null || !pooled.fits(width, height)) {
+            pooled = new IterationField(width, height);
+            fieldPool[slot][buffer] = pooled;
         }
-        return colors;
+        return pooled;
     }
 
-    private Color[] generateHSV1Palette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float hue = (i / 256f);
-            colors[i] = Color.getHSBColor(hue, 1f, 1f);
-        }
-        return colors;
+    /**
+     * Mariani-Silver fill for the escape time mode, see MarianiSilver
+     */
+    public void setSubdivision(MandelbrotRenderer.Subdivision subdivision) {
+        renderer.setSubdivision(subdivision);
+        //same view, but it has to be rendered again instead of recolored
+        renderThread.execute(() -> Arrays.fill(completeField, null));
+        tileCache.clear();
+        lastRequested = null;
+        repaint();
     }
 
-    private Color[] generateHSV2Palette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float hue = (float) Math.pow(i / 256f, 0.8);
-            colors[i] = Color.getHSBColor(hue, 1f, 1f);
-        }
-        return colors;
+    /**
+     * SIMD kernels, see MandelbrotRenderer.setVectorized. Same images, so nothing is rendered again.
+     */
+    public void setVectorized(boolean enabled) {
+        renderer.setVectorized(enabled);
     }
 
-    private Color[] generateHSV3Palette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float hue = (float) Math.sqrt(i / 256f);
-            colors[i] = Color.getHSBColor(hue, 1f, 1f);
-        }
-        return colors;
+    /**
+     * Adaptive antialiasing on a 3x3 grid, see MandelbrotRenderer.setAntialiasing. Antialiased
+     * frames are rendered again rather than recolored, the extra samples need iterating.
+     */
+    public void setAntialiasing(boolean enabled) {
+        renderer.setAntialiasing(enabled ? 3 : 1);
+        lastRequested = null;
+        repaint();
     }
 
-    private Color[] generateCoolPalette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            float t = i / 255f;
-            int r = (int)(64 + 128 * t);
-            int g = (int)(32 + 64 * t);
-            int b = (int)(128 + 127 * t);
-            colors[i] = new Color(r, g, b);
-        }
-        return colors;
+    public void setMultiThreaded(boolean enabled) {
+        multithreaded = enabled;
     }
 
-    private Color[] generateGrayscalePalette() {
-        Color[] colors = new Color[256];
-        for (int i = 0; i < colors.length; i++) {
-            colors[i] = new Color(i, i, i);
-        }
-        return colors;
+    public void setGpuEnabled(boolean enabled) {
+        gpuEnabled = enabled;
+    }
+
+    private void renderWithGPU(BufferedImage image, int width, int height) {
+        // Placeholder, actual GPU rendering occurs in the MandelbrotPanelGPU class
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.RED);
+        g.drawString("[GPU rendering not yet implemented]", 10, 20);
+        g.dispose();
+    }
+
+    public void setPalette(int index) {
+        paletteIndex = index;
+        palette = MandelbrotPalettes.byIndex(index, baseColor.getRGB());
+        repaint();
     }
 
     private void setupMouseListeners() {
@@ -425,25 +587,32 @@ public class MandelbrotPanelMT extends JPanel {
                     dragStartY = e.getY();
                 }
             }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                //double click zooms 2x in (left) or out (right), reusing a quarter of the last frame
+                if (e.getClickCount() == 2) {
+                    zoom(e.getX(), e.getY(), SwingUtilities.isLeftMouseButton(e));
+                }
+            }
         });
 
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
                 if ((e.getModifiersEx() & MouseEvent.BUTTON1_DOWN_MASK) != 0) {
-                    int dx = e.getX() - dragStartX;
-                    int dy = e.getY() - dragStartY;
-
-                    double dxFrac = (xMax - xMin) * dx / getWidth();
-                    double dyFrac = (yMax - yMin) * dy / getHeight();
-
-                    xMin -= dxFrac;
-                    xMax -= dxFrac;
-                    yMin -= dyFrac;
-                    yMax -= dyFrac;
-
-                    dragStartX = e.getX();
-                    dragStartY = e.getY();
+                    viewMoving();
+                    //move by whole pixels of the refined frame so it lines up with the last one and
+                    //only the uncovered strips need computing, the remainder carries over
+                    int dx = (e.getX() - dragStartX) / baseScale;
+                    int dy = (e.getY() - dragStartY) / baseScale;
+                    if (dx == 0 && dy == 0) return;
+
+                    double pixelSize = renderPixelSize();
+                    moveCenter(-pixelSize * dx, -pixelSize * dy);
+
+                    dragStartX += dx * baseScale;
+                    dragStartY += dy * baseScale;
                     repaint();
                 }
             }
@@ -456,56 +625,69 @@ public class MandelbrotPanelMT extends JPanel {
         zoom(px, py, zoomIn ? 0.5 : 2.0);
     }
 
-    private void zoom(int px, int py, double scale) {
-        boolean isRefining = autoRefine && renderScale == 1;
-        if (isRefining) { //first, load a low resolution preview image with a larger renderScale (stretched image)
-            renderScale = 4;
-        }
-        double pixelThreshold = 1e-15;
-        double pixelWidth = (xMax - xMin) * scale / getWidth();
-        double pixelHeight = (yMax - yMin) * scale / getHeight();
-
-        double cx = xMin + px * (xMax - xMin) / getWidth();
-        double cy = yMin + py * (yMax - yMin) / getHeight();
-        double newW = (xMax - xMin) * scale;
-        double newH = (yMax - yMin) * scale;
-        xMin = cx - newW / 2;
-        xMax = cx + newW / 2;
-        yMin = cy - newH / 2;
-        yMax = cy + newH / 2;
-        repaint();
-
-        if (isRefining) {
-            javax.swing.Timer timer = new javax.swing.Timer(200, e -> {
-                renderScale = 1;
-                repaint();
-            });
-            timer.setRepeats(false);
-            timer.start();
-        }
+    /**
+     * Width of one pixel of the refined frame in the complex plane, the same in both directions
+     * once the bounds are normalized to the panel's aspect ratio
+     */
+    private double renderPixelSize() {
+        return viewWidth / Math.max(1, getWidth() / baseScale);
     }
 
     /**
-     * Helper method for color generation
+     * Moves the view center by an offset in the complex plane. The center keeps ten digits below
+     * the pixel size, enough to place every pixel without growing a digit with every move.
      */
-    private int clamp(int val) {
-        return Math.max(0, Math.min(255, val));
+    private void moveCenter(double dx, double dy) {
+        int scale = 10 - (int) Math.floor(Math.log10(viewWidth / Math.max(1, getWidth())));
+        centerX = centerX.add(new BigDecimal(dx)).setScale(scale, RoundingMode.HALF_EVEN);
+        centerY = centerY.add(new BigDecimal(dy)).setScale(scale, RoundingMode.HALF_EVEN);
     }
 
     /**
-     * Helper method to prevent stretching when window size changes, so
-     * the JPanel display always matches the GPUPanel which automatically
-     * normalizes based on vertical height
+     * Whole steps closest to the given ones. With the parity (0 or 1, -1 for none) of the grid
+     * position they start from, the closest ones that end on an even position.
      */
-    private double[] normalizeAspectRatio(int width, int height) {
-        double aspectRatio = (double) width / height;
-        double cx = (xMin + xMax) / 2;
-        double cy = (yMin + yMax) / 2;
-        double zoom = xMax - xMin;
+    private static long snapSteps(double steps, int parity) {
+        if (parity < 0) return Math.round(steps);
+        return 2 * Math.round((steps + parity) / 2) - parity;
+    }
 
-        double newW = zoom;
-        double newH = zoom / aspectRatio;
+    /**
+     * Input is moving the view: render as many passes as the governor picks to keep up, and the
+     * rest once no input came for the governor's idle delay
+     */
+    private void viewMoving() {
+        if (!autoRefine) return;
+        renderPasses = governor.previewPasses((long) (getWidth() / baseScale) * (getHeight() / baseScale));
+        refineTimer.restart();
+    }
 
-        return new double[]{cx - newW / 2, cx + newW / 2, cy - newH / 2, cy + newH / 2};
+    private void zoom(int px, int py, double scale) {
+        double pixelSize = viewWidth / getWidth();
+        if (pixelSize * scale < MIN_PIXEL_SIZE) return; //pixel offsets would turn subnormal in the perturbation
+        viewMoving();
+
+        //the point under the cursor becomes the new center
+        double offsetX = (px - getWidth() / 2.0) * pixelSize;
+        double offsetY = (py - getHeight() / 2.0) * pixelSize;
+        if (scale == 0.5 || scale == 2.0) {
+            //put the new corner on the full resolution grid, at half steps when zooming in, so
+            //every old sample that falls inside the new frame is a sample of it too
+            double snap = pixelSize * Math.min(1, scale);
+            double cornerX = -getWidth() * pixelSize / 2, cornerY = -getHeight() * pixelSize / 2;
+            double newCornerX = offsetX + cornerX * scale, newCornerY = offsetY + cornerY * scale;
+            //zooming out, also keep to the even columns and rows of the tile cache's level, so
+            //the new frame lands on the next coarser level and its cached tiles
+            long[] grid = scale == 2.0 ? tileCache.gridPosition(RenderRequest.centered(centerX, centerY,
+                    viewWidth, getWidth(), getHeight(), maxIter, colorMode, palette)) : null;
+            offsetX += cornerX + snapSteps((newCornerX - cornerX) / snap, grid == null ? -1 : (int) (grid[1] & 1)) * snap
+                    - newCornerX;
+            offsetY += cornerY + snapSteps((newCornerY - cornerY) / snap, grid == null ? -1 : (int) (grid[2] & 1)) * snap
+                    - newCornerY;
+        }
+        moveCenter(offsetX, offsetY);
+        viewWidth *= scale;
+        viewHeight *= scale;
+        repaint();
     }
 }
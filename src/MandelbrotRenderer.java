@@ -0,0 +1,940 @@
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless Mandelbrot renderer. Takes a RenderRequest (view bounds, size, maxIter, color mode and
+ * palette) and produces packed RGB pixels plus the per-pixel iteration buffer, without touching
+ * Swing or the event dispatch thread. The Swing panel and the command line tool both render
+ * through this class, so they always produce the same image for the same settings.
+ */
+public class MandelbrotRenderer {
+
+    /**
+     * Mariani-Silver subdivision for the escape time mode, see MarianiSilver.
+     * FAST trusts uniform borders, ACCURATE also probes the inside before filling.
+     */
+    public enum Subdivision { OFF, FAST, ACCURATE }
+
+    /**
+     * Kernel the pixels are iterated with. AUTO picks the cheapest one that still resolves the
+     * pixel spacing: FLOAT for shallow views, DOUBLE down to about 1e-13 (see RenderRequest.isDeep)
+     * and PERTURBATION past that. The rest force one kernel, to compare them; comparePrecision
+     * times all of them on one view.
+     */
+    public enum Precision {
+        AUTO,
+        /**
+         * Floats. 10-25% faster than DOUBLE, but about 0.4% of the pixels of a full view change
+         * iteration count (DOUBLE: 0.01%), so AUTO only uses it for overview spacing.
+         */
+        FLOAT,
+        /**
+         * The plain double kernel, 28 ms for the full view at 480x270 and 1000 iterations on one
+         * thread, good to a relative pixel spacing of about 1e-13.
+         */
+        DOUBLE,
+        /**
+         * Double-double, 3-5x DOUBLE on shallow views. Resolves pixels down to about 1e-28, at
+         * 1e-20 and 20000 iterations it is still 25x slower than PERTURBATION. Picks up the pixels
+         * perturbation can't place.
+         */
+        DOUBLE_DOUBLE,
+        /**
+         * BigInteger fixed point, exact at any depth and about 100x DOUBLE (2.6 s for that full
+         * view), 20-30x DOUBLE_DOUBLE. The yardstick for the other tiers, and the kernel for pixels
+         * perturbation can't place once DOUBLE_DOUBLE runs out of bits.
+         */
+        FIXED_POINT,
+        /**
+         * Double deltas from a fixed point reference orbit, see RenderFrame.perturbed. Slower than
+         * DOUBLE on shallow views (one long reference orbit, no cardioid test), but 23 ms at 1e-40
+         * and 20000 iterations where FIXED_POINT takes 100 s.
+         */
+        PERTURBATION
+    }
+
+    /**
+     * Reference orbits a deep frame may use, the first one plus replacements for glitched pixels
+     */
+    private static final int MAX_REFERENCES = 8;
+    /**
+     * Relative pixel spacing down to which AUTO uses floats, see RenderRequest.getRelativePixelSize.
+     * Float spacing near the set is about 2.4e-7, this leaves a few thousand steps per pixel.
+     */
+    private static final double FLOAT_PIXEL_SIZE = 1e-3;
+    /**
+     * Relative pixel spacing down to which double-double still resolves the pixels, with the same
+     * margin below its 106 bits as DOUBLE has below 53. Past it only fixed point is exact.
+     */
+    private static final double DOUBLE_DOUBLE_PIXEL_SIZE = 1e-28;
+    /**
+     * Color difference to a neighbor, summed over the three channels, past which the antialiasing
+     * pass samples a pixel again. Smooth gradients stay below it, edges of the set and of
+     * iteration bands are far above.
+     */
+    private static final int ANTIALIAS_CONTRAST = 48;
+    /**
+     * Extra samples the antialiasing pass iterates at once, bounds its scratch field
+     */
+    private static final int ANTIALIAS_BATCH = 1 << 18;
+
+    private final int threads;
+    private volatile Subdivision subdivision = Subdivision.OFF;
+    private volatile boolean interiorChecks = true;
+    private volatile Precision precision = Precision.AUTO;
+    private volatile boolean seriesApproximation = true;
+    private volatile boolean mirroring;
+    private volatile boolean vectorized;
+    private volatile int antialiasing = 1;
+    private volatile TileCache tileCache;
+    //primary reference of the last deep frame, pans and refines of the same view start from it
+    private volatile ReferenceOrbit lastReference;
+    //distance from lastReference within which frames may use it, beyond the one frame width every frame gets
+    private volatile double referenceReach;
+    private final TileScheduler scheduler; //shared by every multithreaded frame
+    private volatile UtilizationReport lastReport;
+    private volatile RenderMetrics metrics = RenderMetrics.NONE;
+
+    /**
+     * Renderer using every available core for multithreaded renders
+     */
+    public MandelbrotRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MandelbrotRenderer(int threads) {
+        this(threads, TileScheduler.DEFAULT_TILE_SIZE);
+    }
+
+    public MandelbrotRenderer(int threads, int tileSize) {
+        this.scheduler = new TileScheduler(threads, tileSize);
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Turns rectangle subdivision on or off. Only affects ESCAPE_TIME frames, the other color
+     * modes don't produce uniform regions and always iterate every pixel.
+     */
+    public void setSubdivision(Subdivision subdivision) {
+        this.subdivision = subdivision;
+    }
+
+    public Subdivision getSubdivision() {
+        return subdivision;
+    }
+
+    /**
+     * Turns the cardioid/bulb test and cycle detection on or off. They give the same images, this
+     * only exists to measure what they save.
+     */
+    public void setInteriorChecks(boolean enabled) {
+        this.interiorChecks = enabled;
+    }
+
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Turns the series approximation of perturbation frames on or off. Without it every pixel
+     * iterates from the start of the reference orbit, this only exists to measure what it saves.
+     */
+    public void setSeriesApproximation(boolean enabled) {
+        this.seriesApproximation = enabled;
+    }
+
+    /**
+     * Renders the part of a view that overlaps its reflection across the real axis only once and
+     * mirrors it into the rest, see RenderFrame.useMirror. The home view is symmetric and costs half;
+     * views that don't reach the axis, deep frames and subdivided frames render as before. Mirrored
+     * rows are the reflections of their sources to within a thousandth of a pixel, so a handful of
+     * boundary pixels may differ from a plain render, as with renderReusing.
+     */
+    public void setMirroring(boolean enabled) {
+        this.mirroring = enabled;
+    }
+
+    /**
+     * True if the incubating Vector API was added to the JVM (--add-modules jdk.incubator.vector)
+     * and the SIMD kernels of the simd source root are on the class path, see setVectorized
+     */
+    public static boolean isVectorSupported() {
+        return RenderFrame.isVectorAvailable();
+    }
+
+    /**
+     * Iterates FLOAT and DOUBLE frames a whole vector of adjacent pixels at a time instead of
+     * pixel by pixel, see VectorKernels. Gives the same images; deeper tiers and single pixels
+     * (subdivision probes, copied rows of a reused frame) stay scalar. Throws
+     * UnsupportedOperationException if the Vector API isn't available.
+     */
+    public void setVectorized(boolean enabled) {
+        if (enabled && !isVectorSupported()) {
+            throw new UnsupportedOperationException(
+                    "SIMD kernels need the simd classes and --add-modules jdk.incubator.vector");
+        }
+        this.vectorized = enabled;
+    }
+
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * Copies tiles of earlier frames on the same pyramid instead of iterating them again, and
+     * stores the tiles of every frame rendered without subdivision, see TileCache. Null turns
+     * caching off. The validate and compare reports never use the cache.
+     */
+    public void setTileCache(TileCache cache) {
+        this.tileCache = cache;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Worker utilization of the most recent multithreaded frame, or null if there was none yet
+     */
+    public UtilizationReport getLastUtilization() {
+        return lastReport;
+    }
+
+    /**
+     * Receives every frame render() finishes, see RenderTelemetry. Null turns it off. Recolors,
+     * reports and the internal frames of ZoomVideo and the antialiasing pass aren't reported.
+     */
+    public void setMetrics(RenderMetrics metrics) {
+        this.metrics = metrics == null ? RenderMetrics.NONE : metrics;
+    }
+
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Tile tasks waiting for a worker right now, see TileScheduler.getQueuedTasks
+     */
+    public long getQueuedTasks() {
+        return scheduler.getQueuedTasks();
+    }
+
+    /**
+     * Workers busy with tiles right now
+     */
+    public int getActiveWorkers() {
+        return scheduler.getActiveWorkers();
+    }
+
+    /**
+     * Stops the worker threads. The renderer can't be used afterwards.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Adaptive antialiasing: once a frame is done, every pixel whose color stands out from a
+     * neighbor's, along the boundary of the set and the edges of iteration bands, is sampled
+     * again on a grid x grid raster of points inside it and set to the average. Flat exterior and
+     * interior keep their single sample. 1 turns it off, otherwise grid is odd, 3 or 5. The field
+     * keeps one sample per pixel, and recolors, which never iterate, color just those samples.
+     */
+    public void setAntialiasing(int grid) {
+        if (grid < 1 || grid % 2 == 0) {
+            throw new IllegalArgumentException("Antialiasing grid must be 1 or odd: " + grid);
+        }
+        antialiasing = grid;
+    }
+
+    public int getAntialiasing() {
+        return antialiasing;
+    }
+
+    /**
+     * Renders a frame on the calling thread, split across all worker threads
+     */
+    public RenderResult render(RenderRequest request) {
+        return render(request, true);
+    }
+
+    /**
+     * Renders a frame on the calling thread, either split across the worker threads or
+     * entirely on the calling thread
+     */
+    public RenderResult render(RenderRequest request, boolean multithreaded) {
+        return render(request, multithreaded, null, null);
+    }
+
+    /**
+     * Renders into caller-owned buffers so repeated frames of the same size allocate nothing.
+     * pixels can be the DataBufferInt array of a TYPE_INT_RGB image, field may be null to let the
+     * renderer allocate it. pixels must hold at least width * height entries and the field must
+     * have the request's size.
+     */
+    public RenderResult render(RenderRequest request, boolean multithreaded, int[] pixels, IterationField field) {
+        return render(request, multithreaded, pixels, field, RenderMonitor.NONE);
+    }
+
+    /**
+     * Renders into caller-owned buffers, reporting finished tiles to the monitor as they complete.
+     * Throws CancellationException if the monitor cancelled the frame before it was finished,
+     * in which case the buffers hold a mix of new and old tiles and the field holds no frame.
+     */
+    public RenderResult render(RenderRequest request, boolean multithreaded, int[] pixels, IterationField field,
+                               RenderMonitor monitor) {
+        return render(request, multithreaded, pixels, field, monitor, subdivision, precision, null, tileCache);
+    }
+
+    /**
+     * Renders like render(), but first maps the frame onto the previous field. If the pixel grids
+     * line up, as after a pan by whole pixels or a zoom by a power of two around a grid point,
+     * pixels that land on an old sample are copied and only the rest is iterated, so a drag costs
+     * about as much as the area it uncovers. Otherwise this is a plain render. Copied samples come
+     * from points within a thousandth of a pixel of the new ones. previous must be a different
+     * field than the one being rendered into.
+     */
+    public RenderResult renderReusing(IterationField previous, RenderRequest request, boolean multithreaded,
+                                      int[] pixels, IterationField field, RenderMonitor monitor) {
+        if (previous != null && previous == field) {
+            throw new IllegalArgumentException("Can't render into the field being reused");
+        }
+        FrameReuse reuse = previous == null ? null : FrameReuse.between(previous, request);
+        return render(request, multithreaded, pixels, field, monitor, subdivision, precision, reuse, tileCache);
+    }
+
+    /**
+     * A frame rendered in passes, see startProgressive. Only one thread at a time may advance it.
+     */
+    public static final class Progressive {
+        private final RenderRequest request;
+        private final RenderFrame frame;
+        private final Precision tier;
+        private final ReferenceOrbit reference;
+        private final TileCache.Placement placement;
+        private final boolean mirrored;
+        private int passes;
+        private long renderNs;
+        private UtilizationReport report;
+        private RenderResult result;
+
+        private Progressive(RenderRequest request, RenderFrame frame, Precision tier, ReferenceOrbit reference,
+                            TileCache.Placement placement, boolean mirrored) {
+            this.request = request;
+            this.frame = frame;
+            this.tier = tier;
+            this.reference = reference;
+            this.placement = placement;
+            this.mirrored = mirrored;
+        }
+
+        public RenderRequest getRequest() { return request; }
+
+        /**
+         * Passes done so far, out of PASSES
+         */
+        public int getCompletedPasses() { return passes; }
+
+        /**
+         * The finished frame, null until every pass is done
+         */
+        public RenderResult getResult() { return result; }
+
+        /**
+         * Share of the frame's pixels computed once the first passes are done, 1/64 after the first
+         * and all of them after the last
+         */
+        public static double sampledFraction(int passes) {
+            if (passes <= 0) return 0;
+            int last = Math.min(passes, PASSES) - 1;
+            return 1.0 / (RenderFrame.KNOWN_DX[last] * RenderFrame.KNOWN_DY[last]);
+        }
+    }
+
+    /**
+     * Passes of a progressive frame, the seven of PNG's Adam7 interlacing
+     */
+    public static final int PASSES = RenderFrame.PASSES;
+
+    /**
+     * Sets up a frame that renders in interlaced passes with renderProgressive. The first pass
+     * computes one pixel of every 8x8 block and each later pass computes only pixels no earlier
+     * one did, so the whole frame costs one plain render however many stops it makes on the way.
+     * Between passes every computed pixel's color stands in for the rest of its block. Samples
+     * the previous field shares with the frame are copied as in renderReusing, previous may be
+     * null, and the tile cache applies; subdivision doesn't. The tile size must be a multiple of 8.
+     */
+    public Progressive startProgressive(IterationField previous, RenderRequest request, int[] pixels,
+                                        IterationField field, RenderMonitor monitor) {
+        if (scheduler.getTileSize() % 8 != 0) {
+            throw new IllegalStateException("Progressive frames need tiles of a multiple of 8, not "
+                    + scheduler.getTileSize());
+        }
+        if (previous != null && previous == field) {
+            throw new IllegalArgumentException("Can't render into the field being reused");
+        }
+        if (pixels.length < request.getWidth() * request.getHeight()
+                || !field.fits(request.getWidth(), request.getHeight())) {
+            throw new IllegalArgumentException("Buffers too small for " + request.getWidth() + "x" + request.getHeight());
+        }
+        field.invalidate();
+        long start = System.nanoTime();
+        FrameReuse reuse = previous == null ? null : FrameReuse.between(previous, request);
+        Precision tier = precision == Precision.AUTO ? autoPrecision(request) : precision;
+        ReferenceOrbit reference = tier == Precision.PERTURBATION ? primaryReference(request) : null;
+        RenderFrame frame = new RenderFrame(request, pixels, field, interiorChecks, reuse, tier, reference,
+                vectorized);
+        if (reference != null) {
+            frame.stats.references = 1;
+            frame.stats.seriesSkip = reference.skip;
+        }
+        TileCache cache = tileCache;
+        TileCache.Placement placement = cache == null ? null : cache.place(request, tier);
+        if (placement != null) {
+            placement.prefill(field, pixels, monitor);
+            frame.useCache(placement);
+        }
+        frame.copyReused();
+        Progressive progressive = new Progressive(request, frame, tier, reference, placement,
+                mirroring && frame.useMirror());
+        progressive.renderNs = System.nanoTime() - start;
+        return progressive;
+    }
+
+    /**
+     * Renders the passes of a progressive frame up to the given one, PASSES to finish it. Returns
+     * the result once the frame is finished, with glitch repair and antialiasing done as in
+     * render(), and null while passes remain. Throws CancellationException if the monitor
+     * cancelled it; passes completed before stay done and a later call picks up from there.
+     */
+    public RenderResult renderProgressive(Progressive progressive, int passes, boolean multithreaded,
+                                          RenderMonitor monitor) {
+        if (progressive.result != null) return progressive.result;
+        RenderFrame frame = progressive.frame;
+        RenderRequest request = progressive.request;
+        boolean parallel = multithreaded && threads > 1;
+        long start = System.nanoTime();
+        try {
+            while (progressive.passes < Math.min(passes, PASSES)) {
+                int pass = progressive.passes;
+                TileScheduler.TileTask task = (x, y, w, h) -> frame.renderPass(pass, x, y, w, h);
+                UtilizationReport report = parallel ? scheduler.run(frame.width, frame.height, task, monitor)
+                        : renderSingleThreaded(frame.width, frame.height, task, monitor);
+                if (progressive.mirrored) {
+                    //the mirror rows get their copies first, the spread reads them
+                    runTiles(frame::mirrorTile, frame, parallel, monitor);
+                    runTiles((x, y, w, h) -> frame.spreadPass(pass, x, y, w, h), frame, parallel, monitor);
+                }
+                if (monitor.isCancelled()) throw new CancellationException("Render cancelled");
+                progressive.report = progressive.report == null ? report : progressive.report.plus(report);
+                progressive.passes++;
+            }
+            if (progressive.passes < PASSES) return null;
+            if (progressive.reference != null) {
+                repairGlitches(frame, request, parallel, monitor);
+            }
+            if (monitor.isCancelled()) {
+                throw new CancellationException("Render cancelled");
+            }
+            frame.completeField(request);
+            if (progressive.placement != null) progressive.placement.store(frame.field);
+            if (antialiasing > 1) {
+                frame.stats.antialiased = antialias(request, progressive.tier, frame.pixels, parallel, monitor,
+                        frame.stats.iterations);
+            }
+        } finally {
+            progressive.renderNs += System.nanoTime() - start;
+        }
+        if (parallel) lastReport = progressive.report;
+        progressive.result = new RenderResult(request, frame.pixels, frame.field, frame.stats, progressive.report,
+                progressive.renderNs);
+        metrics.frameRendered(progressive.result);
+        return progressive.result;
+    }
+
+    private RenderResult render(RenderRequest request, boolean multithreaded, int[] pixels, IterationField field,
+                                RenderMonitor monitor, Subdivision subdivision, Precision precision,
+                                FrameReuse reuse, TileCache cache) {
+        int size = request.getWidth() * request.getHeight();
+        if (pixels == null) pixels = new int[size];
+        if (field == null) field = new IterationField(request.getWidth(), request.getHeight());
+        if (pixels.length < size || !field.fits(request.getWidth(), request.getHeight())) {
+            throw new IllegalArgumentException("Buffers too small for " + request.getWidth() + "x" + request.getHeight());
+        }
+        field.invalidate();
+        Map<Long, Long> allocations = scheduler.allocations();
+        long start = System.nanoTime();
+        Precision tier = precision == Precision.AUTO ? autoPrecision(request) : precision;
+        ReferenceOrbit reference = tier == Precision.PERTURBATION ? primaryReference(request) : null;
+        RenderFrame frame = new RenderFrame(request, pixels, field, interiorChecks, reuse, tier, reference,
+                vectorized);
+        if (reference != null) {
+            frame.stats.references = 1;
+            frame.stats.seriesSkip = reference.skip;
+        }
+        TileCache.Placement placement = cache == null ? null : cache.place(request, tier);
+        if (placement != null) {
+            placement.prefill(field, pixels, monitor);
+            frame.useCache(placement);
+        }
+        boolean parallel = multithreaded && threads > 1;
+        //copied samples beat subdivision, they need no iterating at all. Deep frames don't
+        //subdivide either, a glitched border would fill a rectangle that isn't uniform at all
+        boolean copied = reuse != null || placement != null && placement.cachedPixels > 0;
+        UtilizationReport report = null;
+        boolean subdivided = !copied && reference == null && subdivision != Subdivision.OFF
+                && request.getColorMode() == ColorMode.ESCAPE_TIME;
+        if (subdivided) {
+            MarianiSilver root = MarianiSilver.forFrame(frame, subdivision == Subdivision.ACCURATE, parallel, monitor);
+            if (parallel) {
+                scheduler.invoke(root);
+            } else {
+                root.run();
+            }
+        } else {
+            boolean mirrored = mirroring && frame.useMirror();
+            if (parallel) {
+                report = renderMultiThreaded(frame, monitor);
+            } else {
+                report = renderSingleThreaded(frame.width, frame.height, frame::renderTile, monitor);
+            }
+            if (mirrored) runTiles(frame::mirrorTile, frame, parallel, monitor);
+        }
+        if (reference != null) {
+            repairGlitches(frame, request, parallel, monitor);
+        }
+        if (monitor.isCancelled()) {
+            throw new CancellationException("Render cancelled");
+        }
+        frame.completeField(request);
+        //filled rectangles are a guess, the cache only holds tiles iterated pixel by pixel
+        if (placement != null && !subdivided) placement.store(field);
+        if (antialiasing > 1) {
+            frame.stats.antialiased = antialias(request, tier, pixels, parallel, monitor, frame.stats.iterations);
+        }
+        long end = System.nanoTime();
+        frame.stats.allocated = TileScheduler.allocatedBetween(allocations, scheduler.allocations());
+        RenderResult result = new RenderResult(request, frame.pixels, field, frame.stats, report, end - start);
+        metrics.frameRendered(result);
+        return result;
+    }
+
+    /**
+     * Renders a list of points instead of a grid: pixel i of the request lies at (x[i], y[i]) from
+     * its center, none of them farther than reach. The request's pixel size should be the finest
+     * spacing of the points, it sets the reference orbit's precision and AUTO's choice of tier. Subdivision,
+     * the tile cache and the SIMD kernels don't apply, and FIXED_POINT falls back to DOUBLE_DOUBLE.
+     * Used by the antialiasing pass and ZoomVideo.
+     */
+    RenderResult renderPoints(RenderRequest request, Precision precision, double[] x, double[] y, double reach,
+                              boolean multithreaded, int[] pixels, IterationField field, RenderMonitor monitor) {
+        int size = request.getWidth() * request.getHeight();
+        if (x.length < size || y.length < size || pixels.length < size
+                || !field.fits(request.getWidth(), request.getHeight())) {
+            throw new IllegalArgumentException("Buffers too small for " + request.getWidth() + "x" + request.getHeight());
+        }
+        field.invalidate();
+        long start = System.nanoTime();
+        Precision tier = precision == Precision.AUTO ? autoPrecision(request) : precision;
+        if (tier == Precision.FIXED_POINT) tier = Precision.DOUBLE_DOUBLE;
+        ReferenceOrbit reference = null;
+        if (tier == Precision.PERTURBATION) {
+            //the last frame's orbit serves if it is close enough, every point is near the same center
+            reference = lastReference;
+            double offset = 0;
+            if (reference != null && reference.fits(request.getPixelSize(), request.getMaxIter())) {
+                offset = Math.hypot(reference.x.subtract(request.getCenterX()).doubleValue(),
+                        reference.y.subtract(request.getCenterY()).doubleValue());
+            }
+            if (reference == null || !reference.fits(request.getPixelSize(), request.getMaxIter()) || offset > reach) {
+                reference = ReferenceOrbit.compute(request.getCenterX(), request.getCenterY(),
+                        request.getPixelSize(), request.getMaxIter());
+                offset = 0;
+                lastReference = reference;
+                referenceReach = 0;
+            }
+            if (seriesApproximation) reference = reference.withSeries(reach + offset, request.getPixelSize());
+        }
+        RenderFrame frame = new RenderFrame(request, pixels, field, interiorChecks, null, tier, reference, false);
+        frame.usePoints(x, y);
+        if (reference != null) {
+            frame.stats.references = 1;
+            frame.stats.seriesSkip = reference.skip;
+        }
+        boolean parallel = multithreaded && threads > 1;
+        //through the scheduler directly, the utilization report stays the last frame's
+        if (parallel) {
+            scheduler.run(frame.width, frame.height, frame::renderTile, monitor);
+        } else {
+            renderSingleThreaded(frame.width, frame.height, frame::renderTile, monitor);
+        }
+        if (reference != null) {
+            repairGlitches(frame, request, parallel, monitor);
+        }
+        if (monitor.isCancelled()) {
+            throw new CancellationException("Render cancelled");
+        }
+        frame.completeField(request);
+        return new RenderResult(request, frame.pixels, field, frame.stats, null, System.nanoTime() - start);
+    }
+
+    /**
+     * The antialiasing pass over pixels colored from a field this renderer didn't iterate, the
+     * frames RenderCoordinator assembles from its workers' tiles. Counts the pixels and the
+     * samples' iterations in the frame's stats.
+     */
+    void antialias(RenderRequest request, int[] pixels, boolean multithreaded, RenderMonitor monitor,
+                   RenderStats stats) {
+        if (antialiasing > 1) {
+            stats.antialiased = antialias(request, precision == Precision.AUTO ? autoPrecision(request) : precision,
+                    pixels, multithreaded && threads > 1, monitor, stats.iterations);
+        }
+    }
+
+    /**
+     * The antialiasing pass over a finished frame's pixels, see setAntialiasing. Returns how many
+     * pixels got extra samples. The samples' iterations are added to work, if given.
+     */
+    private long antialias(RenderRequest request, Precision tier, int[] pixels, boolean parallel,
+                           RenderMonitor monitor, LongAdder work) {
+        int width = request.getWidth(), height = request.getHeight();
+        //a pixel and its right or lower neighbor both get samples where they contrast
+        boolean[] marked = new boolean[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                if (x + 1 < width && contrast(pixels[i], pixels[i + 1]) > ANTIALIAS_CONTRAST) {
+                    marked[i] = marked[i + 1] = true;
+                }
+                if (y + 1 < height && contrast(pixels[i], pixels[i + width]) > ANTIALIAS_CONTRAST) {
+                    marked[i] = marked[i + width] = true;
+                }
+            }
+        }
+        int grid = antialiasing, extra = grid * grid - 1, half = grid / 2;
+        double pixel = request.getPixelSize();
+        double left = -request.getSpan() / 2, top = -pixel * height / 2;
+        double reach = Math.hypot(left, top) + pixel;
+        int batch = Math.max(1, ANTIALIAS_BATCH / extra);
+        int[] indices = new int[batch];
+        double[] pointsX = new double[batch * extra], pointsY = new double[batch * extra];
+        int[] samples = new int[batch * extra];
+        IterationField field = null;
+        long antialiased = 0;
+        for (int next = 0; next < marked.length; ) {
+            int count = 0;
+            for (; next < marked.length && count < batch; next++) {
+                if (!marked[next]) continue;
+                double px = left + (next % width) * pixel, py = top + (next / width) * pixel;
+                for (int a = 0, p = count * extra; a < grid; a++) {
+                    for (int b = 0; b < grid; b++) {
+                        if (a == half && b == half) continue; //the pixel's own sample
+                        pointsX[p] = px + (b - half) * pixel / grid;
+                        pointsY[p] = py + (a - half) * pixel / grid;
+                        p++;
+                    }
+                }
+                indices[count++] = next;
+            }
+            if (count == 0) break;
+            if (field == null || field.getHeight() != count) field = new IterationField(extra, count);
+            RenderRequest samplesRequest = RenderRequest.centered(request.getCenterX(), request.getCenterY(),
+                    pixel * extra, extra, count, request.getMaxIter(), request.getColorMode(), request.getPalette());
+            //same tier as the frame, the samples request has its pixel size too
+            RenderResult sampled = renderPoints(samplesRequest, tier, pointsX, pointsY, reach, parallel, samples,
+                    field, monitor);
+            if (work != null) work.add(sampled.getStats().getIterations());
+            for (int k = 0; k < count; k++) {
+                int index = indices[k], own = pixels[index];
+                int r = own >> 16 & 0xFF, g = own >> 8 & 0xFF, b = own & 0xFF;
+                for (int p = k * extra; p < (k + 1) * extra; p++) {
+                    r += samples[p] >> 16 & 0xFF;
+                    g += samples[p] >> 8 & 0xFF;
+                    b += samples[p] & 0xFF;
+                }
+                int n = extra + 1;
+                pixels[index] = (r + n / 2) / n << 16 | (g + n / 2) / n << 8 | (b + n / 2) / n;
+            }
+            antialiased += count;
+        }
+        monitor.tileCompleted(0, 0, width, height);
+        return antialiased;
+    }
+
+    private static int contrast(int a, int b) {
+        return Math.abs((a >> 16 & 0xFF) - (b >> 16 & 0xFF)) + Math.abs((a >> 8 & 0xFF) - (b >> 8 & 0xFF))
+                + Math.abs((a & 0xFF) - (b & 0xFF));
+    }
+
+    /**
+     * Colors a completed iteration field with the request's color mode and palette without
+     * iterating anything. The request must describe the field's frame (see
+     * IterationField.canRecolor), otherwise this throws IllegalArgumentException.
+     */
+    public RenderResult recolor(IterationField field, RenderRequest request, boolean multithreaded, int[] pixels) {
+        return recolor(field, request, multithreaded, pixels, RenderMonitor.NONE);
+    }
+
+    /**
+     * Recolors into caller-owned pixels, reporting finished tiles to the monitor as they complete.
+     * Throws CancellationException if the monitor cancelled the frame before it was finished.
+     */
+    public RenderResult recolor(IterationField field, RenderRequest request, boolean multithreaded, int[] pixels,
+                                RenderMonitor monitor) {
+        if (!field.canRecolor(request)) {
+            throw new IllegalArgumentException("Field holds no " + request.getColorMode() + " data for this frame");
+        }
+        int width = request.getWidth(), height = request.getHeight();
+        if (pixels == null) pixels = new int[width * height];
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Buffers too small for " + width + "x" + height);
+        }
+        int[] target = pixels;
+        ColorMode mode = request.getColorMode();
+        int maxIter = request.getMaxIter();
+        int[] palette = request.getPalette();
+        TileScheduler.TileTask task = (tx, ty, tw, th) -> {
+            for (int y = ty; y < ty + th; y++) {
+                Colorizer.colorRun(field, mode, maxIter, palette, target, y * width + tx, tw);
+            }
+        };
+        long start = System.nanoTime();
+        if (multithreaded && threads > 1) {
+            scheduler.run(width, height, task, monitor);
+        } else {
+            //recoloring is cheap enough that tiles only matter for progress and cancellation
+            int tileSize = scheduler.getTileSize();
+            for (int ty = 0; ty < height && !monitor.isCancelled(); ty += tileSize) {
+                int th = Math.min(tileSize, height - ty);
+                task.renderTile(0, ty, width, th);
+                monitor.tileCompleted(0, ty, width, th);
+            }
+        }
+        if (monitor.isCancelled()) {
+            throw new CancellationException("Render cancelled");
+        }
+        long end = System.nanoTime();
+        return new RenderResult(request, pixels, field, field.getStats(), null, end - start);
+    }
+
+    /**
+     * Renders a frame asynchronously on the common pool. The future completes with the result,
+     * or exceptionally if the render failed.
+     */
+    public CompletableFuture<RenderResult> renderAsync(RenderRequest request) {
+        return CompletableFuture.supplyAsync(() -> render(request));
+    }
+
+    /**
+     * Renders a frame asynchronously, starting it from the given executor
+     */
+    public CompletableFuture<RenderResult> renderAsync(RenderRequest request, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> render(request), executor);
+    }
+
+    /**
+     * Renders the request once brute force and once with each subdivision mode and compares them
+     * pixel by pixel. Returns a short report with mismatch counts and timings.
+     */
+    public String validateSubdivision(RenderRequest request) {
+        RenderRequest escape = request.getColorMode() == ColorMode.ESCAPE_TIME ? request
+                : new RenderRequest(request.getXMin(), request.getXMax(), request.getYMin(), request.getYMax(),
+                request.getWidth(), request.getHeight(), request.getMaxIter(), ColorMode.ESCAPE_TIME, request.getPalette());
+        RenderResult reference = render(escape, true, null, null, RenderMonitor.NONE, Subdivision.OFF, precision, null, null);
+        StringBuilder sb = new StringBuilder(String.format("Brute force: %.2f ms%n", reference.getRenderTimeMs()));
+        for (Subdivision mode : new Subdivision[]{Subdivision.FAST, Subdivision.ACCURATE}) {
+            RenderResult result = render(escape, true, null, null, RenderMonitor.NONE, mode, precision, null, null);
+            int[] expected = reference.getIterations(), actual = result.getIterations();
+            int[] expectedRgb = reference.getPixels(), actualRgb = result.getPixels();
+            int mismatches = 0;
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] != actual[i] || expectedRgb[i] != actualRgb[i]) mismatches++;
+            }
+            sb.append(String.format("%-8s %.2f ms (%.1fx), %d of %d pixels differ%n", mode, result.getRenderTimeMs(),
+                    reference.getRenderTimeMs() / result.getRenderTimeMs(), mismatches, expected.length));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The tier AUTO uses for a request
+     */
+    static Precision autoPrecision(RenderRequest request) {
+        if (request.isDeep()) return Precision.PERTURBATION;
+        return request.getRelativePixelSize() >= FLOAT_PIXEL_SIZE ? Precision.FLOAT : Precision.DOUBLE;
+    }
+
+    /**
+     * Renders the request with every tier and compares each one pixel by pixel to FIXED_POINT,
+     * which is exact at any depth. Returns a short report with timings and mismatch counts.
+     * Fixed point iterates every pixel with BigIntegers, keep the view small.
+     */
+    public String comparePrecision(RenderRequest request) {
+        RenderResult exact = render(request, true, null, null, RenderMonitor.NONE, Subdivision.OFF,
+                Precision.FIXED_POINT, null, null);
+        StringBuilder sb = new StringBuilder(String.format("AUTO picks %s for a relative pixel size of %.3g%n",
+                autoPrecision(request), request.getRelativePixelSize()));
+        for (Precision tier : Precision.values()) {
+            if (tier == Precision.AUTO) continue;
+            RenderResult result = tier == Precision.FIXED_POINT ? exact
+                    : render(request, true, null, null, RenderMonitor.NONE, Subdivision.OFF, tier, null, null);
+            int[] expected = exact.getIterations(), actual = result.getIterations();
+            int mismatches = 0;
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] != actual[i]) mismatches++;
+            }
+            sb.append(String.format("%-13s %10.2f ms, %d of %d pixels differ%n", tier, result.getRenderTimeMs(),
+                    mismatches, expected.length));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reference orbit for a deep frame, with the series approximation for its pixels. The last
+     * frame's orbit is used again if it is precise enough and its point lies within a frame width
+     * of the new center, so pans and the full resolution pass after a preview skip the high
+     * precision iteration. Otherwise a new one is computed at the view center. A region gets its
+     * frame's orbit and series, so it iterates its pixels exactly as the whole frame does.
+     */
+    private ReferenceOrbit primaryReference(RenderRequest view) {
+        RenderRequest request = view.getFrame();
+        double spanX = request.getSpan(), spanY = spanX * request.getHeight() / request.getWidth();
+        ReferenceOrbit orbit = lastReference;
+        double offsetX = 0, offsetY = 0;
+        if (orbit != null && orbit.fits(request.getPixelSize(), request.getMaxIter())) {
+            offsetX = Math.abs(orbit.x.subtract(request.getCenterX()).doubleValue());
+            offsetY = Math.abs(orbit.y.subtract(request.getCenterY()).doubleValue());
+        }
+        if (orbit == null || !orbit.fits(request.getPixelSize(), request.getMaxIter())
+                || (offsetX > spanX || offsetY > spanY) && Math.hypot(offsetX, offsetY) > referenceReach) {
+            orbit = ReferenceOrbit.compute(request.getCenterX(), request.getCenterY(),
+                    request.getPixelSize(), request.getMaxIter());
+            offsetX = offsetY = 0;
+            lastReference = orbit;
+            referenceReach = 0;
+        }
+        if (!seriesApproximation) return orbit;
+        //the series has to hold for the pixel farthest from the reference point
+        return orbit.withSeries(Math.hypot(offsetX + spanX / 2, offsetY + spanY / 2), request.getPixelSize());
+    }
+
+    /**
+     * Computes the reference orbit of a perturbation frame ahead of rendering it in regions (see
+     * RenderRequest.region), so every region uses the one orbit at the frame's center instead of
+     * computing its own. Returns the orbit, or null and does nothing for frames that don't use
+     * perturbation.
+     */
+    ReferenceOrbit prepareReference(RenderRequest frame) {
+        return prepareReference(frame, null);
+    }
+
+    /**
+     * The same, but starting from an orbit an earlier prepareReference of the frame returned, if
+     * it is still precise enough, instead of computing it again. Returns the frame's orbit, null
+     * if it doesn't use perturbation.
+     */
+    ReferenceOrbit prepareReference(RenderRequest frame, ReferenceOrbit saved) {
+        Precision tier = precision == Precision.AUTO ? autoPrecision(frame) : precision;
+        if (tier != Precision.PERTURBATION) return null;
+        if (saved != null && saved.fits(frame.getPixelSize(), frame.getMaxIter())) {
+            lastReference = saved;
+            referenceReach = 0;
+        }
+        primaryReference(frame);
+        ReferenceOrbit orbit = lastReference; //the one primaryReference used, maybe one off center
+        double offset = Math.hypot(orbit.x.subtract(frame.getCenterX()).doubleValue(),
+                orbit.y.subtract(frame.getCenterY()).doubleValue());
+        double spanX = frame.getSpan(), spanY = spanX * frame.getHeight() / frame.getWidth();
+        referenceReach = offset + Math.hypot(spanX, spanY) / 2;
+        return orbit;
+    }
+
+    /**
+     * Gives the pixels that outlived the reference orbit another reference placed among them,
+     * until none are left or MAX_REFERENCES is used up. Leftovers are iterated directly with
+     * double-double or, past its range, fixed point.
+     */
+    private void repairGlitches(RenderFrame frame, RenderRequest request, boolean parallel, RenderMonitor monitor) {
+        for (int i = 1; i < MAX_REFERENCES && !monitor.isCancelled(); i++) {
+            int pixel = frame.pickGlitch();
+            if (pixel < 0) return;
+            double[] offset = frame.offset(pixel);
+            BigDecimal x = request.getFrame().getCenterX().add(new BigDecimal(offset[0]));
+            BigDecimal y = request.getFrame().getCenterY().add(new BigDecimal(offset[1]));
+            frame.useReference(ReferenceOrbit.compute(x, y, request.getPixelSize(), request.getMaxIter()));
+            frame.stats.references++;
+            runRepair(frame, parallel, monitor);
+        }
+        if (monitor.isCancelled() || frame.pickGlitch() < 0) return;
+        frame.useDirect(request.getRelativePixelSize() >= DOUBLE_DOUBLE_PIXEL_SIZE
+                ? Precision.DOUBLE_DOUBLE : Precision.FIXED_POINT);
+        runRepair(frame, parallel, monitor);
+    }
+
+    /**
+     * Runs a task over the tiles of a width x height area on the worker threads, for per-pixel
+     * work that isn't a render, like resampling the frames of a ZoomVideo
+     */
+    void runTiles(int width, int height, TileScheduler.TileTask task) {
+        if (threads > 1) {
+            scheduler.run(width, height, task, RenderMonitor.NONE);
+        } else {
+            renderSingleThreaded(width, height, task, RenderMonitor.NONE);
+        }
+    }
+
+    private void runRepair(RenderFrame frame, boolean parallel, RenderMonitor monitor) {
+        runTiles(frame::repairTile, frame, parallel, monitor);
+    }
+
+    /**
+     * Runs a follow-up pass over a frame's tiles, leaving the utilization report the frame's own
+     */
+    private void runTiles(TileScheduler.TileTask task, RenderFrame frame, boolean parallel, RenderMonitor monitor) {
+        if (parallel) {
+            scheduler.run(frame.width, frame.height, task, monitor);
+        } else {
+            renderSingleThreaded(frame.width, frame.height, task, monitor);
+        }
+    }
+
+    private UtilizationReport renderMultiThreaded(RenderFrame frame, RenderMonitor monitor) {
+        UtilizationReport report = scheduler.run(frame.width, frame.height, frame::renderTile, monitor);
+        lastReport = report;
+        return report;
+    }
+
+    /**
+     * Walks the same tiles as the scheduler, in order, on the calling thread. Returns the tile
+     * costs, with the calling thread as the only worker.
+     */
+    private UtilizationReport renderSingleThreaded(int width, int height, TileScheduler.TileTask task,
+                                                   RenderMonitor monitor) {
+        int tileSize = scheduler.getTileSize();
+        int tilesX = (width + tileSize - 1) / tileSize, tilesY = (height + tileSize - 1) / tileSize;
+        long[] costs = new long[tilesX * tilesY];
+        long[] busy = new long[2];
+        long start = System.nanoTime();
+        for (int tile = 0; tile < costs.length && !monitor.isCancelled(); tile++) {
+            int tx = (tile % tilesX) * tileSize, ty = (tile / tilesX) * tileSize;
+            int tw = Math.min(tileSize, width - tx), th = Math.min(tileSize, height - ty);
+            long tileStart = System.nanoTime();
+            task.renderTile(tx, ty, tw, th);
+            costs[tile] = System.nanoTime() - tileStart;
+            busy[0] += costs[tile];
+            busy[1]++;
+            monitor.tileCompleted(tx, ty, tw, th);
+        }
+        return new UtilizationReport(1, tileSize, tilesX, costs, System.nanoTime() - start,
+                Map.of(Thread.currentThread().getName(), busy));
+    }
+}
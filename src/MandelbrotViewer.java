@@ -56,6 +56,17 @@ public class MandelbrotViewer extends JFrame {
             }
         });
 
+        JButton posterBtn = new JButton("Poster");
+        posterBtn.setToolTipText("Export the view at print size, rendered in bands straight into a PNG");
+        posterBtn.addActionListener(e -> {
+            if (renderModeBox.getSelectedIndex() == 2 && gpuPanel != null) {
+                //the GPU panel can only save what is on screen, the CPU renderer exports its view
+                double[] bounds = gpuPanel.getViewBounds();
+                panel.setViewBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+            }
+            panel.exportPoster();
+        });
+
         JCheckBox timerBox = new JCheckBox("Show Timer", true);
         timerBox.addActionListener(e -> panel.toggleTimer(timerBox.isSelected()));
 
@@ -67,8 +78,7 @@ public class MandelbrotViewer extends JFrame {
             }
         });
 
-        String[] palettes = { "Grayscale", "Orange-Black", "Cyan", "Blue-Green", "Fire", "HSV1", "HSV2", "HSV3"};
-        paletteBox = new JComboBox<>(palettes);
+        paletteBox = new JComboBox<>(MandelbrotPalettes.NAMES);
 
         paletteBox.addActionListener(e -> {
             int index = paletteBox.getSelectedIndex();
@@ -100,6 +110,25 @@ public class MandelbrotViewer extends JFrame {
             }
         });
 
+        JCheckBox subdivideBox = new JCheckBox("Subdivide", false);
+        subdivideBox.setToolTipText("Fill regions with a uniform border without iterating them (Escape Time only)");
+        subdivideBox.addActionListener(e -> panel.setSubdivision(subdivideBox.isSelected()
+                ? MandelbrotRenderer.Subdivision.ACCURATE : MandelbrotRenderer.Subdivision.OFF));
+
+        JCheckBox simdBox = new JCheckBox("SIMD", false);
+        simdBox.setEnabled(MandelbrotRenderer.isVectorSupported());
+        simdBox.setToolTipText(simdBox.isEnabled() ? "Iterate a vector of adjacent pixels at once (CPU modes)"
+                : "Build the simd sources and start with --add-modules jdk.incubator.vector to use the SIMD kernels");
+        simdBox.addActionListener(e -> panel.setVectorized(simdBox.isSelected()));
+
+        JCheckBox antialiasBox = new JCheckBox("Antialias", false);
+        antialiasBox.setToolTipText("Sample pixels along edges again on a 3x3 grid (CPU modes)");
+        antialiasBox.addActionListener(e -> panel.setAntialiasing(antialiasBox.isSelected()));
+
+        JCheckBox heatmapBox = new JCheckBox("Heatmap", false);
+        heatmapBox.setToolTipText("Shade each tile of the last frame by its render time");
+        heatmapBox.addActionListener(e -> panel.setHeatmap(heatmapBox.isSelected()));
+
         JLabel renderLabel = new JLabel("Render Mode:");
         renderModeBox = new JComboBox<>(new String[]{
                 "Multithreaded", "Single-threaded", "GPU (WIP)"});
@@ -109,11 +138,16 @@ public class MandelbrotViewer extends JFrame {
         controls.add(colorBtn);
         controls.add(resetBtn);
         controls.add(saveBtn);
+        controls.add(posterBtn);
         controls.add(modeBox);
         controls.add(timerBox);
         controls.add(new JLabel("Palette:"));
         controls.add(paletteBox);
         controls.add(refineBox);
+        controls.add(subdivideBox);
+        controls.add(simdBox);
+        controls.add(antialiasBox);
+        controls.add(heatmapBox);
         controls.add(renderLabel);
         controls.add(renderModeBox);
 
@@ -176,6 +210,9 @@ public class MandelbrotViewer extends JFrame {
         }
     }
 
+    /**
+     * Starts the interactive viewer. For rendering without a display, see MandelbrotCli.main
+     */
     public static void main(String[] args) {
         SwingUtilities.invokeLater(MandelbrotViewer::new);
     }
@@ -0,0 +1,156 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mariani-Silver rectangle subdivision for the escape time mode. Only the border of a rectangle is
+ * iterated; if every border pixel escaped at the same iteration the whole rectangle is filled with
+ * it, otherwise it is cut in half along its longer side and both halves are checked again. Because
+ * the sets {iter >= n} of the Mandelbrot set have no holes, a uniform border means a uniform
+ * inside, apart from features thinner than a pixel that slip between two border samples.
+ * ACCURATE also iterates the ring just inside the border before trusting it, which catches most
+ * of those filaments at a small extra cost. Neither mode is guaranteed pixel exact, use
+ * MandelbrotRenderer.validateSubdivision to measure the difference for a view.
+ *
+ * Each task owns the inside of its rectangle, the border pixels were already computed by its parent.
+ */
+final class MarianiSilver extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Rectangles with an inside thinner than this are iterated pixel by pixel
+     */
+    private static final int MIN_SIZE = 4;
+    /**
+     * Rectangles smaller than this many pixels are finished on the current thread instead of forking
+     */
+    private static final int FORK_AREA = 64 * 64;
+
+    private final RenderFrame frame;
+    private final int x0, y0, x1, y1; //inclusive, border already computed
+    private final boolean accurate;
+    private final boolean parallel;
+    private final RenderMonitor monitor;
+
+    private MarianiSilver(RenderFrame frame, int x0, int y0, int x1, int y1,
+                          boolean accurate, boolean parallel, RenderMonitor monitor) {
+        this.frame = frame;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.accurate = accurate;
+        this.parallel = parallel;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Computes the frame border and returns the root task covering the whole frame. Run it on a
+     * ForkJoinPool when parallel, or call run() on it directly otherwise.
+     */
+    static MarianiSilver forFrame(RenderFrame frame, boolean accurate, boolean parallel, RenderMonitor monitor) {
+        int x1 = frame.width - 1, y1 = frame.height - 1;
+        for (int x = 0; x <= x1; x++) {
+            frame.escapePixel(x, 0);
+            if (y1 > 0) frame.escapePixel(x, y1);
+        }
+        for (int y = 1; y < y1; y++) {
+            frame.escapePixel(0, y);
+            if (x1 > 0) frame.escapePixel(x1, y);
+        }
+        return new MarianiSilver(frame, 0, 0, x1, y1, accurate, parallel, monitor);
+    }
+
+    /**
+     * Runs the subdivision on the calling thread
+     */
+    void run() {
+        compute();
+    }
+
+    @Override
+    protected void compute() {
+        if (monitor.isCancelled()) return;
+        int insideW = x1 - x0 - 1, insideH = y1 - y0 - 1;
+        if (insideW <= 0 || insideH <= 0) {
+            monitor.tileCompleted(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+            return;
+        }
+
+        int iter = uniformBorder();
+        if (iter >= 0 && (!accurate || probesMatch(iter))) {
+            frame.fill(x0 + 1, y0 + 1, x1 - 1, y1 - 1, iter, frame.pixels[y0 * frame.width + x0]);
+            monitor.tileCompleted(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+            return;
+        }
+
+        if (insideW < MIN_SIZE || insideH < MIN_SIZE) {
+            for (int y = y0 + 1; y < y1; y++) {
+                for (int x = x0 + 1; x < x1; x++) {
+                    frame.escapePixel(x, y);
+                }
+            }
+            monitor.tileCompleted(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+            return;
+        }
+
+        //split along the longer side; the dividing line becomes the shared border of both halves
+        MarianiSilver first, second;
+        if (insideW >= insideH) {
+            int mid = (x0 + x1) >>> 1;
+            for (int y = y0 + 1; y < y1; y++) frame.escapePixel(mid, y);
+            first = new MarianiSilver(frame, x0, y0, mid, y1, accurate, parallel, monitor);
+            second = new MarianiSilver(frame, mid, y0, x1, y1, accurate, parallel, monitor);
+        } else {
+            int mid = (y0 + y1) >>> 1;
+            for (int x = x0 + 1; x < x1; x++) frame.escapePixel(x, mid);
+            first = new MarianiSilver(frame, x0, y0, x1, mid, accurate, parallel, monitor);
+            second = new MarianiSilver(frame, x0, mid, x1, y1, accurate, parallel, monitor);
+        }
+        if (parallel && (long) insideW * insideH >= FORK_AREA) {
+            invokeAll(first, second);
+        } else {
+            first.compute();
+            second.compute();
+        }
+    }
+
+    /**
+     * Returns the iteration count shared by every border pixel, or -1 if they differ
+     */
+    private int uniformBorder() {
+        int[] iterations = frame.iterations;
+        int width = frame.width;
+        int iter = iterations[y0 * width + x0];
+        for (int x = x0; x <= x1; x++) {
+            if (iterations[y0 * width + x] != iter || iterations[y1 * width + x] != iter) return -1;
+        }
+        for (int y = y0 + 1; y < y1; y++) {
+            if (iterations[y * width + x0] != iter || iterations[y * width + x1] != iter) return -1;
+        }
+        return iter;
+    }
+
+    /**
+     * Iterates the ring of pixels just inside the border plus the center, true if all match the
+     * border. A filament that slipped between two border samples usually still hits the inner ring.
+     * Probed pixels are real results, so nothing is wasted if the rectangle gets filled after all.
+     */
+    private boolean probesMatch(int iter) {
+        int[] iterations = frame.iterations;
+        int width = frame.width;
+        int ix0 = x0 + 1, iy0 = y0 + 1, ix1 = x1 - 1, iy1 = y1 - 1;
+        for (int x = ix0; x <= ix1; x++) {
+            frame.escapePixel(x, iy0);
+            frame.escapePixel(x, iy1);
+            if (iterations[iy0 * width + x] != iter || iterations[iy1 * width + x] != iter) return false;
+        }
+        for (int y = iy0 + 1; y < iy1; y++) {
+            frame.escapePixel(ix0, y);
+            frame.escapePixel(ix1, y);
+            if (iterations[y * width + ix0] != iter || iterations[y * width + ix1] != iter) return false;
+        }
+        int cx = (x0 + x1) >>> 1, cy = (y0 + y1) >>> 1;
+        frame.escapePixel(cx, cy);
+        return iterations[cy * width + cx] == iter;
+    }
+}
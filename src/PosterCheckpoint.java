@@ -0,0 +1,176 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Where a PosterExport stands, saved next to the PNG as name.png.checkpoint so a crashed or
+ * stopped export can go on from there instead of starting over. The PNG is written band by band
+ * and each band's strips end on a byte boundary of the zlib stream, so the file up to the last
+ * complete band is a valid prefix to append to. The checkpoint holds what appending needs: the
+ * view, the rows done, the file length, the Adler-32 of the raw image data so far, the last row
+ * for the next band's filters, and a deep view's reference orbit, the one part of a band's work
+ * that isn't per pixel and can take minutes on its own.
+ *
+ * Two checks guard a resume. The checkpoint ends with the CRC-32 of everything before it, which
+ * catches a torn or damaged checkpoint, and it records the CRC-32 of the PNG prefix, which catches
+ * a file that was changed or cut short since.
+ *
+ * Layout, big-endian: MAGIC, VERSION, center x and y as decimal strings, span, width, height,
+ * maxIter, color mode, palette length and colors, precision, antialiasing grid, rows done, file
+ * length, Adler-32, file CRC-32, the last row's colors if rows done > 0, a byte saying whether an
+ * orbit follows and the orbit, then the CRC-32.
+ */
+final class PosterCheckpoint {
+
+    static final int MAGIC = 0x4D42434B; //"MBCK"
+    static final int VERSION = 1;
+
+    final RenderRequest request;
+    final MandelbrotRenderer.Precision precision;
+    final int antialiasing;
+    final int rows; //rows of the image already in the file
+    final long length; //bytes of the file that hold them
+    final int adler; //of the filtered scanlines of those rows
+    final int crc; //of the file's first length bytes
+    final int[] lastRow; //colors of row rows - 1, null if rows is 0
+    final ReferenceOrbit reference; //null if the view doesn't use perturbation
+
+    PosterCheckpoint(RenderRequest request, MandelbrotRenderer.Precision precision, int antialiasing, int rows,
+                     long length, int adler, int crc, int[] lastRow, ReferenceOrbit reference) {
+        this.request = request;
+        this.precision = precision;
+        this.antialiasing = antialiasing;
+        this.rows = rows;
+        this.length = length;
+        this.adler = adler;
+        this.crc = crc;
+        this.lastRow = lastRow;
+        this.reference = reference;
+    }
+
+    /**
+     * The checkpoint file of a PNG
+     */
+    static Path of(Path file) {
+        return file.resolveSibling(file.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it over the last one, so a crash while
+     * saving leaves the previous checkpoint in place
+     */
+    void save(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 check = new CRC32();
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, check),
+                     1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(request.getCenterX().toString());
+            out.writeUTF(request.getCenterY().toString());
+            out.writeDouble(request.getSpan());
+            out.writeInt(request.getWidth());
+            out.writeInt(request.getHeight());
+            out.writeInt(request.getMaxIter());
+            out.writeByte(request.getColorMode().ordinal());
+            int[] palette = request.getPalette();
+            out.writeInt(palette.length);
+            for (int color : palette) out.writeInt(color);
+            out.writeByte(precision.ordinal());
+            out.writeInt(antialiasing);
+            out.writeInt(rows);
+            out.writeLong(length);
+            out.writeInt(adler);
+            out.writeInt(crc);
+            if (rows > 0) {
+                for (int color : lastRow) out.writeInt(color);
+            }
+            out.writeBoolean(reference != null);
+            if (reference != null) reference.write(out);
+            out.flush();
+            new DataOutputStream(file).writeInt((int) check.getValue());
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint, throwing IOException if it is damaged or not a checkpoint at all
+     */
+    static PosterCheckpoint load(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 12) throw new IOException(path + " is not a checkpoint");
+        CRC32 check = new CRC32();
+        check.update(bytes, 0, bytes.length - 4);
+        if ((int) check.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            throw new IOException("Checkpoint " + path + " is damaged, its checksum doesn't match");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4))) {
+            if (in.readInt() != MAGIC) throw new IOException(path + " is not a checkpoint");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version);
+            BigDecimal centerX = new BigDecimal(in.readUTF()), centerY = new BigDecimal(in.readUTF());
+            double span = in.readDouble();
+            int width = in.readInt(), height = in.readInt(), maxIter = in.readInt();
+            ColorMode mode = ColorMode.values()[in.readByte()];
+            int[] palette = new int[in.readInt()];
+            for (int i = 0; i < palette.length; i++) palette[i] = in.readInt();
+            RenderRequest request = RenderRequest.centered(centerX, centerY, span, width, height, maxIter, mode,
+                    palette);
+            MandelbrotRenderer.Precision precision = MandelbrotRenderer.Precision.values()[in.readByte()];
+            int antialiasing = in.readInt();
+            int rows = in.readInt();
+            long length = in.readLong();
+            int adler = in.readInt(), crc = in.readInt();
+            if (rows < 0 || rows > height || length < 0) throw new IOException("Bad checkpoint progress");
+            int[] lastRow = null;
+            if (rows > 0) {
+                lastRow = new int[width];
+                for (int x = 0; x < width; x++) lastRow[x] = in.readInt();
+            }
+            ReferenceOrbit reference = in.readBoolean() ? ReferenceOrbit.read(in) : null;
+            if (in.available() > 0) throw new IOException("Trailing bytes in checkpoint " + path);
+            return new PosterCheckpoint(request, precision, antialiasing, rows, length, adler, crc, lastRow,
+                    reference);
+        } catch (EOFException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Checkpoint " + path + " is damaged: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks that the first length bytes of the PNG are the ones the checkpoint was taken of and
+     * returns their CRC-32, to carry on with the bytes appended after them
+     */
+    CRC32 verify(FileChannel file, Path path) throws IOException {
+        if (file.size() < length) {
+            throw new IOException(path + " is shorter than its checkpoint, " + file.size() + " of " + length + " bytes");
+        }
+        CRC32 check = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        file.position(0);
+        for (long left = length; left > 0; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), left));
+            int n = file.read(buffer);
+            if (n < 0) throw new EOFException(path + " ended early");
+            check.update(buffer.array(), 0, n);
+            left -= n;
+        }
+        if ((int) check.getValue() != crc) {
+            throw new IOException(path + " was changed since its checkpoint, its first " + length
+                    + " bytes don't match");
+        }
+        return check;
+    }
+}
@@ -0,0 +1,489 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes views far larger than the heap, such as a 32k x 32k poster, straight into a PNG file.
+ * The view is rendered in bands of full rows, each band a frame of its own on the same pixel grid,
+ * and every band is encoded while the next one renders. Memory holds two bands at a time whatever
+ * the image size.
+ *
+ * Encoding splits a band into strips of about 256 KB of filtered rows and deflates them in
+ * parallel, each strip with its own Deflater flushed to a byte boundary. Concatenated they form
+ * one zlib stream, the same trick pigz uses; strips only lose the matches they could have found
+ * in the strip before.
+ */
+public final class PosterExport {
+
+    //16 bytes per pixel: the color plus the field's iteration count, magnitude and trap
+    private static final long BAND_BYTES = 32L << 20;
+    private static final int STRIP_BYTES = 256 << 10;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+
+    private PosterExport() {
+    }
+
+    /**
+     * Rows per band for images of the given width: as many as fit in BAND_BYTES, a multiple of the
+     * tile cache's tile size so bands line up with its tiles
+     */
+    static int bandRows(int width, int height) {
+        int rows = (int) Math.max(1, Math.min(height, BAND_BYTES / (16L * width)));
+        if (rows > TileCache.TILE_SIZE) rows -= rows % TileCache.TILE_SIZE;
+        return rows;
+    }
+
+    /**
+     * Renders the request band by band into a PNG file. The monitor can cancel the export between
+     * tiles and hears tileCompleted(0, row, width, rows) once a band is in the file. A cancelled or
+     * failed export deletes the partial file and throws CancellationException or IOException.
+     */
+    public static void write(MandelbrotRenderer renderer, RenderRequest request, Path file, RenderMonitor monitor)
+            throws IOException {
+        write(renderer, request, file, 0, monitor);
+    }
+
+    /**
+     * The same, saving a PosterCheckpoint next to the file once a band is in it and at least
+     * checkpointMs passed since the last one, 0 for no checkpoints. Checkpoints are written by the
+     * thread that appends the bands, while the next band renders. An export that fails or is
+     * cancelled after its first checkpoint keeps the file and the checkpoint for resume, a
+     * finished one deletes the checkpoint.
+     */
+    public static void write(MandelbrotRenderer renderer, RenderRequest request, Path file, long checkpointMs,
+                             RenderMonitor monitor) throws IOException {
+        //every band is a region of the one frame, so deep posters share one reference orbit
+        ReferenceOrbit reference = renderer.prepareReference(request);
+        Checkpoints checkpoints = checkpointMs <= 0 ? null
+                : new Checkpoints(PosterCheckpoint.of(file), checkpointMs, renderer, reference);
+        write(bands(renderer, request), renderer.getThreads(), request, file, checkpoints, null, monitor);
+    }
+
+    /**
+     * Goes on with the export whose checkpoint is next to the file, from the last band it saved,
+     * with the view, precision and antialiasing the export started with; the renderer is switched
+     * to those. Further checkpoints follow as in write. Throws IOException without touching the
+     * file if the checkpoint is damaged or the file no longer holds what it was taken of. Returns
+     * the view.
+     */
+    public static RenderRequest resume(MandelbrotRenderer renderer, Path file, long checkpointMs, RenderMonitor monitor)
+            throws IOException {
+        PosterCheckpoint checkpoint = PosterCheckpoint.load(PosterCheckpoint.of(file));
+        RenderRequest request = checkpoint.request;
+        renderer.setPrecision(checkpoint.precision);
+        renderer.setAntialiasing(checkpoint.antialiasing);
+        //the saved orbit spares a deep view the high precision iteration
+        ReferenceOrbit reference = renderer.prepareReference(request, checkpoint.reference);
+        Checkpoints checkpoints = checkpointMs <= 0 ? null
+                : new Checkpoints(PosterCheckpoint.of(file), checkpointMs, renderer, reference);
+        write(bands(renderer, request), renderer.getThreads(), request, file, checkpoints, checkpoint, monitor);
+        return request;
+    }
+
+    private static BandRenderer bands(MandelbrotRenderer renderer, RenderRequest request) {
+        return (row, rows, pixels, field, cancelOnly) ->
+                renderer.render(request.region(0, row, request.getWidth(), rows), true, pixels, field, cancelOnly);
+    }
+
+    /**
+     * The same with the bands rendered across the coordinator's workers
+     */
+    public static void write(RenderCoordinator coordinator, RenderRequest request, Path file, RenderMonitor monitor)
+            throws IOException {
+        write((row, rows, pixels, field, cancelOnly) -> coordinator.render(request, 0, row, request.getWidth(), rows,
+                        Integer.MAX_VALUE, pixels, field, cancelOnly),
+                Runtime.getRuntime().availableProcessors(), request, file, null, null, monitor);
+    }
+
+    /**
+     * Renders the rows [row, row + rows) of the view into a band's buffers
+     */
+    private interface BandRenderer {
+        void render(int row, int rows, int[] pixels, IterationField field, RenderMonitor monitor);
+    }
+
+    /**
+     * When and what to checkpoint, see write. Only the writer thread touches it.
+     */
+    private static final class Checkpoints {
+        final Path path;
+        final long intervalNs;
+        final MandelbrotRenderer.Precision precision;
+        final int antialiasing;
+        final ReferenceOrbit reference;
+        long last = System.nanoTime();
+
+        Checkpoints(Path path, long intervalMs, MandelbrotRenderer renderer, ReferenceOrbit reference) {
+            this.path = path;
+            this.intervalNs = intervalMs * 1_000_000;
+            this.precision = renderer.getPrecision();
+            this.antialiasing = renderer.getAntialiasing();
+            this.reference = reference;
+        }
+    }
+
+    private static void write(BandRenderer renderer, int threads, RenderRequest request, Path file,
+                              Checkpoints checkpoints, PosterCheckpoint resumeFrom, RenderMonitor monitor)
+            throws IOException {
+        int width = request.getWidth(), height = request.getHeight();
+        int bandRows = bandRows(width, height);
+        Path checkpointFile = PosterCheckpoint.of(file);
+        //a fresh export overwrites the file, an old checkpoint would no longer describe it
+        if (resumeFrom == null) Files.deleteIfExists(checkpointFile);
+        ExecutorService deflaters = Executors.newFixedThreadPool(threads, PosterExport::daemon);
+        ExecutorService writer = Executors.newSingleThreadExecutor(PosterExport::daemon);
+        //bands only report back to the monitor once they are written, their tiles are band relative
+        RenderMonitor cancelOnly = new RenderMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return monitor.isCancelled();
+            }
+
+            @Override
+            public void tileCompleted(int x, int y, int w, int h) {
+            }
+        };
+        //set once the file holds rows a checkpoint describes, a failure then leaves it for resume
+        AtomicBoolean resumable = new AtomicBoolean(resumeFrom != null);
+        FileChannel channel = resumeFrom == null
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        CRC32 fileCrc; //of every byte in the file, for the checkpoints
+        try {
+            if (resumeFrom == null) {
+                fileCrc = new CRC32();
+            } else {
+                fileCrc = resumeFrom.verify(channel, file);
+                channel.truncate(resumeFrom.length);
+                channel.position(resumeFrom.length);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), fileCrc))) {
+            int start = 0;
+            int[] above = null; //last row of the previous band, the first row's filters predict from it
+            ImageChecksum adler;
+            if (resumeFrom == null) {
+                out.write(SIGNATURE);
+                byte[] header = new byte[13];
+                writeInt(header, 0, width);
+                writeInt(header, 4, height);
+                header[8] = 8; //bits per sample
+                header[9] = 2; //truecolor, no alpha; compression, filter and interlace methods stay 0
+                writeChunk(out, IHDR, header, header.length);
+                writeChunk(out, IDAT, new byte[]{0x78, (byte) 0x9C}, 2); //zlib header, 32K window
+                adler = new ImageChecksum(1);
+            } else {
+                start = resumeFrom.rows;
+                above = resumeFrom.lastRow;
+                adler = new ImageChecksum(resumeFrom.adler);
+            }
+
+            //a band renders into one buffer while the band before it is encoded from the other
+            int[][] buffers = {new int[width * bandRows], new int[width * bandRows]};
+            Future<?>[] encoding = new Future<?>[2];
+            AtomicBoolean abandoned = new AtomicBoolean(); //set on failure, queued bands then write nothing
+            IterationField field = new IterationField(width, bandRows);
+            try {
+                for (int row = start, band = 0; row < height; row += bandRows, band++) {
+                    int rows = Math.min(bandRows, height - row);
+                    int slot = band & 1;
+                    await(encoding[slot]);
+                    if (rows != field.getHeight()) field = new IterationField(width, rows);
+                    int[] pixels = buffers[slot];
+                    renderer.render(row, rows, pixels, field, cancelOnly);
+                    int[] previous = above;
+                    int top = row;
+                    boolean last = row + rows == height;
+                    encoding[slot] = writer.submit(() -> {
+                        if (abandoned.get()) return null;
+                        writeBand(out, adler, deflaters, pixels, width, rows, previous, last);
+                        monitor.tileCompleted(0, top, width, rows);
+                        if (checkpoints != null && !last
+                                && System.nanoTime() - checkpoints.last >= checkpoints.intervalNs) {
+                            //the checkpoint may only claim bytes that are on the disk
+                            out.flush();
+                            channel.force(false);
+                            int[] lastRow = Arrays.copyOfRange(pixels, (rows - 1) * width, rows * width);
+                            new PosterCheckpoint(request, checkpoints.precision, checkpoints.antialiasing, top + rows,
+                                    channel.position(), adler.getValue(), (int) fileCrc.getValue(), lastRow,
+                                    checkpoints.reference).save(checkpoints.path);
+                            checkpoints.last = System.nanoTime();
+                            resumable.set(true);
+                        }
+                        return null;
+                    });
+                    above = Arrays.copyOfRange(pixels, (rows - 1) * width, rows * width);
+                }
+                await(encoding[0]);
+                await(encoding[1]);
+            } catch (IOException | RuntimeException e) {
+                //the writer may be in the middle of a band, the stream is only closed once it is done
+                abandoned.set(true);
+                awaitQuietly(encoding[0]);
+                awaitQuietly(encoding[1]);
+                throw e;
+            }
+            byte[] checksum = new byte[4];
+            writeInt(checksum, 0, adler.getValue());
+            writeChunk(out, IDAT, checksum, 4);
+            writeChunk(out, IEND, checksum, 0);
+        } catch (IOException | RuntimeException e) {
+            writer.shutdownNow();
+            if (!resumable.get()) Files.deleteIfExists(file);
+            throw e;
+        } finally {
+            deflaters.shutdownNow();
+            writer.shutdownNow();
+        }
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    /**
+     * Adler-32 of the filtered scanlines, carried on from the value of the rows written before a
+     * resume. Adler32 can't start from a value, so its sum of the new rows is combined with the old
+     * one the way zlib's adler32_combine does.
+     */
+    private static final class ImageChecksum {
+        private static final int BASE = 65521;
+        private final int initial;
+        private final Adler32 adler = new Adler32();
+        private long length;
+
+        ImageChecksum(int initial) {
+            this.initial = initial;
+        }
+
+        void update(byte[] raw) {
+            adler.update(raw);
+            length += raw.length;
+        }
+
+        int getValue() {
+            long rem = length % BASE;
+            long value = adler.getValue();
+            long sum1 = initial & 0xFFFF;
+            long sum2 = rem * sum1 % BASE;
+            sum1 += (value & 0xFFFF) + BASE - 1;
+            sum2 += (initial >>> 16 & 0xFFFF) + (value >>> 16 & 0xFFFF) + BASE - rem;
+            if (sum1 >= BASE) sum1 -= BASE;
+            if (sum1 >= BASE) sum1 -= BASE;
+            if (sum2 >= 2L * BASE) sum2 -= 2L * BASE;
+            if (sum2 >= BASE) sum2 -= BASE;
+            return (int) (sum1 | sum2 << 16);
+        }
+    }
+
+    private static Thread daemon(Runnable r) {
+        Thread t = new Thread(r, "mandelbrot-export");
+        t.setDaemon(true);
+        return t;
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        if (future == null) return;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits for a band's encoding to end, however it ends, so the stream it writes can be closed
+     * after it. Keeps waiting through interrupts and restores the interrupt status after.
+     */
+    private static void awaitQuietly(Future<?> future) {
+        if (future == null) return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException | CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Runs on the writer thread: deflates the band's strips in parallel and appends them in order,
+     * one IDAT chunk each
+     */
+    private static void writeBand(DataOutputStream out, ImageChecksum adler, ExecutorService deflaters, int[] pixels,
+                                  int width, int rows, int[] above, boolean last) throws IOException {
+        int stripRows = Math.max(1, STRIP_BYTES / (3 * width + 1));
+        List<Future<Strip>> strips = new ArrayList<>();
+        for (int first = 0; first < rows; first += stripRows) {
+            int start = first, count = Math.min(stripRows, rows - first);
+            boolean finish = last && first + count == rows;
+            strips.add(deflaters.submit(() -> deflate(filter(pixels, width, start, count, above), finish)));
+        }
+        for (Future<Strip> future : strips) {
+            Strip strip;
+            try {
+                strip = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Could not encode strip", e.getCause());
+            }
+            adler.update(strip.raw);
+            out.writeInt(strip.length);
+            out.write(IDAT);
+            out.write(strip.data, 0, strip.length);
+            out.writeInt(strip.crc);
+        }
+    }
+
+    /**
+     * Filtered scanlines of rows [first, first + count): per row the filter type, then the RGB bytes
+     * predicted by that filter. The filter is picked per row by the usual heuristic, the one whose
+     * residuals have the smallest sum of absolute values.
+     */
+    static byte[] filter(int[] pixels, int width, int first, int count, int[] above) {
+        int stride = 3 * width;
+        byte[] raw = new byte[count * (stride + 1)];
+        byte[] prior = new byte[stride]; //zeros above the top row, as the PNG filters expect
+        byte[] current = new byte[stride];
+        if (first > 0) {
+            toBytes(pixels, (first - 1) * width, width, prior);
+        } else if (above != null) {
+            toBytes(above, 0, width, prior);
+        }
+        for (int r = 0; r < count; r++) {
+            toBytes(pixels, (first + r) * width, width, current);
+            long none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+            for (int i = 0; i < stride; i++) {
+                int x = current[i] & 0xFF, b = prior[i] & 0xFF;
+                int a = i >= 3 ? current[i - 3] & 0xFF : 0, c = i >= 3 ? prior[i - 3] & 0xFF : 0;
+                none += Math.abs((byte) x);
+                sub += Math.abs((byte) (x - a));
+                up += Math.abs((byte) (x - b));
+                average += Math.abs((byte) (x - ((a + b) >> 1)));
+                paeth += Math.abs((byte) (x - paeth(a, b, c)));
+            }
+            long best = Math.min(Math.min(none, sub), Math.min(Math.min(up, average), paeth));
+            int type = best == none ? 0 : best == sub ? 1 : best == up ? 2 : best == average ? 3 : 4;
+            int at = r * (stride + 1);
+            raw[at++] = (byte) type;
+            for (int i = 0; i < stride; i++) {
+                int x = current[i] & 0xFF, b = prior[i] & 0xFF;
+                int a = i >= 3 ? current[i - 3] & 0xFF : 0, c = i >= 3 ? prior[i - 3] & 0xFF : 0;
+                int predicted = switch (type) {
+                    case 0 -> 0;
+                    case 1 -> a;
+                    case 2 -> b;
+                    case 3 -> (a + b) >> 1;
+                    default -> paeth(a, b, c);
+                };
+                raw[at + i] = (byte) (x - predicted);
+            }
+            byte[] swap = prior;
+            prior = current;
+            current = swap;
+        }
+        return raw;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    private static void toBytes(int[] pixels, int offset, int width, byte[] row) {
+        for (int x = 0, i = 0; x < width; x++) {
+            int rgb = pixels[offset + x];
+            row[i++] = (byte) (rgb >> 16);
+            row[i++] = (byte) (rgb >> 8);
+            row[i++] = (byte) rgb;
+        }
+    }
+
+    /**
+     * The strip's raw deflate data, ending on a byte boundary so the next strip can follow it, or
+     * with the final block if it is the last strip of the image
+     */
+    static Strip deflate(byte[] raw, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(raw);
+            if (last) deflater.finish();
+            byte[] data = new byte[raw.length + (raw.length >> 8) + 64];
+            int length = 0;
+            while (true) {
+                if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+                int space = data.length - length;
+                int n = last ? deflater.deflate(data, length, space)
+                        : deflater.deflate(data, length, space, Deflater.SYNC_FLUSH);
+                length += n;
+                //a flush is complete once it left room in the buffer, a finish once the stream says so
+                if (last ? deflater.finished() : n < space) break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(IDAT);
+            crc.update(data, 0, length);
+            return new Strip(raw, data, length, (int) crc.getValue());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    record Strip(byte[] raw, byte[] data, int length, int crc) {
+    }
+
+    private static void writeChunk(DataOutputStream out, byte[] type, byte[] data, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(type);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * High precision orbit of one reference point for perturbation rendering. The orbit is iterated in
+ * fixed point (BigInteger scaled by 2^bits, so every step is a multiply and a shift instead of a
+ * decimal rounding) and stored rounded to doubles: the pixels only need Z_n to double precision,
+ * their own tiny offset from the reference is what carries the detail. See RenderFrame.perturbed.
+ *
+ * Also holds the series approximation of the frame: while the pixel deltas are still small the
+ * delta after n iterations is a polynomial in the pixel offset dc, delta_n = A_n dc + B_n dc^2 +
+ * C_n dc^3, so every pixel can start at iteration skip instead of 0.
+ */
+final class ReferenceOrbit {
+
+    /**
+     * Highest cubic term, relative to the linear one and in pixels, the series may leave behind
+     */
+    private static final double SERIES_TOLERANCE = 1e-3;
+
+    final BigDecimal x, y; //the reference point
+    final double pixelSize; //finest pixel spacing the orbit is precise enough for
+    final int maxIter;
+    final double[] re, im; //Z_0 .. Z_length-1
+    //the orbit escaped at length - 1, or length - 1 == maxIter if it never did
+    final int length;
+
+    //series coefficients at iteration skip, scaled so they stay near 1 at any depth:
+    //a = A * deltaMax, b = B * deltaMax^2, c = C * deltaMax^3, used with u = dc / deltaMax
+    final int skip;
+    final double deltaMax;
+    final double aRe, aIm, bRe, bIm, cRe, cIm;
+    //smallest |Z_n| for 2 <= n < skip, what the orbit trap would have seen during the skipped part
+    final double skippedTrap;
+
+    private ReferenceOrbit(BigDecimal x, BigDecimal y, double pixelSize, int maxIter,
+                           double[] re, double[] im, int length, int skip, double deltaMax, double[] series,
+                           double skippedTrap) {
+        this.x = x;
+        this.y = y;
+        this.pixelSize = pixelSize;
+        this.maxIter = maxIter;
+        this.re = re;
+        this.im = im;
+        this.length = length;
+        this.skip = skip;
+        this.deltaMax = deltaMax;
+        aRe = series[0];
+        aIm = series[1];
+        bRe = series[2];
+        bIm = series[3];
+        cRe = series[4];
+        cIm = series[5];
+        this.skippedTrap = skippedTrap;
+    }
+
+    /**
+     * Iterates the reference point until it escapes or reaches maxIter. pixelSize sets the
+     * working precision, which has to resolve the point well below one pixel.
+     */
+    static ReferenceOrbit compute(BigDecimal cx, BigDecimal cy, double pixelSize, int maxIter) {
+        int bits = ExtendedPrecision.fixedBits(pixelSize);
+        BigInteger x0 = ExtendedPrecision.toFixed(cx, bits), y0 = ExtendedPrecision.toFixed(cy, bits);
+        BigInteger four = BigInteger.valueOf(4).shiftLeft(bits);
+        double[] re = new double[maxIter + 1];
+        double[] im = new double[maxIter + 1];
+        BigInteger x = BigInteger.ZERO, y = BigInteger.ZERO;
+        int n = 0;
+        while (true) {
+            BigInteger xx = x.multiply(x).shiftRight(bits);
+            BigInteger yy = y.multiply(y).shiftRight(bits);
+            re[n] = Math.scalb(x.doubleValue(), -bits);
+            im[n] = Math.scalb(y.doubleValue(), -bits);
+            if (n == maxIter || xx.add(yy).compareTo(four) > 0) break;
+            BigInteger xy = x.multiply(y).shiftRight(bits - 1);
+            x = xx.subtract(yy).add(x0);
+            y = xy.add(y0);
+            n++;
+        }
+        return new ReferenceOrbit(cx, cy, pixelSize, maxIter, re, im, n + 1, 0, 0, new double[6], Double.MAX_VALUE);
+    }
+
+    /**
+     * Saves the orbit without its series, which withSeries rebuilds in a fraction of the time the
+     * orbit took. See PosterCheckpoint.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(x.toString());
+        out.writeUTF(y.toString());
+        out.writeDouble(pixelSize);
+        out.writeInt(maxIter);
+        out.writeInt(length);
+        for (int n = 0; n < length; n++) {
+            out.writeDouble(re[n]);
+            out.writeDouble(im[n]);
+        }
+    }
+
+    static ReferenceOrbit read(DataInputStream in) throws IOException {
+        BigDecimal x, y;
+        try {
+            x = new BigDecimal(in.readUTF());
+            y = new BigDecimal(in.readUTF());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad reference point", e);
+        }
+        double pixelSize = in.readDouble();
+        int maxIter = in.readInt(), length = in.readInt();
+        if (maxIter < 0 || length < 1 || length > maxIter + 1) {
+            throw new IOException("Bad reference orbit length " + length);
+        }
+        double[] re = new double[maxIter + 1], im = new double[maxIter + 1];
+        for (int n = 0; n < length; n++) {
+            re[n] = in.readDouble();
+            im[n] = in.readDouble();
+        }
+        return new ReferenceOrbit(x, y, pixelSize, maxIter, re, im, length, 0, 0, new double[6], Double.MAX_VALUE);
+    }
+
+    /**
+     * True if this orbit is exact enough for a frame with the given pixel spacing and limit
+     */
+    boolean fits(double pixelSize, int maxIter) {
+        return this.maxIter == maxIter && this.pixelSize <= pixelSize;
+    }
+
+    /**
+     * Runs the series recurrences along the orbit and keeps the last iteration where the series
+     * is still exact enough for every pixel up to deltaMax away from the reference: the cubic term
+     * stays below SERIES_TOLERANCE pixels, and the largest delta is small enough that no pixel
+     * could have escaped or needed a rebase yet. Returns the same orbit with the series attached.
+     */
+    ReferenceOrbit withSeries(double deltaMax, double pixelSize) {
+        //a pixel step in dc moves delta_n by |A_n| * pixelSize, the error has to stay well below that
+        double tolerance = SERIES_TOLERANCE * pixelSize / deltaMax;
+        double ar = 0, ai = 0, br = 0, bi = 0, cr = 0, ci = 0;
+        double trap = Double.MAX_VALUE;
+        int n = 0;
+        //n + 1 < length - 1 keeps the skip short of the reference's escape
+        while (n + 2 < length) {
+            double zr = re[n], zi = im[n];
+            //A' = 2ZA + 1, B' = 2ZB + A^2, C' = 2ZC + 2AB, all scaled by powers of deltaMax
+            double nar = 2 * (zr * ar - zi * ai) + deltaMax;
+            double nai = 2 * (zr * ai + zi * ar);
+            double nbr = 2 * (zr * br - zi * bi) + ar * ar - ai * ai;
+            double nbi = 2 * (zr * bi + zi * br) + 2 * ar * ai;
+            double ncr = 2 * (zr * cr - zi * ci) + 2 * (ar * br - ai * bi);
+            double nci = 2 * (zr * ci + zi * cr) + 2 * (ar * bi + ai * br);
+            double delta = Math.hypot(nar, nai) + Math.hypot(nbr, nbi) + Math.hypot(ncr, nci);
+            double z = Math.hypot(re[n + 1], im[n + 1]);
+            if (Math.hypot(ncr, nci) > tolerance * Math.hypot(nar, nai) || z + delta >= 2 || z <= 2 * delta) break;
+            if (n >= 2) trap = Math.min(trap, Math.hypot(zr, zi));
+            ar = nar; ai = nai; br = nbr; bi = nbi; cr = ncr; ci = nci;
+            n++;
+        }
+        return new ReferenceOrbit(x, y, this.pixelSize, maxIter, re, im, length, n, deltaMax,
+                new double[]{ar, ai, br, bi, cr, ci}, trap);
+    }
+}
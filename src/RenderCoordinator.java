@@ -0,0 +1,479 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders frames across RenderWorkers in other JVMs, on this machine or others, when one
+ * machine's cores aren't enough. Workers connect over TCP and register (see WorkerProtocol); a
+ * frame is cut into tiles, each worker is kept two tiles ahead so it never waits on the network,
+ * and the tiles' compressed fields are copied into the frame's field as they come back. The local
+ * renderer only colors the result, and sets the precision tier the workers render in.
+ *
+ * A worker that disconnects gets its tiles handed to the others. Once no tiles are left to hand
+ * out, a tile that has been running for three times the mean tile time is sent to an idle worker
+ * as well and the first copy to come back wins, so a slow or stuck machine can't hold up the end
+ * of the frame. A tile that fails on MAX_FAILURES workers fails the frame.
+ */
+public final class RenderCoordinator implements AutoCloseable {
+
+    public static final int DEFAULT_TILE_SIZE = 128;
+    private static final int IN_FLIGHT = 2; //tiles queued on a worker at a time
+    private static final long MIN_HEDGE_NS = 250_000_000L;
+    private static final int HEDGE_FACTOR = 3;
+    private static final int MAX_FAILURES = 3;
+    private static final long WORKER_WAIT_NS = 30_000_000_000L; //without any worker before the frame fails
+    private static final int HANDSHAKE_TIMEOUT_MS = 10_000;
+    private static final int MAX_RESULT_BYTES = 64 << 20;
+
+    private final MandelbrotRenderer renderer;
+    private final int tileSize;
+    private final ServerSocket server;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+    private int nextWorker;
+    //touched only by render(), which is synchronized
+    private RenderRequest lastFrame;
+    private MandelbrotRenderer.Precision lastPrecision;
+    private int frameId, nextTile;
+    private int reassigned, hedged;
+
+    /**
+     * Listens for workers on the given address; port 0 picks a free one. The renderer colors
+     * frames and its precision setting is what the workers use.
+     */
+    public RenderCoordinator(MandelbrotRenderer renderer, InetSocketAddress address, int tileSize) throws IOException {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        this.renderer = renderer;
+        this.tileSize = tileSize;
+        server = new ServerSocket();
+        server.bind(address);
+        Thread acceptor = new Thread(this::accept, "mandelbrot-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Tiles of the last frame that went to another worker after theirs was lost, and tiles that
+     * were sent to a second worker because the first one took too long
+     */
+    public synchronized int getLastReassigned() { return reassigned; }
+    public synchronized int getLastHedged() { return hedged; }
+
+    /**
+     * Waits until at least count workers are connected. Returns false if they weren't in time.
+     */
+    public boolean awaitWorkers(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (workers) {
+            while (workers.size() < count) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) return false;
+                workers.wait(left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders a whole frame on all connected workers
+     */
+    public RenderResult render(RenderRequest request) {
+        return render(request, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Renders a whole frame on at most maxWorkers of the connected workers
+     */
+    public RenderResult render(RenderRequest request, int maxWorkers) {
+        return render(request, 0, 0, request.getWidth(), request.getHeight(), maxWorkers, null, null,
+                RenderMonitor.NONE);
+    }
+
+    /**
+     * Renders the w x h region at (x, y) of a frame into caller-owned buffers, like
+     * MandelbrotRenderer.render does with the request frame.region(x, y, w, h). Regions of the same
+     * frame object share the workers' frame setup, a perturbation frame's reference orbit among
+     * it. Throws IllegalStateException if no worker connected in time or a tile kept failing, and
+     * CancellationException if the monitor cancelled the region.
+     */
+    public synchronized RenderResult render(RenderRequest frame, int x, int y, int w, int h, int maxWorkers,
+                                            int[] pixels, IterationField field, RenderMonitor monitor) {
+        RenderRequest request = frame.region(x, y, w, h);
+        if (pixels == null) pixels = new int[w * h];
+        if (field == null) field = new IterationField(w, h);
+        if (pixels.length < w * h || !field.fits(w, h)) {
+            throw new IllegalArgumentException("Buffers too small for " + w + "x" + h);
+        }
+        if (maxWorkers <= 0) {
+            throw new IllegalArgumentException("Need at least one worker: " + maxWorkers);
+        }
+        field.invalidate();
+        MandelbrotRenderer.Precision precision = renderer.getPrecision();
+        if (frame != lastFrame || precision != lastPrecision) {
+            lastFrame = frame;
+            lastPrecision = precision;
+            frameId++;
+        }
+        int tilesX = (w + tileSize - 1) / tileSize, tilesY = (h + tileSize - 1) / tileSize;
+        int count = tilesX * tilesY;
+        int firstTile = nextTile;
+        nextTile += count;
+        reassigned = hedged = 0;
+
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) pending.add(i);
+        boolean[] done = new boolean[count];
+        int[] copies = new int[count]; //outstanding sends of each tile
+        int[] failures = new int[count];
+        long[] costs = new long[count];
+        Map<String, long[]> busy = new HashMap<>();
+        List<Worker> team = new ArrayList<>();
+        long iterations = 0, tileNs = 0;
+        int remaining = count;
+        boolean magnitudes = true;
+        long start = System.nanoTime(), lastWorker = start;
+
+        try {
+            while (remaining > 0) {
+                if (monitor.isCancelled()) throw new CancellationException("Render cancelled");
+                team.removeIf(worker -> !worker.alive);
+                for (Worker worker : workers) {
+                    if (team.size() < maxWorkers && worker.alive && !team.contains(worker)) team.add(worker);
+                }
+                long now = System.nanoTime();
+                if (!team.isEmpty()) {
+                    lastWorker = now;
+                } else if (now - lastWorker > WORKER_WAIT_NS) {
+                    throw new IllegalStateException("No render workers connected");
+                }
+
+                for (Worker worker : team) {
+                    while (worker.alive && worker.assigned.size() < IN_FLIGHT && !pending.isEmpty()) {
+                        int tile = pending.poll();
+                        if (send(worker, frame, precision, firstTile + tile, tileRect(tile, tilesX, x, y, w, h))) {
+                            copies[tile]++;
+                        } else {
+                            pending.addFirst(tile);
+                        }
+                    }
+                }
+                if (pending.isEmpty() && count - remaining > 0) {
+                    long limit = Math.max(MIN_HEDGE_NS, HEDGE_FACTOR * tileNs / (count - remaining));
+                    for (Worker idle : team) {
+                        if (!idle.alive || !idle.assigned.isEmpty()) continue;
+                        int tile = slowestTile(team, firstTile, count, done, copies, now - limit);
+                        if (tile < 0) break;
+                        if (send(idle, frame, precision, firstTile + tile, tileRect(tile, tilesX, x, y, w, h))) {
+                            copies[tile]++;
+                            hedged++;
+                        }
+                    }
+                }
+
+                Event event = events.poll(10, TimeUnit.MILLISECONDS);
+                if (event == null) continue;
+                Worker worker = event.worker();
+                if (event instanceof Lost) {
+                    team.remove(worker);
+                    for (Assignment a : worker.assigned) {
+                        int tile = a.tile - firstTile;
+                        if (tile < 0 || tile >= count || done[tile]) continue;
+                        if (--copies[tile] == 0) {
+                            pending.addFirst(tile);
+                            reassigned++;
+                        }
+                    }
+                    worker.assigned.clear();
+                    continue;
+                }
+                int tile = worker.finished(event instanceof Result r ? r.tile() : ((Failed) event).tile()) - firstTile;
+                if (tile < 0 || tile >= count || done[tile]) continue; //an earlier region's, or a hedge that lost
+                copies[tile]--;
+                if (event instanceof Failed failed) {
+                    if (++failures[tile] >= MAX_FAILURES) {
+                        throw new IllegalStateException("Tile " + tile + " failed on " + failures[tile]
+                                + " workers, last on " + worker.name + ": " + failed.message());
+                    }
+                    if (copies[tile] == 0) pending.addFirst(tile);
+                    continue;
+                }
+                Result result = (Result) event;
+                int[] rect = tileRect(tile, tilesX, 0, 0, w, h);
+                try {
+                    WorkerProtocol.decode(result.data(), result.flags(), field, rect[0], rect[1], rect[2], rect[3]);
+                } catch (IOException e) {
+                    worker.close(); //its reader reports it lost, and its other tiles go elsewhere
+                    if (copies[tile] == 0) pending.addFirst(tile);
+                    continue;
+                }
+                done[tile] = true;
+                remaining--;
+                costs[tile] = result.ns();
+                tileNs += result.ns();
+                iterations += result.iterations();
+                magnitudes &= (result.flags() & WorkerProtocol.MAGNITUDES) != 0;
+                long[] stats = busy.computeIfAbsent(worker.name, k -> new long[2]);
+                stats[0] += result.ns();
+                stats[1]++;
+                monitor.tileCompleted(rect[0], rect[1], rect[2], rect[3]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Render interrupted");
+        }
+
+        RenderStats stats = new RenderStats((long) w * h);
+        stats.iterations.add(iterations);
+        field.complete(request, magnitudes && request.getColorMode() == ColorMode.SMOOTH,
+                request.getColorMode() == ColorMode.ORBIT_TRAP, stats);
+        renderer.recolor(field, request, true, pixels, monitor);
+        renderer.antialias(request, pixels, true, monitor, stats);
+        long end = System.nanoTime();
+        UtilizationReport report = new UtilizationReport(Math.max(1, busy.size()), tileSize, tilesX, costs,
+                end - start, busy);
+        RenderResult result = new RenderResult(request, pixels, field, stats, report, end - start);
+        renderer.getMetrics().frameRendered(result);
+        return result;
+    }
+
+    /**
+     * The running tile that started before the cutoff the longest ago and has only one copy out,
+     * or -1. Only the first tile a worker was given is running, the next waits behind it.
+     */
+    private static int slowestTile(List<Worker> team, int firstTile, int count, boolean[] done, int[] copies,
+                                   long cutoff) {
+        int slowest = -1;
+        long oldest = cutoff;
+        for (Worker worker : team) {
+            if (worker.assigned.isEmpty()) continue;
+            Assignment running = worker.assigned.get(0);
+            int tile = running.tile - firstTile;
+            if (tile < 0 || tile >= count || done[tile] || copies[tile] > 1) continue;
+            if (running.started < oldest) {
+                oldest = running.started;
+                slowest = tile;
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * x, y, width and height of a tile, offset by (x0, y0)
+     */
+    private int[] tileRect(int tile, int tilesX, int x0, int y0, int w, int h) {
+        int tx = tile % tilesX * tileSize, ty = tile / tilesX * tileSize;
+        return new int[]{x0 + tx, y0 + ty, Math.min(tileSize, w - tx), Math.min(tileSize, h - ty)};
+    }
+
+    /**
+     * Sends a tile, and the frame first if the worker hasn't seen it yet. False if the worker is
+     * gone, its reader then reports it lost.
+     */
+    private boolean send(Worker worker, RenderRequest frame, MandelbrotRenderer.Precision precision, int tile,
+                         int[] rect) {
+        try {
+            if (worker.frame != frameId) {
+                WorkerProtocol.writeFrame(worker.out, frameId, frame, precision);
+                worker.frame = frameId;
+            }
+            worker.out.writeByte(WorkerProtocol.TILE);
+            worker.out.writeInt(frameId);
+            worker.out.writeInt(tile);
+            for (int value : rect) worker.out.writeInt(value);
+            worker.out.flush();
+        } catch (IOException e) {
+            worker.close();
+            return false;
+        }
+        worker.assigned.add(new Assignment(tile, worker.assigned.isEmpty() ? System.nanoTime() : Long.MAX_VALUE));
+        return true;
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                continue; //closed, or a connection that failed before we got it
+            }
+            //the handshake gets a thread of its own, a client that never sends one can't block others
+            Thread reader = new Thread(() -> register(socket), "mandelbrot-coordinator-worker");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Reads a worker's handshake, then its results until the connection ends
+     */
+    private void register(Socket socket) {
+        Worker worker;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readInt() != WorkerProtocol.MAGIC || in.readInt() != WorkerProtocol.VERSION) {
+                throw new IOException("Not a render worker of this version");
+            }
+            int threads = in.readInt();
+            String name = in.readUTF();
+            socket.setSoTimeout(0);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            synchronized (workers) {
+                worker = new Worker(socket, in, out, String.format("%s #%d (%d threads)", name, ++nextWorker,
+                        threads));
+                if (closed) throw new IOException("Coordinator closed");
+                workers.add(worker);
+                workers.notifyAll();
+            }
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        worker.read();
+    }
+
+    /**
+     * Stops taking workers and disconnects the ones there are, which makes them exit
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        for (Worker worker : workers) worker.close();
+        workers.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("Coordinator on port %d, %d workers%n", getPort(),
+                workers.size()));
+        for (Worker worker : workers) sb.append("  ").append(worker.name).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * A tile sent to a worker, started is when the worker got to it, MAX_VALUE while it waits
+     */
+    private static final class Assignment {
+        final int tile;
+        long started;
+
+        Assignment(int tile, long started) {
+            this.tile = tile;
+            this.started = started;
+        }
+    }
+
+    private final class Worker {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final String name;
+        volatile boolean alive = true;
+        //only touched by render()
+        final List<Assignment> assigned = new ArrayList<>();
+        int frame = -1; //last frame it was sent
+
+        Worker(Socket socket, DataInputStream in, DataOutputStream out, String name) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.name = name;
+        }
+
+        /**
+         * Drops the tile from the worker's queue, the one behind it starts now. Returns the tile.
+         */
+        int finished(int tile) {
+            for (int i = 0; i < assigned.size(); i++) {
+                if (assigned.get(i).tile != tile) continue;
+                assigned.remove(i);
+                if (i == 0 && !assigned.isEmpty()) assigned.get(0).started = System.nanoTime();
+                break;
+            }
+            return tile;
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    int tile = in.readInt();
+                    if (type == WorkerProtocol.RESULT) {
+                        long ns = in.readLong(), iterations = in.readLong();
+                        int flags = in.readByte();
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_RESULT_BYTES) throw new IOException("Bad result size " + length);
+                        byte[] data = new byte[length];
+                        in.readFully(data);
+                        events.add(new Result(this, tile, ns, iterations, flags, data));
+                    } else if (type == WorkerProtocol.FAILED) {
+                        events.add(new Failed(this, tile, in.readUTF()));
+                    } else {
+                        throw new IOException("Unknown message type " + type);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                workers.remove(this);
+                events.add(new Lost(this));
+            }
+        }
+
+        void close() {
+            alive = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private interface Event {
+        Worker worker();
+    }
+
+    private record Result(Worker worker, int tile, long ns, long iterations, int flags, byte[] data)
+            implements Event {
+    }
+
+    private record Failed(Worker worker, int tile, String message) implements Event {
+    }
+
+    private record Lost(Worker worker) implements Event {
+    }
+}
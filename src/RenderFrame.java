@@ -0,0 +1,856 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+/**
+ * Per-frame state and pixel kernels shared by the worker threads of one MandelbrotRenderer frame.
+ * The kernels fill the IterationField, the Colorizer turns it into pixels right after, so a
+ * fresh frame and a later recolor of the same field always give the same colors.
+ * Each thread writes a disjoint set of pixels.
+ */
+final class RenderFrame {
+
+    /**
+     * Passes of the Adam7 interlacing of PNG: pass p computes the pixels at PASS_X[p] + i * PASS_DX[p],
+     * PASS_Y[p] + j * PASS_DY[p] of every 8x8 block, so each pixel belongs to exactly one pass and
+     * after pass p every pixel on the KNOWN_DX[p] x KNOWN_DY[p] lattice is known.
+     */
+    static final int PASSES = 7;
+    static final int[] PASS_X = {0, 4, 0, 2, 0, 1, 0};
+    static final int[] PASS_Y = {0, 0, 4, 0, 2, 0, 1};
+    static final int[] PASS_DX = {8, 8, 4, 4, 2, 2, 1};
+    static final int[] PASS_DY = {8, 8, 8, 4, 4, 2, 2};
+    static final int[] KNOWN_DX = {8, 4, 4, 2, 2, 1, 1};
+    static final int[] KNOWN_DY = {8, 8, 4, 4, 2, 2, 1};
+    /**
+     * How far, in pixels, a row may sit from the reflection of another and still count as its
+     * mirror, the same slack FrameReuse gives shared samples
+     */
+    private static final double MIRROR_TOLERANCE = 1e-3;
+
+    /**
+     * Largest maxIter float lanes still count exactly, FLOAT frames past it stay scalar
+     */
+    static final int MAX_VECTOR_FLOAT_ITERATIONS = 1 << 24;
+
+    /**
+     * Kernel that iterates a run of pixels of one row at a time, the SIMD kernels of VectorKernels
+     */
+    interface RowKernel {
+        /**
+         * Iterates columns x to endX of row y, starting at field index
+         */
+        void renderRow(int index, int x, int endX, int y, boolean trap);
+    }
+
+    /**
+     * Constructor of VectorKernels(RenderFrame, boolean), looked up on first use. VectorKernels sits in
+     * the simd source root, which only compiles with the Vector API module, so it is null unless
+     * both that module and the class are there.
+     */
+    private static final class Simd {
+        static final Constructor<? extends RowKernel> KERNELS = load();
+
+        private static Constructor<? extends RowKernel> load() {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+            try {
+                return Class.forName("VectorKernels").asSubclass(RowKernel.class)
+                        .getDeclaredConstructor(RenderFrame.class, boolean.class);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+
+    final int width, height, maxIter;
+    final ColorMode colorMode;
+    final int[] palette;
+    final int[] pixels;
+    final IterationField field;
+    final int[] iterations;
+    final float[] magnitudes;
+    final float[] traps;
+    //complex plane coordinate of every column and row, computed once per frame instead of per pixel
+    final double[] xCoords;
+    final double[] yCoords;
+    //cardioid/bulb test and cycle detection, only switched off to compare against plain iteration
+    final boolean interiorChecks;
+    final RenderStats stats;
+    //set once a rectangle was filled without iterating it, its magnitudes are then missing
+    private volatile boolean filled;
+    //samples shared with the previous frame, null if every pixel is iterated
+    private final FrameReuse reuse;
+    //pixels already copied from the tile cache, null if there are none
+    private boolean[] cached;
+    private TileCache.Placement placement;
+    //kernel every iterated pixel goes through. Past DOUBLE the coordinates above are offsets from
+    //the view center, which is only held in full precision by the request
+    private MandelbrotRenderer.Precision tier;
+    //perturbation only: every pixel iterates as a delta from this high precision orbit, see perturbed
+    private ReferenceOrbit reference;
+    private double referenceX, referenceY; //offset of the reference point from the view center
+    //center of the frame the pixel grid belongs to, the request's own unless it is a region
+    private final double centerX, centerY;
+    final RenderRequest request;
+    private final byte[] glitched; //pixels that outlived the reference and need another one
+    private ExtendedPrecision extended; //double-double and fixed point kernels, on first use
+    //SIMD kernels for whole rows of FLOAT and DOUBLE frames, null to iterate pixel by pixel
+    private final RowKernel vector;
+    //mapped frames only: offset of every pixel from the view center, in place of the grid, see usePoints
+    private double[] pointsX, pointsY;
+    //row whose conjugate samples each row holds, -1 for rows that are iterated, null if no row is. See useMirror
+    private int[] mirrorRows;
+
+    /**
+     * tier is the resolved kernel, never AUTO; reference is the primary orbit of a PERTURBATION frame.
+     * vectorized only applies to FLOAT and DOUBLE frames and needs the Vector API module.
+     */
+    RenderFrame(RenderRequest request, int[] pixels, IterationField field, boolean interiorChecks, FrameReuse reuse,
+                MandelbrotRenderer.Precision tier, ReferenceOrbit reference, boolean vectorized) {
+        this.interiorChecks = interiorChecks;
+        this.reuse = reuse;
+        this.request = request;
+        this.stats = new RenderStats(request.getWidth() * request.getHeight());
+        if (reuse != null) stats.reused.add(reuse.reusedPixels);
+        width = request.getWidth();
+        height = request.getHeight();
+        maxIter = request.getMaxIter();
+        colorMode = request.getColorMode();
+        palette = request.getPalette();
+        this.pixels = pixels;
+        this.field = field;
+        iterations = field.iterations;
+        magnitudes = field.magnitudes;
+        traps = field.traps;
+        //a region's coordinates are those of its frame's grid, not of a grid of its own around its
+        //center, which would round differently and give it other pixels than the whole frame
+        RenderRequest grid = request.getFrame();
+        int gridX = request.getFrameX(), gridY = request.getFrameY();
+        int gridWidth = grid.getWidth(), gridHeight = grid.getHeight();
+        centerX = grid.getCenterX().doubleValue();
+        centerY = grid.getCenterY().doubleValue();
+        this.tier = tier;
+        double[] bounds;
+        if (tier == MandelbrotRenderer.Precision.FLOAT || tier == MandelbrotRenderer.Precision.DOUBLE) {
+            bounds = grid.normalizedBounds();
+        } else {
+            double spanY = grid.getSpan() * gridHeight / gridWidth;
+            bounds = new double[]{-grid.getSpan() / 2, grid.getSpan() / 2, -spanY / 2, spanY / 2};
+        }
+        if (tier == MandelbrotRenderer.Precision.PERTURBATION) {
+            glitched = new byte[width * height];
+            useReference(reference);
+        } else {
+            glitched = null;
+        }
+        if (tier == MandelbrotRenderer.Precision.DOUBLE_DOUBLE || tier == MandelbrotRenderer.Precision.FIXED_POINT) {
+            extended = new ExtendedPrecision(this, grid);
+        }
+        double xMinAdj = bounds[0], xMaxAdj = bounds[1], yMinAdj = bounds[2], yMaxAdj = bounds[3];
+        xCoords = new double[width];
+        yCoords = new double[height];
+        for (int x = 0; x < width; x++) {
+            xCoords[x] = xMinAdj + (gridX + x) * (xMaxAdj - xMinAdj) / gridWidth;
+        }
+        for (int y = 0; y < height; y++) {
+            yCoords[y] = yMinAdj + (gridY + y) * (yMaxAdj - yMinAdj) / gridHeight;
+        }
+        boolean simd = tier == MandelbrotRenderer.Precision.DOUBLE
+                || tier == MandelbrotRenderer.Precision.FLOAT && maxIter <= MAX_VECTOR_FLOAT_ITERATIONS;
+        vector = vectorized && simd ? vectorKernels(tier == MandelbrotRenderer.Precision.FLOAT) : null;
+    }
+
+    /**
+     * True if the SIMD kernels can be loaded, see Simd
+     */
+    static boolean isVectorAvailable() {
+        return Simd.KERNELS != null;
+    }
+
+    private RowKernel vectorKernels(boolean floats) {
+        if (Simd.KERNELS == null) throw new UnsupportedOperationException("SIMD kernels are not available");
+        try {
+            return Simd.KERNELS.newInstance(this, floats);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the SIMD kernels", e);
+        }
+    }
+
+    /**
+     * Skips the pixels a tile cache placement already filled in, see TileCache.Placement.prefill
+     */
+    void useCache(TileCache.Placement placement) {
+        this.placement = placement;
+        this.cached = placement.cached;
+        stats.cached.add(placement.cachedPixels);
+    }
+
+    /**
+     * Iterates arbitrary points instead of the grid: pixel i lies at (x[i], y[i]) from the view
+     * center. Call before rendering. Fixed point frames can't be mapped, their kernel only knows
+     * grid coordinates.
+     */
+    void usePoints(double[] x, double[] y) {
+        if (tier == MandelbrotRenderer.Precision.FIXED_POINT) {
+            throw new IllegalArgumentException("Fixed point frames can't be mapped");
+        }
+        pointsX = x;
+        pointsY = y;
+    }
+
+    /**
+     * Offset {x, y} of a perturbation frame's pixel from the center of its grid, see
+     * RenderRequest.getFrame, where another reference orbit can go
+     */
+    double[] offset(int pixel) {
+        if (pointsX != null) return new double[]{pointsX[pixel], pointsY[pixel]};
+        return new double[]{xCoords[pixel % width], yCoords[pixel / width]};
+    }
+
+    void renderTile(int tileX, int tileY, int tileWidth, int tileHeight) {
+        //the trap kernel also produces everything the escape kernel does, so a trap frame can be
+        //recolored in any mode; the other modes skip the extra orbit and leave the traps unset
+        boolean trap = colorMode == ColorMode.ORBIT_TRAP;
+        long work = 0; //escape counts of the pixels iterated here, see RenderStats.getIterations
+        for (int y = tileY; y < tileY + tileHeight; y++) {
+            if (mirrorRows != null && mirrorRows[y] >= 0) continue;
+            work += renderRow(y, tileX, tileWidth, trap);
+        }
+        stats.iterations.add(work);
+    }
+
+    /**
+     * Plans for the set's symmetry about the real axis: c and its conjugate escape at the same
+     * iteration with the same magnitude and trap distance, so where the view overlaps its
+     * reflection, every row that lands on the grid mirrored has the same samples as its mirror
+     * row. Of every such pair only the row with the lower index is rendered, mirrorTile copies it into
+     * the other. Returns false if no row lines up with another, then nothing changes. Only FLOAT
+     * and DOUBLE frames on the grid know their rows' absolute coordinates; call before rendering.
+     */
+    boolean useMirror() {
+        if (pointsX != null || tier != MandelbrotRenderer.Precision.FLOAT && tier != MandelbrotRenderer.Precision.DOUBLE
+                || height < 2) {
+            return false;
+        }
+        //rows y and sum - y mirror each other, the grid lines up if sum is a whole number
+        double step = yCoords[1] - yCoords[0];
+        double sum = -2 * yCoords[0] / step;
+        long rounded = Math.round(sum);
+        if (Math.abs(sum - rounded) > MIRROR_TOLERANCE || rounded <= 0 || rounded > 2L * (height - 1)) return false;
+        int[] rows = new int[height];
+        Arrays.fill(rows, -1);
+        boolean any = false;
+        long mirrored = 0;
+        for (int y = (int) Math.max(0, rounded - (height - 1)); 2 * y < rounded; y++) {
+            int mirror = (int) (rounded - y);
+            if (Math.abs(yCoords[mirror] + yCoords[y]) > MIRROR_TOLERANCE * step) continue;
+            rows[mirror] = y;
+            any = true;
+            for (int x = 0, index = mirror * width; x < width; x++, index++) {
+                //pixels the tile cache or the previous frame fill are counted there already
+                if (cached != null && cached[index] || reuse != null && reuse.covers(x, mirror)) continue;
+                mirrored++;
+            }
+        }
+        if (!any) return false;
+        mirrorRows = rows;
+        stats.mirrored.add(mirrored);
+        return true;
+    }
+
+    /**
+     * Copies the samples and colors of the rendered rows into the tile's mirror rows, see
+     * useMirror. Runs once the rows it copies from are done.
+     */
+    void mirrorTile(int tileX, int tileY, int tileWidth, int tileHeight) {
+        for (int y = tileY; y < tileY + tileHeight; y++) {
+            int source = mirrorRows[y];
+            if (source < 0) continue;
+            int from = source * width + tileX, to = y * width + tileX;
+            if (cached == null) {
+                System.arraycopy(iterations, from, iterations, to, tileWidth);
+                System.arraycopy(magnitudes, from, magnitudes, to, tileWidth);
+                System.arraycopy(traps, from, traps, to, tileWidth);
+                System.arraycopy(pixels, from, pixels, to, tileWidth);
+                continue;
+            }
+            for (int i = 0; i < tileWidth; i++) {
+                if (cached[to + i]) continue;
+                iterations[to + i] = iterations[from + i];
+                magnitudes[to + i] = magnitudes[from + i];
+                traps[to + i] = traps[from + i];
+                pixels[to + i] = pixels[from + i];
+            }
+        }
+    }
+
+    /**
+     * Renders and colors columns tileX to tileX + tileWidth of row y, returns their escape counts
+     */
+    private long renderRow(int y, int tileX, int tileWidth, boolean trap) {
+        int endX = tileX + tileWidth;
+        int rowStart = y * width + tileX;
+        int index = rowStart;
+        long work = 0;
+        int sourceRow = reuse == null ? -1 : reuse.sourceRow(y);
+        if (sourceRow >= 0) {
+            for (int x = tileX; x < endX; x++, index++) {
+                if (cached != null && cached[index]) continue;
+                if (!reuse.copy(x, sourceRow, index, field)) {
+                    iterate(index, x, y, trap);
+                    work += iterations[index];
+                }
+            }
+        } else if (cached != null) {
+            //cached tiles cut the row into runs that still need iterating
+            for (int x = tileX; x < endX; ) {
+                if (cached[index]) {
+                    x++;
+                    index++;
+                    continue;
+                }
+                int start = x, startIndex = index;
+                while (x < endX && !cached[index]) {
+                    x++;
+                    index++;
+                }
+                iterateRun(startIndex, start, x, y, trap);
+                work += sum(startIndex, index);
+            }
+        } else {
+            iterateRun(index, tileX, endX, y, trap);
+            work += sum(index, index + tileWidth);
+        }
+        Colorizer.colorRun(field, colorMode, maxIter, palette, pixels, rowStart, tileWidth);
+        return work;
+    }
+
+    /**
+     * Copies every sample the previous frame shares before a progressive frame's first pass, so
+     * the part of the view that was on screen stays sharp and the passes only compute the rest.
+     * Copied pixels join the cached ones, which no pass touches.
+     */
+    void copyReused() {
+        if (reuse == null) return;
+        cached = cached == null ? new boolean[width * height] : cached.clone();
+        for (int y = 0; y < height; y++) {
+            int sourceRow = reuse.sourceRow(y);
+            if (sourceRow < 0) continue;
+            for (int x = 0, index = y * width; x < width; x++, index++) {
+                if (cached[index] || !reuse.copy(x, sourceRow, index, field)) continue;
+                cached[index] = true;
+                Colorizer.colorRun(field, colorMode, maxIter, palette, pixels, index, 1);
+            }
+        }
+    }
+
+    /**
+     * Renders the pixels of one Adam7 pass in a tile, see PASSES. Tiles have to start on
+     * multiples of 8. Unless the frame is mirrored, every pass but the last then spreads the
+     * computed pixels over the blocks they stand for, see spreadPass.
+     */
+    void renderPass(int pass, int tileX, int tileY, int tileWidth, int tileHeight) {
+        boolean trap = colorMode == ColorMode.ORBIT_TRAP;
+        int endX = tileX + tileWidth, endY = tileY + tileHeight;
+        long work = 0;
+        if (PASS_DX[pass] == 1) {
+            //the last pass takes whole rows, which keeps the run loops and SIMD kernels
+            for (int y = tileY + PASS_Y[pass]; y < endY; y += PASS_DY[pass]) {
+                if (mirrorRows != null && mirrorRows[y] >= 0) continue;
+                work += renderRow(y, tileX, tileWidth, trap);
+            }
+        } else {
+            for (int y = tileY + PASS_Y[pass]; y < endY; y += PASS_DY[pass]) {
+                if (mirrorRows != null && mirrorRows[y] >= 0) continue;
+                for (int x = tileX + PASS_X[pass]; x < endX; x += PASS_DX[pass]) {
+                    int index = y * width + x;
+                    if (cached != null && cached[index]) continue;
+                    iterate(index, x, y, trap);
+                    work += iterations[index];
+                    Colorizer.colorRun(field, colorMode, maxIter, palette, pixels, index, 1);
+                }
+            }
+        }
+        stats.iterations.add(work);
+        //a mirrored frame's mirror rows only hold their known pixels once mirrorTile copied them
+        if (mirrorRows == null) spreadPass(pass, tileX, tileY, tileWidth, tileHeight);
+    }
+
+    /**
+     * Spreads the color of every pixel known after a pass over the block it stands for, the
+     * pixels later passes will compute; the last pass leaves nothing to spread. Each row takes
+     * its colors from the nearest row of the tile at or above it whose known pixels are there,
+     * below if there is none above: on a mirrored frame, a mirror row's are there once
+     * mirrorTile copied them and its source row's are not, so this runs after mirrorTile.
+     */
+    void spreadPass(int pass, int tileX, int tileY, int tileWidth, int tileHeight) {
+        if (pass == PASSES - 1) return;
+        int knownX = KNOWN_DX[pass], knownY = KNOWN_DY[pass];
+        int endX = tileX + tileWidth, endY = tileY + tileHeight;
+        for (int y = tileY; y < endY; y++) {
+            int row = knownRow(y, knownY, tileY, endY);
+            if (row < 0) continue;
+            int source = row * width;
+            for (int x = tileX, index = y * width + tileX; x < endX; x++, index++) {
+                if (x % knownX == 0 && row == y || cached != null && cached[index]) continue;
+                pixels[index] = pixels[source + x - x % knownX];
+            }
+        }
+    }
+
+    /**
+     * Nearest row of the tile to y, at or above it first, whose pixels on the known lattice are
+     * computed or mirrored, -1 if there is none
+     */
+    private int knownRow(int y, int knownY, int tileY, int endY) {
+        for (int row = y; row >= tileY; row--) {
+            if (isKnownRow(row, knownY)) return row;
+        }
+        for (int row = y + 1; row < endY; row++) {
+            if (isKnownRow(row, knownY)) return row;
+        }
+        return -1;
+    }
+
+    private boolean isKnownRow(int y, int knownY) {
+        int computed = mirrorRows != null && mirrorRows[y] >= 0 ? mirrorRows[y] : y;
+        return computed % knownY == 0;
+    }
+
+    private long sum(int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) sum += iterations[i];
+        return sum;
+    }
+
+    /**
+     * Iterates columns x to endX of row y, starting at field index
+     */
+    private void iterateRun(int index, int x, int endX, int y, boolean trap) {
+        double y0 = yCoords[y];
+        if (pointsX != null) {
+            for (; x < endX; x++, index++) iterate(index, x, y, trap);
+        } else if (vector != null) {
+            vector.renderRow(index, x, endX, y, trap);
+        } else if (tier == MandelbrotRenderer.Precision.DOUBLE) {
+            //the common case gets its own loops, without the per pixel dispatch
+            if (trap) {
+                for (; x < endX; x++, index++) orbitTrap(index, xCoords[x], y0);
+            } else {
+                for (; x < endX; x++, index++) escape(index, xCoords[x], y0);
+            }
+        } else {
+            for (; x < endX; x++, index++) iterate(index, x, y, trap);
+        }
+    }
+
+    /**
+     * Computes a single pixel with the escape time kernel, for renderers that pick their own pixels
+     */
+    void escapePixel(int x, int y) {
+        int index = y * width + x;
+        iterate(index, x, y, false);
+        stats.iterations.add(iterations[index]);
+        pixels[index] = Colorizer.escape(iterations[index], maxIter, palette);
+    }
+
+    private void iterate(int index, int x, int y, boolean trap) {
+        double x0 = xCoords[x], y0 = yCoords[y];
+        if (pointsX != null) {
+            //offsets from the center, which the grid coordinates of FLOAT and DOUBLE frames include
+            x0 = pointsX[index];
+            y0 = pointsY[index];
+            if (tier == MandelbrotRenderer.Precision.FLOAT || tier == MandelbrotRenderer.Precision.DOUBLE) {
+                x0 += centerX;
+                y0 += centerY;
+            }
+        }
+        switch (tier) {
+            case FLOAT -> {
+                if (trap) orbitTrapFloat(index, x0, y0);
+                else escapeFloat(index, x0, y0);
+            }
+            case DOUBLE -> {
+                if (trap) orbitTrap(index, x0, y0);
+                else escape(index, x0, y0);
+            }
+            case DOUBLE_DOUBLE -> extended.doubleDouble(index, x0, y0, trap);
+            case FIXED_POINT -> extended.fixedPoint(index, x, y, trap);
+            case PERTURBATION -> perturbed(index, x0, y0, trap);
+        }
+    }
+
+    /**
+     * A pixel that outlived the reference orbit, the middle one in scan order, or -1 if there is
+     * none. The next reference goes there, so the pixels around it get a reference that lives long enough.
+     */
+    int pickGlitch() {
+        if (glitched == null) return -1;
+        int count = 0;
+        for (byte g : glitched) count += g;
+        if (count == 0) return -1;
+        int target = count / 2;
+        for (int i = 0; i < glitched.length; i++) {
+            if (glitched[i] != 0 && target-- == 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Switches to another reference orbit, for the glitched pixels once the first pass is done
+     */
+    void useReference(ReferenceOrbit orbit) {
+        reference = orbit;
+        referenceX = orbit.x.subtract(request.getFrame().getCenterX()).doubleValue();
+        referenceY = orbit.y.subtract(request.getFrame().getCenterY()).doubleValue();
+    }
+
+    /**
+     * Gives up on perturbation for the pixels still glitched and iterates them directly with a
+     * double-double or fixed point kernel instead, see repairTile
+     */
+    void useDirect(MandelbrotRenderer.Precision direct) {
+        if (pointsX != null) direct = MandelbrotRenderer.Precision.DOUBLE_DOUBLE; //see usePoints
+        reference = null;
+        tier = direct;
+        if (extended == null) extended = new ExtendedPrecision(this, request);
+    }
+
+    /**
+     * Iterates the glitched pixels of a tile again against the current reference, or with the
+     * direct kernel once useDirect was called
+     */
+    void repairTile(int tileX, int tileY, int tileWidth, int tileHeight) {
+        boolean trap = colorMode == ColorMode.ORBIT_TRAP;
+        long work = 0;
+        for (int y = tileY; y < tileY + tileHeight; y++) {
+            int index = y * width + tileX;
+            for (int x = tileX; x < tileX + tileWidth; x++, index++) {
+                if (glitched[index] == 0) continue;
+                glitched[index] = 0;
+                iterate(index, x, y, trap);
+                work += iterations[index];
+                Colorizer.colorRun(field, colorMode, maxIter, palette, pixels, index, 1);
+            }
+        }
+        stats.iterations.add(work);
+    }
+
+    /**
+     * Fills a rectangle (inclusive bounds) with one iteration count and color without iterating it
+     */
+    void fill(int x0, int y0, int x1, int y1, int iter, int color) {
+        filled = true;
+        for (int y = y0; y <= y1; y++) {
+            int from = y * width + x0, to = y * width + x1 + 1;
+            Arrays.fill(iterations, from, to, iter);
+            Arrays.fill(pixels, from, to, color);
+        }
+    }
+
+    /**
+     * Marks the field complete with whatever this frame produced, call once every pixel is done
+     */
+    void completeField(RenderRequest request) {
+        //the cardioid and bulb test stored maxIter without iterating
+        stats.iterations.add(-(stats.cardioid.sum() + stats.bulb.sum()) * maxIter);
+        //copied samples only carry magnitudes if the previous frame or the cached tiles had them
+        boolean magnitudes = !filled && (reuse == null || reuse.previous.canColor(ColorMode.SMOOTH))
+                && (placement == null || placement.magnitudes);
+        field.complete(request, magnitudes, colorMode == ColorMode.ORBIT_TRAP, stats);
+    }
+
+    /**
+     * Closed-form test for the two largest interior regions: the main cardioid and the period-2
+     * bulb. Counts the hit, so the stats show how many pixels skipped iterating entirely.
+     */
+    private boolean inCardioidOrBulb(double x0, double y0) {
+        return inCardioidOrBulb(x0, y0, 0);
+    }
+
+    /**
+     * The same test, only true for points at least margin inside either boundary, for kernels
+     * whose coordinates are more precise than the doubles the test runs on
+     */
+    boolean inCardioidOrBulb(double x0, double y0, double margin) {
+        double xq = x0 - 0.25;
+        double q = xq * xq + y0 * y0;
+        if (q * (q + xq) <= 0.25 * y0 * y0 - margin) {
+            stats.cardioid.increment();
+            return true;
+        }
+        double xb = x0 + 1;
+        if (xb * xb + y0 * y0 <= 0.0625 - margin) {
+            stats.bulb.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Iteration count and |z| at escape for the escape time and smooth modes
+     */
+    private void escape(int index, double x0, double y0) {
+        if (interiorChecks && inCardioidOrBulb(x0, y0)) {
+            iterations[index] = maxIter;
+            magnitudes[index] = 0;
+            return;
+        }
+        double x = 0, y = 0;
+        int iter = 0;
+        //Brent cycle detection: remember z at every power of two and stop once the orbit hits it
+        //again exactly. A repeating orbit can never escape, so the pixel is inside the set.
+        double savedX = 0, savedY = 0;
+        int nextSave = 2;
+        while (x * x + y * y <= 4 && iter < maxIter) {
+            double xtemp = x * x - y * y + x0;
+            y = 2 * x * y + y0;
+            x = xtemp;
+            iter++;
+            if (interiorChecks) {
+                if (x == savedX && y == savedY) {
+                    stats.periodic.increment();
+                    iterations[index] = maxIter;
+                    magnitudes[index] = 0;
+                    return;
+                }
+                if (iter == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        iterations[index] = iter;
+        if (iter == maxIter) {
+            //the final z of an interior orbit carries no meaning for the smoothing formula
+            stats.maxIter.increment();
+            magnitudes[index] = 0;
+        } else {
+            magnitudes[index] = (float) Math.sqrt(x * x + y * y);
+        }
+    }
+
+    /**
+     * The escape kernel in floats, for shallow views where float spacing is still far below a
+     * pixel. Same loop as escape, the interior tests run on the double coordinates.
+     */
+    private void escapeFloat(int index, double cx, double cy) {
+        if (interiorChecks && inCardioidOrBulb(cx, cy)) {
+            iterations[index] = maxIter;
+            magnitudes[index] = 0;
+            return;
+        }
+        float x0 = (float) cx, y0 = (float) cy;
+        float x = 0, y = 0;
+        int iter = 0;
+        float savedX = 0, savedY = 0;
+        int nextSave = 2;
+        while (x * x + y * y <= 4 && iter < maxIter) {
+            float xtemp = x * x - y * y + x0;
+            y = 2 * x * y + y0;
+            x = xtemp;
+            iter++;
+            if (interiorChecks) {
+                if (x == savedX && y == savedY) {
+                    stats.periodic.increment();
+                    iterations[index] = maxIter;
+                    magnitudes[index] = 0;
+                    return;
+                }
+                if (iter == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        iterations[index] = iter;
+        if (iter == maxIter) {
+            stats.maxIter.increment();
+            magnitudes[index] = 0;
+        } else {
+            magnitudes[index] = (float) Math.sqrt(x * x + y * y);
+        }
+    }
+
+    /**
+     * Perturbation kernel for deep frames. With Z_n the reference orbit and dc the pixel's offset
+     * from the reference point, the pixel's orbit is z_n = Z_n + delta_n where
+     * delta_n+1 = 2 Z_n delta_n + delta_n^2 + dc. Both stay tiny numbers doubles hold exactly
+     * enough, however deep the view is. When z gets smaller than delta the pixel rebases: it
+     * continues from Z_0 = 0 with delta = z, which keeps delta small and avoids the classic
+     * perturbation glitches. A pixel that is still bounded when the reference escapes has no
+     * orbit left to follow, it is marked as glitched and redone later with another reference.
+     */
+    private void perturbed(int index, double pixelX, double pixelY, boolean trap) {
+        ReferenceOrbit orbit = reference;
+        double[] zRe = orbit.re, zIm = orbit.im;
+        int last = orbit.length - 1;
+        double dcx = pixelX - referenceX, dcy = pixelY - referenceY;
+        double dx = 0, dy = 0;
+        int n = 0, m = 0;
+        double minDist = Double.MAX_VALUE;
+        if (orbit.skip > 0) {
+            //start at the series: delta = a u + b u^2 + c u^3 with u = dc / deltaMax, Horner form
+            double ur = dcx / orbit.deltaMax, ui = dcy / orbit.deltaMax;
+            double tr = orbit.cRe * ur - orbit.cIm * ui + orbit.bRe;
+            double ti = orbit.cRe * ui + orbit.cIm * ur + orbit.bIm;
+            double sr = tr * ur - ti * ui + orbit.aRe;
+            double si = tr * ui + ti * ur + orbit.aIm;
+            dx = sr * ur - si * ui;
+            dy = sr * ui + si * ur;
+            n = m = orbit.skip;
+            minDist = orbit.skippedTrap;
+        }
+        boolean rebased = false;
+        while (n < maxIter) {
+            double zx = zRe[m] + dx, zy = zIm[m] + dy;
+            double r2 = zx * zx + zy * zy;
+            if (trap && n >= 2) {
+                double dist = Math.sqrt(r2);
+                if (dist < minDist) minDist = dist;
+            }
+            if (r2 > 4) {
+                if (rebased) stats.rebased.increment();
+                iterations[index] = n;
+                magnitudes[index] = (float) Math.sqrt(r2);
+                if (trap) traps[index] = (float) escapedTrap(zx, zy, centerX + pixelX, centerY + pixelY, n, minDist);
+                return;
+            }
+            if (r2 < dx * dx + dy * dy) {
+                dx = zx;
+                dy = zy;
+                m = 0;
+                rebased = true;
+            } else if (m == last) {
+                glitched[index] = 1;
+                stats.glitched.increment();
+                break;
+            }
+            double zr = zRe[m], zi = zIm[m];
+            double nx = 2 * (zr * dx - zi * dy) + dx * dx - dy * dy + dcx;
+            double ny = 2 * (zr * dy + zi * dx) + 2 * dx * dy + dcy;
+            dx = nx;
+            dy = ny;
+            m++;
+            n++;
+        }
+        if (rebased) stats.rebased.increment();
+        if (n == maxIter) stats.maxIter.increment();
+        iterations[index] = maxIter;
+        magnitudes[index] = 0;
+        traps[index] = (float) minDist;
+    }
+
+    /**
+     * Finishes the orbit trap of a perturbed pixel past radius 2. Out there the orbit is far from
+     * any detail, so plain doubles are enough up to the shader's radius 10.
+     */
+    double escapedTrap(double x, double y, double x0, double y0, int n, double minDist) {
+        for (int i = n; i < maxIter; i++) {
+            double xtemp = x * x - y * y + x0;
+            y = 2 * x * y + y0;
+            x = xtemp;
+            double dist = Math.sqrt(x * x + y * y);
+            if (dist < minDist) minDist = dist;
+            if (x * x + y * y > 100.0) break;
+        }
+        return minDist;
+    }
+
+    /**
+     * Minimum distance of the orbit to the origin, plus the same iteration count and escape
+     * magnitude the escape kernel gives, so the field is complete for every color mode
+     */
+    private void orbitTrap(int index, double x0, double y0) {
+        double x = x0, y = y0;
+        double minDist = Double.MAX_VALUE;
+        //the trap orbit starts at z1 = c, which is exactly the escape kernel's first step, so the
+        //radius 2 crossing below lands on the same iteration and the same z
+        int escapeIter = maxIter;
+        float magnitude = 0;
+        if (x * x + y * y > 4) {
+            escapeIter = 1;
+            magnitude = (float) Math.sqrt(x * x + y * y);
+        }
+        //the trap needs the whole orbit, so only cycle detection applies here: once the orbit
+        //repeats exactly, every later point was already seen and can't lower the minimum
+        double savedX = x, savedY = y;
+        int nextSave = 2;
+
+        int i = 0;
+        for (; i < maxIter; i++) {
+            double xtemp = x * x - y * y + x0;
+            y = 2 * x * y + y0;
+            x = xtemp;
+            double dist = Math.sqrt(x * x + y * y);
+            if (dist < minDist) minDist = dist;
+            if (escapeIter == maxIter && x * x + y * y > 4 && i + 2 < maxIter) {
+                escapeIter = i + 2;
+                magnitude = (float) dist;
+            }
+            if (x * x + y * y > 100.0) break; // match the shader's escape threshold
+            if (interiorChecks) {
+                if (x == savedX && y == savedY) {
+                    stats.periodic.increment();
+                    break;
+                }
+                if (i == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        if (i == maxIter && escapeIter == maxIter) stats.maxIter.increment();
+        iterations[index] = escapeIter;
+        magnitudes[index] = magnitude;
+        traps[index] = (float) minDist;
+    }
+
+    /**
+     * orbitTrap in floats, see escapeFloat
+     */
+    private void orbitTrapFloat(int index, double cx, double cy) {
+        float x0 = (float) cx, y0 = (float) cy;
+        float x = x0, y = y0;
+        float minDist = Float.MAX_VALUE;
+        int escapeIter = maxIter;
+        float magnitude = 0;
+        if (x * x + y * y > 4) {
+            escapeIter = 1;
+            magnitude = (float) Math.sqrt(x * x + y * y);
+        }
+        float savedX = x, savedY = y;
+        int nextSave = 2;
+
+        int i = 0;
+        for (; i < maxIter; i++) {
+            float xtemp = x * x - y * y + x0;
+            y = 2 * x * y + y0;
+            x = xtemp;
+            float dist = (float) Math.sqrt(x * x + y * y);
+            if (dist < minDist) minDist = dist;
+            if (escapeIter == maxIter && x * x + y * y > 4 && i + 2 < maxIter) {
+                escapeIter = i + 2;
+                magnitude = dist;
+            }
+            if (x * x + y * y > 100.0f) break;
+            if (interiorChecks) {
+                if (x == savedX && y == savedY) {
+                    stats.periodic.increment();
+                    break;
+                }
+                if (i == nextSave) {
+                    savedX = x;
+                    savedY = y;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        if (i == maxIter && escapeIter == maxIter) stats.maxIter.increment();
+        iterations[index] = escapeIter;
+        magnitudes[index] = magnitude;
+        traps[index] = minDist;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Receives every frame a MandelbrotRenderer finishes, for telemetry, see
+ * MandelbrotRenderer.setMetrics. Called on the thread that rendered the frame, right after it
+ * completed, so implementations must be quick and thread safe. RenderTelemetry is the one that
+ * keeps histograms and publishes them over JMX; others can forward to whatever the host
+ * application reports to.
+ */
+@FunctionalInterface
+public interface RenderMetrics {
+
+    /**
+     * Metrics for renderers nobody measures
+     */
+    RenderMetrics NONE = result -> {
+    };
+
+    /**
+     * The frame is done. Its stats hold the iterations and allocations, its utilization report,
+     * if any, the per-tile costs and per-thread busy times.
+     */
+    void frameRendered(RenderResult result);
+}
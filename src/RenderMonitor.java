@@ -0,0 +1,34 @@
+/**
+ * Hooks into a running render. The renderer polls isCancelled between tiles and stops early once
+ * it returns true, and reports every finished tile so callers can show a frame while it fills in.
+ * The methods are called from the worker threads.
+ */
+public interface RenderMonitor {
+
+    /**
+     * Monitor for renders nobody watches or cancels
+     */
+    RenderMonitor NONE = new RenderMonitor() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void tileCompleted(int x, int y, int width, int height) {
+        }
+    };
+
+    boolean isCancelled();
+
+    /**
+     * Pixels in the given rectangle are final
+     */
+    void tileCompleted(int x, int y, int width, int height);
+
+    /**
+     * Pixels in the given rectangle show a coarser placeholder until their tile completes, see TileCache
+     */
+    default void tilePreviewed(int x, int y, int width, int height) {
+    }
+}
@@ -0,0 +1,245 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Immutable description of one frame for the headless renderer: the view bounds in the complex
+ * plane, the output size, the iteration limit and how to color it. The bounds are normalized to
+ * the output aspect ratio the same way the Swing panel does it, so a request built from the
+ * panel's view bounds produces the exact image shown on screen.
+ *
+ * A view can also be given by its center and width (see centered). The center then keeps full
+ * precision, which deep zooms need: past about 1e-13 the bounds themselves can't be told apart
+ * in doubles any more, and the renderer switches to perturbation (see isDeep).
+ */
+public final class RenderRequest {
+
+    private final double xMin, xMax, yMin, yMax;
+    private final int width, height;
+    private final int maxIter;
+    private final ColorMode colorMode;
+    private final int[] palette;
+    //exact view center and width, the bounds above are only their closest doubles
+    private final BigDecimal centerX, centerY;
+    private final double span;
+    //regions only: the frame they were cut from and the column and row of their first pixel in it
+    private final RenderRequest frame;
+    private final int frameX, frameY;
+
+    /**
+     * Pixel spacing, relative to the size of the view's coordinates, below which doubles can't
+     * place the pixels accurately any more
+     */
+    private static final double DEEP_PIXEL_SIZE = 1e-13;
+
+    public RenderRequest(double xMin, double xMax, double yMin, double yMax,
+                         int width, int height, int maxIter, ColorMode colorMode, int[] palette) {
+        this(xMin, xMax, yMin, yMax, width, height, maxIter, colorMode, palette,
+                new BigDecimal((xMin + xMax) / 2), new BigDecimal((yMin + yMax) / 2), xMax - xMin);
+    }
+
+    private RenderRequest(double xMin, double xMax, double yMin, double yMax,
+                          int width, int height, int maxIter, ColorMode colorMode, int[] palette,
+                          BigDecimal centerX, BigDecimal centerY, double span) {
+        this(xMin, xMax, yMin, yMax, width, height, maxIter, colorMode, palette, centerX, centerY, span,
+                null, 0, 0);
+    }
+
+    private RenderRequest(double xMin, double xMax, double yMin, double yMax,
+                          int width, int height, int maxIter, ColorMode colorMode, int[] palette,
+                          BigDecimal centerX, BigDecimal centerY, double span,
+                          RenderRequest frame, int frameX, int frameY) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+        }
+        if (maxIter <= 0) {
+            throw new IllegalArgumentException("maxIter must be positive: " + maxIter);
+        }
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        this.width = width;
+        this.height = height;
+        this.maxIter = maxIter;
+        this.colorMode = colorMode;
+        this.palette = palette;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.span = span;
+        this.frame = frame;
+        this.frameX = frameX;
+        this.frameY = frameY;
+    }
+
+    /**
+     * Request for the view of the given width around an exact center, the height follows from
+     * the output aspect ratio
+     */
+    public static RenderRequest centered(BigDecimal centerX, BigDecimal centerY, double span,
+                                         int width, int height, int maxIter, ColorMode colorMode, int[] palette) {
+        if (!(span > 0)) {
+            throw new IllegalArgumentException("View width must be positive: " + span);
+        }
+        double cx = centerX.doubleValue(), cy = centerY.doubleValue();
+        double spanY = span * height / width;
+        return new RenderRequest(cx - span / 2, cx + span / 2, cy - spanY / 2, cy + spanY / 2,
+                width, height, maxIter, colorMode, palette, centerX, centerY, span);
+    }
+
+    /**
+     * Same view, different output size. Used for previews and batch jobs that reuse one view.
+     */
+    public RenderRequest withSize(int width, int height) {
+        return new RenderRequest(xMin, xMax, yMin, yMax, width, height, maxIter, colorMode, palette,
+                centerX, centerY, span);
+    }
+
+    /**
+     * The w x h pixels at column x, row y of this frame as a frame of their own. The region
+     * remembers the frame and its place in it (see getFrame), and the kernels take its pixels'
+     * coordinates from the frame's grid, so a frame rendered region by region comes out bit for
+     * bit like the whole. Its own center and width, offset from the view's in full precision,
+     * only serve what looks at the view rather than the pixels, such as the tile cache.
+     */
+    public RenderRequest region(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Region " + w + "x" + h + " at " + x + "," + y
+                    + " outside the " + width + "x" + height + " frame");
+        }
+        BigDecimal offsetX = new BigDecimal(span).multiply(BigDecimal.valueOf(2L * x + w - width))
+                .divide(BigDecimal.valueOf(2L * width), MathContext.DECIMAL128);
+        BigDecimal offsetY = new BigDecimal(span).multiply(BigDecimal.valueOf(2L * y + h - height))
+                .divide(BigDecimal.valueOf(2L * width), MathContext.DECIMAL128);
+        RenderRequest view = centered(centerX.add(offsetX), centerY.add(offsetY), w == width ? span : span * w / width,
+                w, h, maxIter, colorMode, palette);
+        return new RenderRequest(view.xMin, view.xMax, view.yMin, view.yMax, w, h, maxIter, colorMode, palette,
+                view.centerX, view.centerY, view.span, getFrame(), frameX + x, frameY + y);
+    }
+
+    /**
+     * The frame whose pixel grid this request lies on: the one a region was cut from, or this
+     * request itself
+     */
+    RenderRequest getFrame() {
+        return frame == null ? this : frame;
+    }
+
+    /**
+     * Column and row of this request's first pixel in getFrame(), 0 unless it is a region
+     */
+    int getFrameX() { return frameX; }
+    int getFrameY() { return frameY; }
+
+    public RenderRequest withBounds(double xMin, double xMax, double yMin, double yMax) {
+        return new RenderRequest(xMin, xMax, yMin, yMax, width, height, maxIter, colorMode, palette);
+    }
+
+    /**
+     * Same frame with a different color mode or palette. The iteration field stays the same, so
+     * a renderer can recolor a cached field instead of rendering it again.
+     */
+    public RenderRequest withColoring(ColorMode colorMode, int[] palette) {
+        return new RenderRequest(xMin, xMax, yMin, yMax, width, height, maxIter, colorMode, palette,
+                centerX, centerY, span, frame, frameX, frameY);
+    }
+
+    /**
+     * True if both requests iterate the same points with the same limit, so they only differ in
+     * how the iteration field is colored
+     */
+    public boolean sameField(RenderRequest other) {
+        return Double.compare(xMin, other.xMin) == 0 && Double.compare(xMax, other.xMax) == 0
+                && Double.compare(yMin, other.yMin) == 0 && Double.compare(yMax, other.yMax) == 0
+                && width == other.width && height == other.height && maxIter == other.maxIter
+                && centerX.compareTo(other.centerX) == 0 && centerY.compareTo(other.centerY) == 0
+                && Double.compare(span, other.span) == 0
+                && frameX == other.frameX && frameY == other.frameY
+                && (frame == null ? other.frame == null : other.frame != null && frame.sameField(other.frame));
+    }
+
+    public double getXMin() { return xMin; }
+    public double getXMax() { return xMax; }
+    public double getYMin() { return yMin; }
+    public double getYMax() { return yMax; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getMaxIter() { return maxIter; }
+
+    /**
+     * Exact center of the view
+     */
+    public BigDecimal getCenterX() { return centerX; }
+    public BigDecimal getCenterY() { return centerY; }
+
+    /**
+     * Width of the view in the complex plane, the height follows from the aspect ratio
+     */
+    public double getSpan() { return span; }
+
+    /**
+     * Distance between two neighboring pixels in the complex plane, the same on both axes
+     */
+    public double getPixelSize() { return span / width; }
+
+    /**
+     * True if the pixels are too close together for double coordinates, so the frame has to be
+     * rendered as small offsets from a high precision reference orbit
+     */
+    public boolean isDeep() {
+        return getRelativePixelSize() < DEEP_PIXEL_SIZE;
+    }
+
+    /**
+     * Pixel spacing relative to the size of the view's coordinates (at least 1), which is what
+     * decides how many bits a kernel needs to tell neighboring pixels apart
+     */
+    public double getRelativePixelSize() {
+        double scale = Math.max(1, Math.max(Math.abs(centerX.doubleValue()), Math.abs(centerY.doubleValue())));
+        return getPixelSize() / scale;
+    }
+    public ColorMode getColorMode() { return colorMode; }
+    /**
+     * Packed 0xRRGGBB palette, see MandelbrotPalettes
+     */
+    public int[] getPalette() { return palette; }
+
+    /**
+     * Helper method to prevent stretching when the output size changes, so the CPU render always
+     * matches the GPUPanel which automatically normalizes based on vertical height.
+     * Returns {xMin, xMax, yMin, yMax} adjusted to the output aspect ratio.
+     */
+    public double[] normalizedBounds() {
+        double aspectRatio = (double) width / height;
+        double cx = centerX.doubleValue();
+        double cy = centerY.doubleValue();
+        double zoom = span;
+
+        double newW = zoom;
+        double newH = zoom / aspectRatio;
+
+        return new double[]{cx - newW / 2, cx + newW / 2, cy - newH / 2, cy + newH / 2};
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RenderRequest other)) return false;
+        return sameField(other)
+                && colorMode == other.colorMode && Arrays.equals(palette, other.palette);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(xMin);
+        result = 31 * result + Double.hashCode(xMax);
+        result = 31 * result + Double.hashCode(yMin);
+        result = 31 * result + Double.hashCode(yMax);
+        result = 31 * result + width;
+        result = 31 * result + height;
+        result = 31 * result + maxIter;
+        result = 31 * result + Double.hashCode(span);
+        result = 31 * result + colorMode.hashCode();
+        return 31 * result + Arrays.hashCode(palette);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Output of one headless render: packed RGB pixels (row-major, same layout as
+ * BufferedImage.TYPE_INT_RGB) plus the iteration field they were colored from.
+ */
+public final class RenderResult {
+
+    private final RenderRequest request;
+    private final int[] pixels;
+    private final IterationField field;
+    private final RenderStats stats;
+    private final UtilizationReport utilization;
+    private final long renderTimeNs;
+
+    RenderResult(RenderRequest request, int[] pixels, IterationField field, RenderStats stats,
+                 UtilizationReport utilization, long renderTimeNs) {
+        this.request = request;
+        this.pixels = pixels;
+        this.field = field;
+        this.stats = stats;
+        this.utilization = utilization;
+        this.renderTimeNs = renderTimeNs;
+    }
+
+    public RenderRequest getRequest() { return request; }
+    public int getWidth() { return request.getWidth(); }
+    public int getHeight() { return request.getHeight(); }
+
+    /**
+     * Packed 0xRRGGBB values, one per pixel, row-major
+     */
+    public int[] getPixels() { return pixels; }
+
+    /**
+     * Iteration count at which each pixel escaped (radius 2), or maxIter if it never did
+     */
+    public int[] getIterations() { return field.getIterations(); }
+
+    /**
+     * Raw per-pixel data of the frame, pass it to MandelbrotRenderer.recolor to change the color
+     * mode or palette without rendering again
+     */
+    public IterationField getField() { return field; }
+
+    /**
+     * How many pixels each interior short-circuit resolved
+     */
+    public RenderStats getStats() { return stats; }
+
+    /**
+     * Worker utilization and tile costs of the frame's tile pass, or null if it didn't run tile
+     * by tile (subdivision, recolors)
+     */
+    public UtilizationReport getUtilization() { return utilization; }
+
+    public double getRenderTimeMs() { return renderTimeNs / 1_000_000.0; }
+}
@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-frame counters for the interior short-circuits: how many pixels the cardioid and bulb test
+ * resolved without iterating, how many were cut short by cycle detection, and how many still ran
+ * all the way to maxIter, plus how many were copied from the previous frame, the tile cache or
+ * their mirror row instead and how many were antialiased. Deep frames also count what the
+ * perturbation engine did, and every frame what it cost in iterations and allocated memory. Updated
+ * concurrently by the worker threads.
+ */
+public final class RenderStats {
+
+    final LongAdder cardioid = new LongAdder();
+    final LongAdder bulb = new LongAdder();
+    final LongAdder periodic = new LongAdder();
+    final LongAdder maxIter = new LongAdder();
+    final LongAdder reused = new LongAdder();
+    final LongAdder cached = new LongAdder();
+    final LongAdder mirrored = new LongAdder();
+    final LongAdder rebased = new LongAdder();
+    final LongAdder glitched = new LongAdder();
+    final LongAdder iterations = new LongAdder();
+    volatile int references;
+    volatile int seriesSkip;
+    volatile long antialiased;
+    volatile long allocated = -1;
+    private final long pixels;
+
+    RenderStats(long pixels) {
+        this.pixels = pixels;
+    }
+
+    public long getPixels() { return pixels; }
+    public long getCardioidHits() { return cardioid.sum(); }
+    public long getBulbHits() { return bulb.sum(); }
+    public long getPeriodicHits() { return periodic.sum(); }
+
+    /**
+     * Pixels that iterated all the way to maxIter without being caught by a short-circuit
+     */
+    public long getMaxIterPixels() { return maxIter.sum(); }
+
+    /**
+     * Pixels copied from a previous frame whose samples they share, see MandelbrotRenderer.renderReusing
+     */
+    public long getReusedPixels() { return reused.sum(); }
+
+    /**
+     * Pixels copied from cached tiles, see TileCache
+     */
+    public long getCachedPixels() { return cached.sum(); }
+
+    /**
+     * Pixels copied from their reflection across the real axis, see MandelbrotRenderer.setMirroring
+     */
+    public long getMirroredPixels() { return mirrored.sum(); }
+
+    /**
+     * Pixels the antialiasing pass sampled again, see MandelbrotRenderer.setAntialiasing
+     */
+    public long getAntialiasedPixels() { return antialiased; }
+
+    /**
+     * Iterations the frame computed: the escape counts of the pixels it iterated, including the
+     * antialiasing samples and glitch repairs, not counting copied or filled pixels and the ones
+     * the cardioid and bulb test resolved. Pixels caught by cycle detection count as maxIter, so
+     * this is a little high for frames with a lot of interior.
+     */
+    public long getIterations() { return iterations.sum(); }
+
+    /**
+     * Bytes the rendering thread and the workers allocated during the frame, -1 if the JVM
+     * doesn't count them
+     */
+    public long getAllocatedBytes() { return allocated; }
+
+    /**
+     * Reference orbits computed for a perturbation frame, 0 for frames iterated in plain doubles
+     */
+    public int getReferenceOrbits() { return references; }
+
+    /**
+     * Iterations every pixel skipped thanks to the series approximation of the first reference
+     */
+    public int getSeriesSkip() { return seriesSkip; }
+
+    /**
+     * Pixels that switched back to the start of the reference orbit at least once
+     */
+    public long getRebasedPixels() { return rebased.sum(); }
+
+    /**
+     * Pixels that outlived a reference orbit and had to be redone with another one
+     */
+    public long getGlitchedPixels() { return glitched.sum(); }
+
+    @Override
+    public String toString() {
+        String interior = String.format("Interior: %d cardioid, %d bulb, %d periodic, %d ran to maxIter (of %d pixels)",
+                getCardioidHits(), getBulbHits(), getPeriodicHits(), getMaxIterPixels(), pixels);
+        long reusedPixels = getReusedPixels();
+        if (reusedPixels != 0) interior += String.format(", %d reused", reusedPixels);
+        long cachedPixels = getCachedPixels();
+        if (cachedPixels != 0) interior += String.format(", %d cached", cachedPixels);
+        if (antialiased != 0) interior += String.format(", %d antialiased", antialiased);
+        interior += String.format("%nWork: %d iterations", getIterations());
+        if (allocated >= 0) interior += String.format(", %.1f KB allocated", allocated / 1024.0);
+        if (references == 0) return interior;
+        return interior + String.format("%nPerturbation: %d reference orbits, %d iterations skipped by series, "
+                + "%d pixels rebased, %d glitched", references, seriesSkip, getRebasedPixels(), getGlitchedPixels());
+    }
+}
@@ -0,0 +1,209 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running metrics of one renderer: frame and tile latency histograms, iterations and their rate,
+ * per-thread busy time, live queue depth, cache hit rates and allocations per frame. Install it
+ * with MandelbrotRenderer.setMetrics and publish it with register, then any JMX client
+ * (jconsole, VisualVM, a Prometheus JMX exporter) can read it while frames render.
+ */
+public final class RenderTelemetry implements RenderMetrics, RenderTelemetryMXBean {
+
+    private final MandelbrotRenderer renderer;
+    private final LatencyHistogram frames = new LatencyHistogram();
+    private final LatencyHistogram tiles = new LatencyHistogram();
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder copied = new LongAdder();
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder renderNs = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder allocationFrames = new LongAdder(); //frames whose allocations were counted
+    private final Map<String, LongAdder> busy = new ConcurrentHashMap<>();
+    private volatile double lastIterationsPerSecond;
+    private volatile double lastUtilization = Double.NaN, lastImbalance = Double.NaN;
+    private volatile long lastAllocated = -1;
+    private ObjectName name;
+
+    /**
+     * Telemetry of the renderer's frames. Doesn't install itself, see MandelbrotRenderer.setMetrics.
+     */
+    public RenderTelemetry(MandelbrotRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Creates telemetry for the renderer, installs it and registers it with the platform MBean
+     * server under the given name, e.g. "viewer"
+     */
+    public static RenderTelemetry install(MandelbrotRenderer renderer, String name) {
+        RenderTelemetry telemetry = new RenderTelemetry(renderer);
+        renderer.setMetrics(telemetry);
+        telemetry.register(name);
+        return telemetry;
+    }
+
+    @Override
+    public void frameRendered(RenderResult result) {
+        RenderStats stats = result.getStats();
+        long ns = Math.round(result.getRenderTimeMs() * 1e6);
+        frames.record(ns);
+        renderNs.add(ns);
+        pixels.add(stats.getPixels());
+        copied.add(stats.getReusedPixels() + stats.getCachedPixels() + stats.getMirroredPixels());
+        long frameIterations = stats.getIterations();
+        iterations.add(frameIterations);
+        lastIterationsPerSecond = ns == 0 ? 0 : frameIterations * 1e9 / ns;
+        long bytes = stats.getAllocatedBytes();
+        lastAllocated = bytes;
+        if (bytes >= 0) {
+            allocated.add(bytes);
+            allocationFrames.increment();
+        }
+        UtilizationReport report = result.getUtilization();
+        if (report != null) {
+            for (long cost : report.getTileCosts()) {
+                if (cost > 0) tiles.record(cost);
+            }
+            for (Map.Entry<String, Long> e : report.getBusyTimes().entrySet()) {
+                busy.computeIfAbsent(e.getKey(), k -> new LongAdder()).add(e.getValue());
+            }
+            lastUtilization = report.getUtilization();
+            lastImbalance = report.getImbalance();
+        }
+    }
+
+    /**
+     * Publishes the telemetry as mandelbrot:type=RenderTelemetry,name=name. Throws
+     * IllegalArgumentException if the name is taken or not a valid JMX name.
+     */
+    public synchronized void register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("mandelbrot:type=RenderTelemetry,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("Telemetry already registered as " + name, e);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Can't register telemetry as " + name, e);
+        }
+    }
+
+    /**
+     * Removes the telemetry from the MBean server, if it was registered
+     */
+    public synchronized void unregister() {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            //already gone
+        }
+        name = null;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getFrameLatency() { return frames.summary(); }
+
+    @Override
+    public LatencyHistogram.Summary getTileLatency() { return tiles.summary(); }
+
+    @Override
+    public long getFrames() { return frames.getCount(); }
+
+    @Override
+    public long getPixels() { return pixels.sum(); }
+
+    @Override
+    public long getIterations() { return iterations.sum(); }
+
+    @Override
+    public double getIterationsPerSecond() {
+        long ns = renderNs.sum();
+        return ns == 0 ? 0 : iterations.sum() * 1e9 / ns;
+    }
+
+    @Override
+    public double getLastIterationsPerSecond() { return lastIterationsPerSecond; }
+
+    @Override
+    public Map<String, Long> getThreadBusyMs() {
+        Map<String, Long> ms = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : busy.entrySet()) ms.put(e.getKey(), e.getValue().sum() / 1_000_000);
+        return ms;
+    }
+
+    @Override
+    public double getLastUtilization() { return lastUtilization; }
+
+    @Override
+    public double getLastImbalance() { return lastImbalance; }
+
+    @Override
+    public long getQueuedTasks() { return renderer.getQueuedTasks(); }
+
+    @Override
+    public int getActiveWorkers() { return renderer.getActiveWorkers(); }
+
+    @Override
+    public double getTileCacheHitRate() {
+        TileCache cache = renderer.getTileCache();
+        if (cache == null) return Double.NaN;
+        long hits = cache.getHits(), lookups = hits + cache.getMisses();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public double getCopiedPixelRate() {
+        long total = pixels.sum();
+        return total == 0 ? 0 : (double) copied.sum() / total;
+    }
+
+    @Override
+    public double getMeanAllocatedBytes() {
+        long counted = allocationFrames.sum();
+        return counted == 0 ? -1 : (double) allocated.sum() / counted;
+    }
+
+    @Override
+    public long getLastAllocatedBytes() { return lastAllocated; }
+
+    @Override
+    public void reset() {
+        frames.reset();
+        tiles.reset();
+        pixels.reset();
+        copied.reset();
+        iterations.reset();
+        renderNs.reset();
+        allocated.reset();
+        allocationFrames.reset();
+        busy.clear();
+        lastIterationsPerSecond = 0;
+        lastUtilization = lastImbalance = Double.NaN;
+        lastAllocated = -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Frames: %s%n", getFrameLatency()));
+        sb.append(String.format("Tiles: %s%n", getTileLatency()));
+        sb.append(String.format("Iterations: %d, %.1f M/s%n", getIterations(), getIterationsPerSecond() / 1e6));
+        sb.append(String.format("Copied pixels: %.1f%%", getCopiedPixelRate() * 100));
+        double hitRate = getTileCacheHitRate();
+        if (!Double.isNaN(hitRate)) sb.append(String.format(", tile cache hit rate %.1f%%", hitRate * 100));
+        double bytes = getMeanAllocatedBytes();
+        if (bytes >= 0) sb.append(String.format(", %.1f KB allocated per frame", bytes / 1024));
+        sb.append(String.format("%n"));
+        for (Map.Entry<String, Long> e : getThreadBusyMs().entrySet()) {
+            sb.append(String.format("  %-22s busy %9d ms%n", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+}
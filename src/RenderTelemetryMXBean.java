@@ -0,0 +1,70 @@
+import java.util.Map;
+
+/**
+ * What RenderTelemetry publishes over JMX, under mandelbrot:type=RenderTelemetry. Latencies are
+ * summarized as count, mean, p50, p90, p99 and max in milliseconds.
+ */
+public interface RenderTelemetryMXBean {
+
+    LatencyHistogram.Summary getFrameLatency();
+
+    LatencyHistogram.Summary getTileLatency();
+
+    long getFrames();
+
+    long getPixels();
+
+    /**
+     * Iterations of every frame so far, see RenderStats.getIterations
+     */
+    long getIterations();
+
+    /**
+     * Iterations per second of rendering time, over every frame and over the last one
+     */
+    double getIterationsPerSecond();
+
+    double getLastIterationsPerSecond();
+
+    /**
+     * Busy milliseconds of each worker thread over every frame
+     */
+    Map<String, Long> getThreadBusyMs();
+
+    /**
+     * Worker utilization (0 to 1) and imbalance of the last tiled frame, NaN before the first
+     */
+    double getLastUtilization();
+
+    double getLastImbalance();
+
+    /**
+     * Tile tasks waiting for a worker right now, and workers busy right now
+     */
+    long getQueuedTasks();
+
+    int getActiveWorkers();
+
+    /**
+     * Lookups the tile cache could answer, 0 to 1, NaN without a cache or lookups
+     */
+    double getTileCacheHitRate();
+
+    /**
+     * Pixels copied from the previous frame, the tile cache or their mirror row instead of iterated, 0 to 1
+     */
+    double getCopiedPixelRate();
+
+    /**
+     * Bytes allocated per frame, mean over every frame and for the last one, -1 if the JVM
+     * doesn't count allocations
+     */
+    double getMeanAllocatedBytes();
+
+    long getLastAllocatedBytes();
+
+    /**
+     * Clears every counter and histogram
+     */
+    void reset();
+}
@@ -0,0 +1,103 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Worker side of distributed rendering: connects to a RenderCoordinator and renders the tiles it
+ * is sent, one at a time across all of the renderer's threads, until the coordinator hangs up.
+ * Tiles are regions of the frame they belong to (see RenderRequest.region) and take their
+ * coordinates from the frame's grid, so every pixel comes out bit for bit as in a local render of
+ * the whole frame, and a perturbation frame's reference orbit is computed once per frame, not once
+ * per tile.
+ */
+public final class RenderWorker {
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    //frames whose tiles may still arrive, hedged tiles of the last frame can trail the next one
+    private static final int RECENT_FRAMES = 4;
+
+    private RenderWorker() {
+    }
+
+    /**
+     * Serves the coordinator at the given address until it closes the connection. Returns the
+     * number of tiles rendered; throws IOException if the connection failed.
+     */
+    public static long run(MandelbrotRenderer renderer, InetSocketAddress coordinator, String name)
+            throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(coordinator, CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(WorkerProtocol.MAGIC);
+            out.writeInt(WorkerProtocol.VERSION);
+            out.writeInt(renderer.getThreads());
+            out.writeUTF(name);
+            out.flush();
+
+            Map<Integer, WorkerProtocol.Frame> frames = new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, WorkerProtocol.Frame> eldest) {
+                    return size() > RECENT_FRAMES;
+                }
+            };
+            int[] pixels = new int[0];
+            IterationField field = null;
+            long tiles = 0;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    return tiles;
+                }
+                if (type == WorkerProtocol.FRAME) {
+                    WorkerProtocol.Frame frame = WorkerProtocol.readFrame(in);
+                    frames.put(frame.id(), frame);
+                    renderer.setPrecision(frame.precision());
+                    renderer.prepareReference(frame.request());
+                    continue;
+                }
+                if (type != WorkerProtocol.TILE) throw new IOException("Unknown message type " + type);
+                int frameId = in.readInt(), tile = in.readInt();
+                int x = in.readInt(), y = in.readInt(), w = in.readInt(), h = in.readInt();
+                WorkerProtocol.Frame frame = frames.get(frameId);
+                try {
+                    if (frame == null) throw new IllegalStateException("Tile of unknown frame " + frameId);
+                    renderer.setPrecision(frame.precision());
+                    RenderRequest region = frame.request().region(x, y, w, h);
+                    if (pixels.length < w * h) pixels = new int[w * h];
+                    if (field == null || !field.fits(w, h)) field = new IterationField(w, h);
+                    long start = System.nanoTime();
+                    RenderResult result = renderer.render(region, true, pixels, field);
+                    ColorMode mode = region.getColorMode();
+                    int flags = (mode == ColorMode.SMOOTH && field.canColor(mode) ? WorkerProtocol.MAGNITUDES : 0)
+                            | (mode == ColorMode.ORBIT_TRAP ? WorkerProtocol.TRAPS : 0);
+                    byte[] data = WorkerProtocol.encode(field, flags);
+                    long ns = System.nanoTime() - start;
+                    out.writeByte(WorkerProtocol.RESULT);
+                    out.writeInt(tile);
+                    out.writeLong(ns);
+                    out.writeLong(result.getStats().getIterations());
+                    out.writeByte(flags);
+                    out.writeInt(data.length);
+                    out.write(data);
+                    tiles++;
+                } catch (RuntimeException e) {
+                    out.writeByte(WorkerProtocol.FAILED);
+                    out.writeInt(tile);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Iteration data of earlier frames, cut into square tiles on a quadtree pyramid, so panning or
+ * zooming back over a view copies its samples instead of iterating them again. Level 0 is the
+ * pixel grid of the first frame rendered through the cache and every level below it halves the
+ * spacing: tile (level, x, y) covers the same area as the four tiles (level + 1, 2x..2x+1,
+ * 2y..2y+1), and a coarser tile can stand in for its children while they compute. Frames whose
+ * pixels don't land on a level, like those of a wheel zoom, render without the cache.
+ *
+ * Tiles are keyed by level, position, maxIter and kernel precision, only tiles a frame covers
+ * completely are stored, and the least recently used ones are evicted once the tiles take more
+ * than the memory budget. Tiles are kept as TileCodec encodes them, most in a quarter or less of
+ * their decoded size, and decoded when a frame copies them. With a TileStore behind it, the cache
+ * takes the store's pyramid, loads tiles it doesn't hold from the store and writes every new tile
+ * through to it. Thread safe.
+ */
+public final class TileCache {
+
+    /**
+     * Pixels per side of a tile
+     */
+    static final int TILE_SIZE = 64;
+    /**
+     * Memory of one decoded tile: an int and two floats per pixel
+     */
+    static final long TILE_BYTES = (long) TILE_SIZE * TILE_SIZE * 12;
+    /**
+     * How far, in pixels, a frame's grid may sit from a level's grid, like FrameReuse.TOLERANCE
+     */
+    private static final double TOLERANCE = 1e-3;
+    /**
+     * Levels a missing tile looks up for a placeholder, each one doubles the pixel size
+     */
+    private static final int PLACEHOLDER_LEVELS = 4;
+    private static final BigDecimal MAX_POSITION = BigDecimal.valueOf(Long.MAX_VALUE / 4);
+
+    record Key(int level, long x, long y, int maxIter, MandelbrotRenderer.Precision precision) {
+    }
+
+    /**
+     * A tile as TileCodec encodes it
+     */
+    static final class Tile {
+        final byte[] data;
+        final boolean hasMagnitudes, hasTraps;
+
+        Tile(byte[] data) {
+            this.data = data;
+            int flags = TileCodec.flags(data);
+            hasMagnitudes = (flags & TileCodec.MAGNITUDES) != 0;
+            hasTraps = (flags & TileCodec.TRAPS) != 0;
+        }
+
+        /**
+         * Same rules as IterationField.canColor
+         */
+        boolean canColor(ColorMode mode) {
+            return switch (mode) {
+                case ESCAPE_TIME -> true;
+                case SMOOTH -> hasMagnitudes;
+                case ORBIT_TRAP -> hasTraps;
+            };
+        }
+    }
+
+    /**
+     * Decoded tile, reused for every tile a frame copies
+     */
+    private static final class Samples {
+        final int[] iterations = new int[TILE_SIZE * TILE_SIZE];
+        final float[] magnitudes = new float[TILE_SIZE * TILE_SIZE];
+        final float[] traps = new float[TILE_SIZE * TILE_SIZE];
+
+        Samples decode(Tile tile) {
+            TileCodec.decode(tile.data, iterations, magnitudes, traps, 0, TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            return this;
+        }
+    }
+
+    private final long budget;
+    private final TileStore store; //null for a cache that only lives in memory
+    //access ordered, so the eldest entry is the least recently used tile
+    private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    //first sample of level 0 and its spacing, null until the first frame roots the pyramid
+    private BigDecimal originX, originY;
+    private double rootStep;
+    private long bytes; //encoded size of the tiles in memory
+    private long hits, misses, evictions, loaded;
+
+    /**
+     * Cache holding at most budgetBytes of tiles
+     */
+    public TileCache(long budgetBytes) {
+        this(budgetBytes, null);
+    }
+
+    /**
+     * Cache holding at most budgetBytes of tiles in memory, backed by the store. The store stays
+     * open until its owner closes it.
+     */
+    public TileCache(long budgetBytes, TileStore store) {
+        if (budgetBytes < TILE_BYTES) {
+            throw new IllegalArgumentException("Tile cache budget must hold at least one tile: " + budgetBytes);
+        }
+        this.budget = budgetBytes;
+        this.store = store;
+        adoptStoreRoot();
+    }
+
+    private void adoptStoreRoot() {
+        if (store != null && store.rootStep() != 0) {
+            originX = store.originX();
+            originY = store.originY();
+            rootStep = store.rootStep();
+        }
+    }
+
+    /**
+     * Exact tile lookups that found a tile the frame's color mode can use
+     */
+    public synchronized long getHits() { return hits; }
+
+    /**
+     * Exact tile lookups that found nothing usable, the tile was iterated
+     */
+    public synchronized long getMisses() { return misses; }
+
+    /**
+     * Tiles dropped to stay within the budget
+     */
+    public synchronized long getEvictions() { return evictions; }
+
+    /**
+     * Hits that were loaded from the store
+     */
+    public synchronized long getLoaded() { return loaded; }
+
+    public TileStore getStore() { return store; }
+
+    public synchronized int getTileCount() { return tiles.size(); }
+
+    /**
+     * Memory the tiles take encoded
+     */
+    public synchronized long getBytes() { return bytes; }
+
+    public long getBudget() { return budget; }
+
+    /**
+     * Drops every tile in memory and the pyramid's root, the next frame starts a new pyramid unless
+     * the store has one. The counters keep counting.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+        originX = originY = null;
+        adoptStoreRoot();
+    }
+
+    /**
+     * Level of the request's pixel grid and the position of its first pixel on that level
+     * ({level, column, row}), or null if the grid falls between the pyramid's levels or the pyramid
+     * has no root yet
+     */
+    public synchronized long[] gridPosition(RenderRequest request) {
+        if (originX == null) return null;
+        double ratio = rootStep / request.getPixelSize();
+        int level = (int) Math.round(Math.log(ratio) / Math.log(2));
+        if (Math.abs(ratio / Math.scalb(1.0, level) - 1) > 1e-9) return null;
+        BigDecimal step = new BigDecimal(Math.scalb(rootStep, -level));
+        double spanY = request.getSpan() * request.getHeight() / request.getWidth();
+        long column = position(corner(request.getCenterX(), request.getSpan()).subtract(originX), step);
+        long row = position(corner(request.getCenterY(), spanY).subtract(originY), step);
+        if (column == Long.MIN_VALUE || row == Long.MIN_VALUE) return null;
+        return new long[]{level, column, row};
+    }
+
+    /**
+     * First sample of a view along one axis, the same one RenderFrame puts in column or row 0
+     */
+    private static BigDecimal corner(BigDecimal center, double span) {
+        return center.subtract(new BigDecimal(span / 2));
+    }
+
+    /**
+     * offset in whole steps, or Long.MIN_VALUE if it is off the grid or too far out for a long
+     */
+    private static long position(BigDecimal offset, BigDecimal step) {
+        BigDecimal steps = offset.divide(step, MathContext.DECIMAL128);
+        if (steps.abs().compareTo(MAX_POSITION) > 0) return Long.MIN_VALUE;
+        BigInteger nearest = steps.setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+        if (steps.subtract(new BigDecimal(nearest)).abs().doubleValue() > TOLERANCE) return Long.MIN_VALUE;
+        return nearest.longValueExact();
+    }
+
+    /**
+     * Places a frame on the pyramid, rooting the pyramid at it if it has no root yet. Returns null
+     * if the frame's grid falls between the levels.
+     */
+    synchronized Placement place(RenderRequest request, MandelbrotRenderer.Precision tier) {
+        if (originX == null) {
+            double spanY = request.getSpan() * request.getHeight() / request.getWidth();
+            originX = corner(request.getCenterX(), request.getSpan());
+            originY = corner(request.getCenterY(), spanY);
+            rootStep = request.getPixelSize();
+            if (store != null) {
+                try {
+                    //another process may have rooted the store in the meantime, its root wins
+                    if (!store.root(originX, originY, rootStep)) adoptStoreRoot();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        long[] position = gridPosition(request);
+        if (position == null) return null;
+        return new Placement(request, tier, (int) position[0], position[1], position[2]);
+    }
+
+    /**
+     * The tile if it is cached or stored with the data the mode needs, counted as a hit or a miss
+     */
+    private synchronized Tile lookup(Key key, ColorMode mode) {
+        Tile tile = tiles.get(key);
+        if (tile != null && tile.canColor(mode)) {
+            hits++;
+            return tile;
+        }
+        if (store != null) {
+            Tile stored = store.read(key);
+            if (stored != null && stored.canColor(mode)) {
+                hits++;
+                loaded++;
+                keep(key, stored);
+                return stored;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * The closest cached ancestor of a tile the mode can use, up to PLACEHOLDER_LEVELS up, or null.
+     * Not counted, nothing is copied from it.
+     */
+    private synchronized Map.Entry<Key, Tile> ancestor(Key key, ColorMode mode) {
+        for (int up = 1; up <= PLACEHOLDER_LEVELS; up++) {
+            Key parent = new Key(key.level() - up, key.x() >> up, key.y() >> up, key.maxIter(), key.precision());
+            Tile tile = tiles.get(parent);
+            if (tile != null && tile.canColor(mode)) return Map.entry(parent, tile);
+        }
+        return null;
+    }
+
+    private synchronized void put(Key key, Tile tile) {
+        if (store != null) {
+            try {
+                store.write(key, tile); //a full store just stops growing
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        keep(key, tile);
+    }
+
+    /**
+     * Puts the tile in memory, evicting least recently used ones past the budget
+     */
+    private void keep(Key key, Tile tile) {
+        Tile replaced = tiles.put(key, tile);
+        bytes += tile.data.length - (replaced == null ? 0 : replaced.data.length);
+        Iterator<Map.Entry<Key, Tile>> eldest = tiles.entrySet().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().data.length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        String memory = String.format("Tile cache: %d hits, %d misses, %d evictions, %d tiles (%.1f of %.1f MB, %.1fx"
+                        + " compressed)", hits, misses, evictions, tiles.size(), bytes / 1048576.0, budget / 1048576.0,
+                bytes == 0 ? 1.0 : (double) tiles.size() * TILE_BYTES / bytes);
+        if (store == null) return memory;
+        return memory + String.format(", %d loaded from %s (%d of %d tiles stored)", loaded, store.getPath(),
+                store.getTileCount(), store.getCapacity());
+    }
+
+    /**
+     * One frame's view of the pyramid: which of its pixels come from cached tiles, and which tiles
+     * it covers completely but had to iterate, to be stored once the frame is done
+     */
+    final class Placement {
+
+        private final RenderRequest request;
+        private final MandelbrotRenderer.Precision tier;
+        private final int level;
+        private final long column, row; //first pixel of the frame on the level's grid
+        //pixels copied from the cache, null until prefill found any
+        boolean[] cached;
+        long cachedPixels;
+        //false once a tile without escape magnitudes was copied, see RenderFrame.completeField
+        boolean magnitudes = true;
+        private final List<Key> missing = new ArrayList<>();
+
+        private Placement(RenderRequest request, MandelbrotRenderer.Precision tier, int level, long column, long row) {
+            this.request = request;
+            this.tier = tier;
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        /**
+         * Copies every cached tile the frame overlaps into the field and colors it, reporting it
+         * as finished. Missing tiles get the colors of a cached ancestor as a placeholder instead.
+         */
+        void prefill(IterationField field, int[] pixels, RenderMonitor monitor) {
+            int width = request.getWidth(), height = request.getHeight();
+            ColorMode mode = request.getColorMode();
+            Samples samples = new Samples();
+            for (long ty = Math.floorDiv(row, TILE_SIZE); ty * TILE_SIZE < row + height; ty++) {
+                for (long tx = Math.floorDiv(column, TILE_SIZE); tx * TILE_SIZE < column + width; tx++) {
+                    //the tile's overlap with the frame, in frame pixels
+                    int x0 = (int) Math.max(0, tx * TILE_SIZE - column);
+                    int y0 = (int) Math.max(0, ty * TILE_SIZE - row);
+                    int x1 = (int) Math.min(width, (tx + 1) * TILE_SIZE - column);
+                    int y1 = (int) Math.min(height, (ty + 1) * TILE_SIZE - row);
+                    Key key = new Key(level, tx, ty, request.getMaxIter(), tier);
+                    Tile tile = lookup(key, mode);
+                    if (tile != null) {
+                        copy(samples.decode(tile), tx, ty, x0, y0, x1, y1, field, pixels);
+                        magnitudes &= tile.hasMagnitudes;
+                        monitor.tileCompleted(x0, y0, x1 - x0, y1 - y0);
+                        continue;
+                    }
+                    if (x1 - x0 == TILE_SIZE && y1 - y0 == TILE_SIZE) missing.add(key);
+                    Map.Entry<Key, Tile> parent = ancestor(key, mode);
+                    if (parent != null) {
+                        placeholder(samples.decode(parent.getValue()), parent.getKey(), x0, y0, x1, y1, pixels);
+                        monitor.tilePreviewed(x0, y0, x1 - x0, y1 - y0);
+                    }
+                }
+            }
+        }
+
+        private void copy(Samples tile, long tx, long ty, int x0, int y0, int x1, int y1,
+                          IterationField field, int[] pixels) {
+            if (cached == null) cached = new boolean[request.getWidth() * request.getHeight()];
+            int width = request.getWidth();
+            for (int y = y0; y < y1; y++) {
+                int from = (int) ((row + y - ty * TILE_SIZE) * TILE_SIZE + (column + x0 - tx * TILE_SIZE));
+                int to = y * width + x0;
+                System.arraycopy(tile.iterations, from, field.iterations, to, x1 - x0);
+                System.arraycopy(tile.magnitudes, from, field.magnitudes, to, x1 - x0);
+                System.arraycopy(tile.traps, from, field.traps, to, x1 - x0);
+                Arrays.fill(cached, to, to + x1 - x0, true);
+                Colorizer.colorRun(field, request.getColorMode(), request.getMaxIter(), request.getPalette(),
+                        pixels, to, x1 - x0);
+            }
+            cachedPixels += (long) (x1 - x0) * (y1 - y0);
+        }
+
+        /**
+         * Colors the frame pixels x0..x1, y0..y1 with the nearest samples of an ancestor tile
+         */
+        private void placeholder(Samples tile, Key parent, int x0, int y0, int x1, int y1, int[] pixels) {
+            int up = level - parent.level();
+            int maxIter = request.getMaxIter();
+            int[] palette = request.getPalette();
+            for (int y = y0; y < y1; y++) {
+                int py = (int) (((row + y) >> up) - parent.y() * TILE_SIZE);
+                for (int x = x0; x < x1; x++) {
+                    int px = (int) (((column + x) >> up) - parent.x() * TILE_SIZE);
+                    int i = py * TILE_SIZE + px;
+                    pixels[y * request.getWidth() + x] = switch (request.getColorMode()) {
+                        case ESCAPE_TIME -> Colorizer.escape(tile.iterations[i], maxIter, palette);
+                        case SMOOTH -> Colorizer.smooth(tile.iterations[i], tile.magnitudes[i], maxIter, palette);
+                        case ORBIT_TRAP -> Colorizer.trap(tile.traps[i], palette);
+                    };
+                }
+            }
+        }
+
+        /**
+         * Stores the tiles the completed frame covers that weren't cached yet
+         */
+        void store(IterationField field) {
+            int width = request.getWidth();
+            //encoded without the arrays the field has no data in
+            float[] escapes = field.canColor(ColorMode.SMOOTH) ? field.magnitudes : null;
+            float[] traps = field.canColor(ColorMode.ORBIT_TRAP) ? field.traps : null;
+            for (Key key : missing) {
+                int x0 = (int) (key.x() * TILE_SIZE - column), y0 = (int) (key.y() * TILE_SIZE - row);
+                put(key, new Tile(TileCodec.encode(field.iterations, escapes, traps, y0 * width + x0, width,
+                        TILE_SIZE, TILE_SIZE)));
+            }
+        }
+    }
+}
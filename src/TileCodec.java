@@ -0,0 +1,305 @@
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a rectangle of iteration data, a quarter or less of the 12 bytes per pixel
+ * an IterationField takes for most tiles, and fast both ways: no deflate, one pass over the
+ * pixels each way.
+ *
+ * Counts are stored as offsets from the tile's smallest count, in 1, 2 or 4 bytes, whichever the
+ * largest offset needs. Escape magnitudes are only kept as precisely as smooth coloring uses them:
+ * ln |z| goes into 16 bits between the tile's smallest and largest, which with the escape radius
+ * of 2 puts the smoothing fraction log2(ln |z|) within 2e-5 of an iteration, and 0 stays 0 for
+ * pixels inside the set. ln rather than the fraction itself costs one log to encode and one exp to
+ * decode. Tiles with magnitudes the fraction can't hold keep them as raw
+ * floats. Trap distances feed the orbit trap palette directly and are kept raw. Every section is
+ * packed into runs, which collapses the interior and the wide bands of equal counts far from the
+ * set.
+ *
+ * Layout, big-endian: a flags byte, the smallest count and the counts section; with MAGNITUDES the
+ * smallest and largest ln |z| as floats unless RAW_MAGNITUDES, and the magnitudes section; with
+ * TRAPS the traps section. A section is a byte with the value width in its low bits and RUNS if it
+ * is packed, then the values. Packed, a varint n << 1 | 1 is followed by one value for n pixels and
+ * a varint n << 1 by n values. A section that packs worse than plain is written plain.
+ */
+final class TileCodec {
+
+    //flags byte
+    static final int MAGNITUDES = 1;
+    static final int TRAPS = 2;
+    private static final int RAW_MAGNITUDES = 4;
+    //section byte
+    private static final int RUNS = 0x80;
+    /**
+     * Shortest run worth a token of its own, shorter ones stay in the literals around them
+     */
+    private static final int MIN_RUN = 3;
+    private static final int LEVELS = 65535; //quantized ln |z| 1..LEVELS, 0 for inside the set
+
+    private TileCodec() {
+    }
+
+    /**
+     * Most bytes encode can return for a tile of the given pixels
+     */
+    static int maxBytes(int pixels) {
+        return 12 * pixels + 16;
+    }
+
+    /**
+     * Encodes the w x h rectangle at offset of arrays with rows stride apart. magnitudes and traps
+     * may be null, the tile then has no such data.
+     */
+    static byte[] encode(int[] iterations, float[] magnitudes, float[] traps, int offset, int stride, int w, int h) {
+        int count = w * h;
+        int[] values = new int[count];
+        byte[] out = new byte[maxBytes(count)];
+        int at = 1;
+
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int r = 0, i = 0; r < h; r++) {
+            for (int c = 0, from = offset + r * stride; c < w; c++, i++, from++) {
+                int value = iterations[from];
+                values[i] = value;
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+        }
+        for (int i = 0; i < count; i++) values[i] -= min;
+        long range = (long) max - min;
+        at = putInt(out, at, min);
+        at = writeSection(values, count, range < 1 << 8 ? 1 : range < 1 << 16 ? 2 : 4, out, at);
+
+        int flags = 0;
+        if (magnitudes != null) {
+            flags |= MAGNITUDES;
+            double[] logs = new double[count];
+            double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY;
+            for (int r = 0, i = 0; r < h && low == low; r++) {
+                for (int c = 0, from = offset + r * stride; c < w; c++, i++, from++) {
+                    float magnitude = magnitudes[from];
+                    if (magnitude == 0) continue;
+                    if (!(magnitude > 1) || magnitude == Float.POSITIVE_INFINITY) {
+                        low = Double.NaN; //no fraction for it, keep the floats
+                        break;
+                    }
+                    double log = Math.log(magnitude);
+                    logs[i] = log;
+                    if (log < low) low = log;
+                    if (log > high) high = log;
+                }
+            }
+            if (low == low) {
+                float lowest = (float) low, highest = (float) high; //the decoder only sees these
+                double scale = highest > lowest ? (LEVELS - 1) / ((double) highest - lowest) : 0;
+                for (int r = 0, i = 0; r < h; r++) {
+                    for (int c = 0, from = offset + r * stride; c < w; c++, i++, from++) {
+                        int level = magnitudes[from] == 0 ? 0 : 1 + (int) Math.round((logs[i] - lowest) * scale);
+                        values[i] = Math.max(0, Math.min(LEVELS, level));
+                    }
+                }
+                at = putInt(out, at, Float.floatToRawIntBits(lowest));
+                at = putInt(out, at, Float.floatToRawIntBits(highest));
+                at = writeSection(values, count, 2, out, at);
+            } else {
+                flags |= RAW_MAGNITUDES;
+                at = writeSection(gather(magnitudes, values, offset, stride, w, h), count, 4, out, at);
+            }
+        }
+        if (traps != null) {
+            flags |= TRAPS;
+            at = writeSection(gather(traps, values, offset, stride, w, h), count, 4, out, at);
+        }
+        out[0] = (byte) flags;
+        return Arrays.copyOf(out, at);
+    }
+
+    private static int[] gather(float[] source, int[] values, int offset, int stride, int w, int h) {
+        for (int r = 0, i = 0; r < h; r++) {
+            for (int c = 0, from = offset + r * stride; c < w; c++, i++, from++) {
+                values[i] = Float.floatToRawIntBits(source[from]);
+            }
+        }
+        return values;
+    }
+
+    private static int writeSection(int[] values, int count, int bytes, byte[] out, int start) {
+        int plain = start + 1 + count * bytes;
+        int at = start + 1;
+        for (int i = 0; i < count; ) {
+            int run = run(values, i, count);
+            if (run >= MIN_RUN) {
+                if (at + 5 + bytes > plain) return writePlain(values, count, bytes, out, start);
+                at = putVarint(out, at, run << 1 | 1);
+                at = putValue(out, at, values[i], bytes);
+                i += run;
+                continue;
+            }
+            int end = i + run;
+            while (end < count) {
+                int next = run(values, end, count);
+                if (next >= MIN_RUN) break;
+                end += next;
+            }
+            if (at + 5 + (end - i) * bytes > plain) return writePlain(values, count, bytes, out, start);
+            at = putVarint(out, at, (end - i) << 1);
+            for (; i < end; i++) at = putValue(out, at, values[i], bytes);
+        }
+        out[start] = (byte) (bytes | RUNS);
+        return at;
+    }
+
+    private static int writePlain(int[] values, int count, int bytes, byte[] out, int start) {
+        out[start] = (byte) bytes;
+        int at = start + 1;
+        for (int i = 0; i < count; i++) at = putValue(out, at, values[i], bytes);
+        return at;
+    }
+
+    private static int run(int[] values, int from, int count) {
+        int value = values[from], end = from + 1;
+        while (end < count && values[end] == value) end++;
+        return end - from;
+    }
+
+    /**
+     * Flags of an encoded tile, which of MAGNITUDES and TRAPS it holds
+     */
+    static int flags(byte[] data) {
+        return data[0] & (MAGNITUDES | TRAPS);
+    }
+
+    /**
+     * Decodes a tile encoded as w x h into the rectangle at offset of arrays with rows stride apart.
+     * Arrays the tile has no data for are filled with zeros there, null ones are skipped. Throws
+     * IllegalArgumentException if the data isn't such a tile.
+     */
+    static void decode(byte[] data, int[] iterations, float[] magnitudes, float[] traps,
+                       int offset, int stride, int w, int h) {
+        int count = w * h;
+        int[] values = new int[count];
+        try {
+            int flags = data[0];
+            int min = getInt(data, 1);
+            int at = readSection(data, 5, values, count);
+            for (int r = 0, i = 0; r < h; r++) {
+                for (int c = 0, to = offset + r * stride; c < w; c++, i++, to++) iterations[to] = min + values[i];
+            }
+
+            if ((flags & MAGNITUDES) == 0) {
+                zero(magnitudes, offset, stride, w, h);
+            } else if ((flags & RAW_MAGNITUDES) != 0) {
+                at = readSection(data, at, values, count);
+                scatter(values, magnitudes, offset, stride, w, h);
+            } else {
+                float lowest = Float.intBitsToFloat(getInt(data, at));
+                float highest = Float.intBitsToFloat(getInt(data, at + 4));
+                at = readSection(data, at + 8, values, count);
+                if (magnitudes != null) {
+                    double step = ((double) highest - lowest) / (LEVELS - 1);
+                    for (int r = 0, i = 0; r < h; r++) {
+                        for (int c = 0, to = offset + r * stride; c < w; c++, i++, to++) {
+                            int level = values[i];
+                            magnitudes[to] = level == 0 ? 0 : (float) Math.exp(lowest + (level - 1) * step);
+                        }
+                    }
+                }
+            }
+
+            if ((flags & TRAPS) == 0) {
+                zero(traps, offset, stride, w, h);
+            } else {
+                at = readSection(data, at, values, count);
+                scatter(values, traps, offset, stride, w, h);
+            }
+            if (at != data.length) {
+                throw new IllegalArgumentException("Tile data is longer than a " + w + "x" + h + " tile");
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Tile data doesn't fit a " + w + "x" + h + " tile", e);
+        }
+    }
+
+    private static void zero(float[] target, int offset, int stride, int w, int h) {
+        if (target == null) return;
+        for (int r = 0; r < h; r++) Arrays.fill(target, offset + r * stride, offset + r * stride + w, 0);
+    }
+
+    private static void scatter(int[] values, float[] target, int offset, int stride, int w, int h) {
+        if (target == null) return;
+        for (int r = 0, i = 0; r < h; r++) {
+            for (int c = 0, to = offset + r * stride; c < w; c++, i++, to++) {
+                target[to] = Float.intBitsToFloat(values[i]);
+            }
+        }
+    }
+
+    private static int readSection(byte[] data, int at, int[] values, int count) {
+        int header = data[at++] & 0xFF;
+        int bytes = header & ~RUNS;
+        if (bytes != 1 && bytes != 2 && bytes != 4) throw new IllegalArgumentException("Bad tile section " + header);
+        if ((header & RUNS) == 0) {
+            for (int i = 0; i < count; i++, at += bytes) values[i] = getValue(data, at, bytes);
+            return at;
+        }
+        for (int i = 0; i < count; ) {
+            int token = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[at++];
+                token |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+                if (shift == 21) throw new IllegalArgumentException("Bad tile run");
+            }
+            int n = token >>> 1;
+            if (n == 0 || n > count - i) throw new IllegalArgumentException("Tile run past the tile");
+            if ((token & 1) != 0) {
+                Arrays.fill(values, i, i + n, getValue(data, at, bytes));
+                at += bytes;
+                i += n;
+            } else {
+                for (int end = i + n; i < end; i++, at += bytes) values[i] = getValue(data, at, bytes);
+            }
+        }
+        return at;
+    }
+
+    private static int putVarint(byte[] out, int at, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[at++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out[at++] = (byte) value;
+        return at;
+    }
+
+    private static int putValue(byte[] out, int at, int value, int bytes) {
+        switch (bytes) {
+            case 1 -> out[at++] = (byte) value;
+            case 2 -> {
+                out[at++] = (byte) (value >>> 8);
+                out[at++] = (byte) value;
+            }
+            default -> at = putInt(out, at, value);
+        }
+        return at;
+    }
+
+    private static int getValue(byte[] data, int at, int bytes) {
+        return switch (bytes) {
+            case 1 -> data[at] & 0xFF;
+            case 2 -> (data[at] & 0xFF) << 8 | data[at + 1] & 0xFF;
+            default -> getInt(data, at);
+        };
+    }
+
+    private static int putInt(byte[] out, int at, int value) {
+        out[at] = (byte) (value >>> 24);
+        out[at + 1] = (byte) (value >>> 16);
+        out[at + 2] = (byte) (value >>> 8);
+        out[at + 3] = (byte) value;
+        return at + 4;
+    }
+
+    private static int getInt(byte[] data, int at) {
+        return (data[at] & 0xFF) << 24 | (data[at + 1] & 0xFF) << 16 | (data[at + 2] & 0xFF) << 8 | data[at + 3] & 0xFF;
+    }
+}
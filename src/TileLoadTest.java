@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for a TileServer: a number of clients request tiles in a closed loop, each as soon as
+ * its last one came back, and the run reports tiles per second, latency percentiles and how the
+ * server answered. A share of the requests goes to a small set of hot tiles, so repeats and
+ * simultaneous requests for one tile (cache hits and coalescing) show up like they would behind a
+ * real map viewer. Without --url it starts a server of its own on a free local port.
+ *
+ * Example: java -cp out TileLoadTest --clients 32 --requests 2000 --zoom 2-7
+ */
+public class TileLoadTest {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java TileLoadTest [options]",
+            "  --url base          server to test, e.g. http://localhost:8080 (default: start one in process)",
+            "  --clients n         concurrent clients (default 16)",
+            "  --requests n        tile requests in total (default 1000)",
+            "  --zoom a-b          zoom levels to request (default 2-6)",
+            "  --hot f             share of requests for the 16 hot tiles (default 0.5)",
+            "  --iter n            iterations per tile (default: the server's)",
+            "  --seed n            random seed (default 1)");
+
+    private static final int HOT_TILES = 16;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String url = null;
+        int clients = 16, total = 1000, minZoom = 2, maxZoom = 6, maxIter = 0;
+        double hot = 0.5;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--help") || i + 1 >= args.length) {
+                System.out.println(USAGE);
+                return;
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--url" -> url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "--clients" -> clients = Integer.parseInt(value);
+                case "--requests" -> total = Integer.parseInt(value);
+                case "--zoom" -> {
+                    String[] range = value.split("-");
+                    minZoom = Integer.parseInt(range[0]);
+                    maxZoom = Integer.parseInt(range[range.length - 1]);
+                }
+                case "--hot" -> hot = Double.parseDouble(value);
+                case "--iter" -> maxIter = Integer.parseInt(value);
+                case "--seed" -> seed = Long.parseLong(value);
+                default -> {
+                    System.err.println("Unknown option: " + args[i - 1]);
+                    System.err.println(USAGE);
+                    System.exit(2);
+                }
+            }
+        }
+
+        TileServer local = null;
+        MandelbrotRenderer renderer = null;
+        if (url == null) {
+            renderer = new MandelbrotRenderer();
+            RenderTelemetry.install(renderer, "load-test");
+            RenderRequest defaults = new RenderRequest(-2, 1, -1.5, 1.5, TileServer.TILE_SIZE, TileServer.TILE_SIZE,
+                    1000, ColorMode.SMOOTH, MandelbrotPalettes.generateFirePalette());
+            local = new TileServer(renderer, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), defaults,
+                    TileServer.DEFAULT_QUEUE, TileServer.DEFAULT_CACHE_BYTES);
+            local.start();
+            url = "http://localhost:" + local.getPort();
+        }
+        try {
+            run(url, clients, total, minZoom, maxZoom, hot, maxIter, seed);
+            if (local != null) System.out.print(local.toString() + renderer.getMetrics());
+        } finally {
+            if (local != null) local.close();
+            if (renderer != null) renderer.shutdown();
+        }
+    }
+
+    private static void run(String url, int clients, int total, int minZoom, int maxZoom, double hot, int maxIter,
+                            long seed) throws InterruptedException {
+        String query = maxIter > 0 ? "?iter=" + maxIter : "";
+        SplittableRandom random = new SplittableRandom(seed);
+        String[] hotTiles = new String[HOT_TILES];
+        for (int i = 0; i < HOT_TILES; i++) hotTiles[i] = randomTile(random, minZoom, maxZoom);
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        LatencyHistogram latency = new LatencyHistogram();
+        Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        LongAdder bytes = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            SplittableRandom own = random.split();
+            pool.execute(() -> {
+                while (next.getAndIncrement() < total) {
+                    String tile = own.nextDouble() < hot ? hotTiles[own.nextInt(HOT_TILES)]
+                            : randomTile(own, minZoom, maxZoom);
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/tiles/" + tile + ".png" + query))
+                            .timeout(Duration.ofMinutes(5)).build();
+                    long sent = System.nanoTime();
+                    String outcome;
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        outcome = response.statusCode() + " " + response.headers().firstValue("X-Tile-Source").orElse("");
+                        if (response.statusCode() == 200) {
+                            latency.record(System.nanoTime() - sent);
+                            bytes.add(response.body().length);
+                        }
+                    } catch (IOException e) {
+                        outcome = "error " + e.getClass().getSimpleName();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    outcomes.computeIfAbsent(outcome.trim(), k -> new LongAdder()).increment();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram.Summary summary = latency.summary();
+        System.out.printf("%d requests from %d clients in %.2f s: %.1f tiles/s, %.1f MB/s%n", total, clients, seconds,
+                summary.getCount() / seconds, bytes.sum() / 1048576.0 / seconds);
+        System.out.printf("Latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                summary.getP50Ms(), summary.getP90Ms(), summary.getP99Ms(), summary.getMaxMs());
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(outcomes).entrySet()) {
+            System.out.printf("  %-20s %d%n", e.getKey(), e.getValue().sum());
+        }
+    }
+
+    private static String randomTile(SplittableRandom random, int minZoom, int maxZoom) {
+        int z = minZoom + random.nextInt(maxZoom - minZoom + 1);
+        int tiles = 1 << Math.min(z, 30);
+        return z + "/" + random.nextInt(tiles) + "/" + random.nextInt(tiles);
+    }
+}
@@ -0,0 +1,195 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived work-stealing scheduler for tiled renders. A frame is cut into small square tiles and
+ * handed to a ForkJoinPool as one recursive task that keeps splitting the tile range in half, so
+ * idle workers steal the remaining halves from busy ones. Expensive tiles along the set boundary
+ * end up spread over every core instead of stalling the one thread that owned that band.
+ * The pool is created once and reused for every frame.
+ */
+public class TileScheduler {
+
+    /**
+     * Work done for one tile. Called concurrently from the worker threads, each with a disjoint tile.
+     */
+    @FunctionalInterface
+    public interface TileTask {
+        void renderTile(int x, int y, int width, int height);
+    }
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final int tileSize;
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet(); //for allocations, pruned as they end
+
+    public TileScheduler(int threads, int tileSize) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.threads = threads;
+        this.tileSize = tileSize;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.pool = new ForkJoinPool(threads, pool -> {
+            var worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            //names must be unique, the utilization stats are keyed by thread name
+            worker.setName("mandelbrot-tile-" + workerCount.getAndIncrement());
+            worker.setDaemon(true); //never keep the JVM alive for a render
+            workers.add(worker);
+            return worker;
+        }, null, false);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Runs the task over every tile of a width x height frame and blocks until all are done.
+     * Returns how busy each worker was, for spotting load imbalance.
+     */
+    public UtilizationReport run(int width, int height, TileTask task) {
+        return run(width, height, task, RenderMonitor.NONE);
+    }
+
+    /**
+     * Same as run, but skips every tile not yet started once the monitor is cancelled and reports
+     * each finished tile to it. Cancelling stops a frame within one tile per worker.
+     */
+    public UtilizationReport run(int width, int height, TileTask task, RenderMonitor monitor) {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        Map<String, long[]> busy = new ConcurrentHashMap<>();
+        long[] costs = new long[tilesX * tilesY]; //each tile's slot is only written by the worker that ran it
+        long start = System.nanoTime();
+        pool.invoke(new TileRange(0, tilesX * tilesY, tilesX, width, height, task, monitor, busy, costs));
+        long wall = System.nanoTime() - start;
+        return new UtilizationReport(threads, tileSize, tilesX, costs, wall, busy);
+    }
+
+    /**
+     * Tasks waiting in the pool's queues right now, stolen or not yet split, a gauge of how far
+     * the workers are behind
+     */
+    public long getQueuedTasks() {
+        return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+    }
+
+    /**
+     * Workers running or stealing tasks right now
+     */
+    public int getActiveWorkers() {
+        return pool.getActiveThreadCount();
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread and each live worker, keyed by thread id, or
+     * null if the JVM doesn't count them. Diff two of these with allocatedBetween.
+     */
+    Map<Long, Long> allocations() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean)
+                || !bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        workers.removeIf(worker -> !worker.isAlive());
+        Map<Long, Long> bytes = new HashMap<>();
+        bytes.put(Thread.currentThread().getId(), bean.getCurrentThreadAllocatedBytes());
+        for (Thread worker : workers) {
+            long allocated = bean.getThreadAllocatedBytes(worker.getId());
+            if (allocated >= 0) bytes.put(worker.getId(), allocated);
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes allocated between two allocations() snapshots, -1 if either is null. Workers started
+     * in between count from zero, ones that ended in between are lost.
+     */
+    static long allocatedBetween(Map<Long, Long> before, Map<Long, Long> after) {
+        if (before == null || after == null) return -1;
+        long total = 0;
+        for (Map.Entry<Long, Long> e : after.entrySet()) {
+            total += e.getValue() - before.getOrDefault(e.getKey(), 0L);
+        }
+        return total;
+    }
+
+    /**
+     * Runs any other fork-join task on the same workers, e.g. a recursive subdivision of the frame
+     */
+    public void invoke(ForkJoinTask<?> task) {
+        pool.invoke(task);
+    }
+
+    /**
+     * Stops the worker threads. Already running frames finish first.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Range of tile indices, split in half until a single tile is left
+     */
+    private final class TileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, tilesX, width, height;
+        private final TileTask task;
+        private final RenderMonitor monitor;
+        private final Map<String, long[]> busy;
+        private final long[] costs;
+
+        TileRange(int from, int to, int tilesX, int width, int height, TileTask task,
+                  RenderMonitor monitor, Map<String, long[]> busy, long[] costs) {
+            this.from = from;
+            this.to = to;
+            this.tilesX = tilesX;
+            this.width = width;
+            this.height = height;
+            this.task = task;
+            this.monitor = monitor;
+            this.busy = busy;
+            this.costs = costs;
+        }
+
+        @Override
+        protected void compute() {
+            if (monitor.isCancelled()) return;
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileRange(from, mid, tilesX, width, height, task, monitor, busy, costs),
+                        new TileRange(mid, to, tilesX, width, height, task, monitor, busy, costs));
+                return;
+            }
+            int tx = (from % tilesX) * tileSize;
+            int ty = (from / tilesX) * tileSize;
+            int tw = Math.min(tileSize, width - tx), th = Math.min(tileSize, height - ty);
+            long start = System.nanoTime();
+            task.renderTile(tx, ty, tw, th);
+            long elapsed = System.nanoTime() - start;
+            costs[from] = elapsed;
+            monitor.tileCompleted(tx, ty, tw, th);
+            //[0] = busy nanoseconds, [1] = tiles, only ever touched by the owning thread
+            long[] stats = busy.computeIfAbsent(Thread.currentThread().getName(), k -> new long[2]);
+            stats[0] += elapsed;
+            stats[1]++;
+        }
+    }
+}
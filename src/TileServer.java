@@ -0,0 +1,381 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded HTTP server for map tiles, rendered by a MandelbrotRenderer like the viewer's:
+ * /tiles/z/x/y.png for colored 256px tiles and /tiles/z/x/y.iter for their raw iteration counts
+ * (the MITR format of MandelbrotCli --iterations). Level 0 is one tile over the square
+ * [-2.5, 1.5] x [-2, 2], every level has twice the tiles per side, y grows with the imaginary
+ * part like the rows of every other frame. Query parameters iter, mode and palette override the
+ * defaults. /stats reports the server's counters as text, and the renderer's RenderTelemetry if
+ * it has one.
+ *
+ * Identical requests in flight share one render, finished tiles are kept encoded in an LRU cache,
+ * and renders queue up to a fixed depth behind the render threads; past it the server answers 503
+ * with Retry-After right away instead of piling up work it can't finish. A request waiting on a
+ * render holds no thread, it is answered from the render's completion.
+ */
+public final class TileServer implements AutoCloseable {
+
+    public static final int TILE_SIZE = 256;
+    public static final int DEFAULT_QUEUE = 64;
+    public static final long DEFAULT_CACHE_BYTES = 128L << 20;
+    private static final BigDecimal ROOT_X = BigDecimal.valueOf(-2.5), ROOT_Y = BigDecimal.valueOf(-2);
+    private static final BigDecimal ROOT_SPAN = BigDecimal.valueOf(4);
+    //same limit as the viewer, the perturbation's pixel offsets turn subnormal past it
+    private static final double MIN_PIXEL_SIZE = 1e-290;
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final long RENDER_TIMEOUT_SECONDS = 300;
+    //handlers only parse requests and write replies, they never wait on a render
+    private static final int HANDLER_THREADS = 4;
+
+    /**
+     * Everything a tile's bytes depend on. Raw tiles have no mode or palette.
+     */
+    private record Key(int z, BigInteger x, BigInteger y, int maxIter, ColorMode mode, String palette, boolean raw) {
+    }
+
+    private final MandelbrotRenderer renderer;
+    private final RenderRequest defaults;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ThreadPoolExecutor renders;
+    private final Map<Key, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final Map<Key, byte[]> encoded = new LinkedHashMap<>(256, 0.75f, true); //LRU, guarded by itself
+    private final long cacheBudget;
+    private long cacheBytes; //guarded by encoded
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram(); //of tile requests that got a tile
+
+    /**
+     * Server on the address (port 0 picks a free one) that renders with the renderer, taking
+     * maxIter, color mode and palette from defaults. At most queueDepth renders wait for one of
+     * the two render threads, encoded tiles take up to cacheBytes. Call start to serve.
+     */
+    public TileServer(MandelbrotRenderer renderer, InetSocketAddress address, RenderRequest defaults,
+                      int queueDepth, long cacheBytes) throws IOException {
+        if (queueDepth <= 0) {
+            throw new IllegalArgumentException("Queue depth must be positive: " + queueDepth);
+        }
+        this.renderer = renderer;
+        this.defaults = defaults;
+        this.cacheBudget = cacheBytes;
+        AtomicInteger handlerCount = new AtomicInteger();
+        //a fixed pool: a request for a tile that isn't cached is answered from the tile's completion,
+        //not by a thread blocked on it, so requests for tiles in flight don't grow the pool
+        this.handlers = Executors.newFixedThreadPool(HANDLER_THREADS,
+                r -> daemon(r, "mandelbrot-http-" + handlerCount.getAndIncrement()));
+        //each render already runs on every core, a second thread encodes one tile while the next renders
+        AtomicInteger renderCount = new AtomicInteger();
+        this.renders = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueDepth),
+                r -> daemon(r, "mandelbrot-tile-render-" + renderCount.getAndIncrement()));
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(handlers);
+        server.createContext("/tiles/", this::handleTile);
+        server.createContext("/stats", this::handleStats);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, drops queued renders and waits up to a second for running exchanges
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        renders.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    private void handleTile(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        requests.increment();
+        if (!exchange.getRequestMethod().equals("GET")) {
+            try (exchange) {
+                sendText(exchange, 405, "Only GET is supported");
+            }
+            return;
+        }
+        Key key;
+        try {
+            key = parse(exchange.getRequestURI());
+        } catch (IllegalArgumentException e) {
+            try (exchange) {
+                sendText(exchange, 400, e.getMessage());
+            }
+            return;
+        }
+        byte[] body = cached(key);
+        if (body != null) {
+            cacheHits.increment();
+            try (exchange) {
+                sendTile(exchange, key, body, "hit", start);
+            }
+            return;
+        }
+        String source = "miss";
+        CompletableFuture<byte[]> tile = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, tile);
+        if (running != null) {
+            source = "coalesced";
+            coalesced.increment();
+            tile = running;
+        } else {
+            byte[] finished = cached(key); //a render may have finished between the two lookups
+            if (finished != null) {
+                inFlight.remove(key, tile);
+                tile.complete(finished);
+            } else {
+                submit(key, tile);
+            }
+        }
+        //the reply goes out on a handler once the tile is done, the timeout only ends this request's wait
+        String from = source;
+        tile.copy().orTimeout(RENDER_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenCompleteAsync((tileBody, error) -> reply(exchange, key, tileBody, error, from, start), handlers);
+    }
+
+    /**
+     * Answers a request for a tile that wasn't cached once its render completed: the tile, 503
+     * with Retry-After if the queue was full, 504 if it took too long, 500 if it failed
+     */
+    private void reply(HttpExchange exchange, Key key, byte[] body, Throwable error, String source, long start) {
+        try (exchange) {
+            if (error == null) {
+                sendTile(exchange, key, body, source, start);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof RejectedExecutionException) {
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Render queue full, retry later");
+            } else if (cause instanceof TimeoutException) {
+                failed.increment();
+                sendText(exchange, 504, "Render took longer than " + RENDER_TIMEOUT_SECONDS + " s");
+            } else {
+                failed.increment();
+                sendText(exchange, 500, "Render failed: " + cause);
+            }
+        } catch (IOException e) {
+            //the client hung up, nothing left to tell it
+        }
+    }
+
+    private void sendTile(HttpExchange exchange, Key key, byte[] body, String source, long start) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", key.raw() ? "application/octet-stream" : "image/png");
+        //a tile never changes, browsers and proxies can keep it
+        exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400, immutable");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().set("X-Tile-Source", source);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Queues the tile's render, or fails it right away if the queue is full. Either way the tile
+     * leaves inFlight once it completes, after a finished one went into the cache, so no request
+     * finds it in neither.
+     */
+    private void submit(Key key, CompletableFuture<byte[]> tile) {
+        try {
+            renders.execute(() -> {
+                try {
+                    byte[] body = render(key);
+                    cache(key, body);
+                    rendered.increment();
+                    tile.complete(body);
+                } catch (Throwable e) {
+                    tile.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, tile);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, tile);
+            tile.completeExceptionally(e);
+        }
+    }
+
+    private byte[] render(Key key) throws IOException {
+        BigDecimal span = ROOT_SPAN.divide(new BigDecimal(BigInteger.ONE.shiftLeft(key.z()))); //exact, a power of two
+        BigDecimal half = BigDecimal.valueOf(0.5);
+        BigDecimal centerX = ROOT_X.add(span.multiply(new BigDecimal(key.x()).add(half)));
+        BigDecimal centerY = ROOT_Y.add(span.multiply(new BigDecimal(key.y()).add(half)));
+        int[] palette = key.palette() == null ? defaults.getPalette() : MandelbrotPalettes.byName(key.palette());
+        ColorMode mode = key.mode() == null ? defaults.getColorMode() : key.mode();
+        RenderRequest request = RenderRequest.centered(centerX, centerY, span.doubleValue(), TILE_SIZE, TILE_SIZE,
+                key.maxIter(), mode, palette);
+        RenderResult result = renderer.render(request);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(key.raw() ? 16 + 4 * TILE_SIZE * TILE_SIZE : 64 << 10);
+        if (key.raw()) {
+            MandelbrotCli.writeIterations(result, out);
+        } else {
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(result.getPixels(), 0, raster, 0, raster.length);
+            ImageIO.write(image, "png", out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Parses /tiles/z/x/y.png or .iter and the iter, mode and palette parameters
+     */
+    private Key parse(URI uri) {
+        String[] parts = uri.getPath().substring("/tiles/".length()).split("/");
+        if (parts.length != 3 || !(parts[2].endsWith(".png") || parts[2].endsWith(".iter"))) {
+            throw new IllegalArgumentException("Expected /tiles/z/x/y.png or /tiles/z/x/y.iter: " + uri.getPath());
+        }
+        boolean raw = parts[2].endsWith(".iter");
+        String y = parts[2].substring(0, parts[2].lastIndexOf('.'));
+        int z;
+        BigInteger tileX, tileY;
+        try {
+            z = Integer.parseInt(parts[0]);
+            tileX = new BigInteger(parts[1]);
+            tileY = new BigInteger(y);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad tile coordinates: " + uri.getPath());
+        }
+        if (z < 0 || 4 / Math.pow(2, z) / TILE_SIZE < MIN_PIXEL_SIZE) {
+            throw new IllegalArgumentException("Zoom level out of range: " + z);
+        }
+        BigInteger tiles = BigInteger.ONE.shiftLeft(z);
+        if (tileX.signum() < 0 || tileY.signum() < 0 || tileX.compareTo(tiles) >= 0 || tileY.compareTo(tiles) >= 0) {
+            throw new IllegalArgumentException("Tile outside level " + z + ": " + tileX + "/" + tileY);
+        }
+        Map<String, String> query = query(uri);
+        int maxIter = defaults.getMaxIter();
+        if (query.containsKey("iter")) {
+            try {
+                maxIter = Integer.parseInt(query.get("iter"));
+            } catch (NumberFormatException e) {
+                maxIter = 0;
+            }
+            if (maxIter <= 0 || maxIter > MAX_ITERATIONS) {
+                throw new IllegalArgumentException("iter must be between 1 and " + MAX_ITERATIONS);
+            }
+        }
+        if (raw) return new Key(z, tileX, tileY, maxIter, null, null, true);
+        ColorMode mode = query.containsKey("mode") ? MandelbrotCli.parseMode(query.get("mode")) : null;
+        String palette = query.get("palette");
+        if (palette != null) {
+            try {
+                MandelbrotPalettes.byName(palette); //unknown names fail here, not in the render
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown palette: " + palette);
+            }
+        }
+        return new Key(z, tileX, tileY, maxIter, mode, palette, false);
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        if (uri.getQuery() == null) return query;
+        for (String pair : uri.getQuery().split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) query.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return query;
+    }
+
+    private byte[] cached(Key key) {
+        synchronized (encoded) {
+            return encoded.get(key);
+        }
+    }
+
+    private void cache(Key key, byte[] body) {
+        if (body.length > cacheBudget) return;
+        synchronized (encoded) {
+            byte[] old = encoded.put(key, body);
+            if (old != null) cacheBytes -= old.length;
+            cacheBytes += body.length;
+            var eldest = encoded.entrySet().iterator();
+            while (cacheBytes > cacheBudget) {
+                cacheBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            String stats = toString();
+            if (renderer.getMetrics() instanceof RenderTelemetry telemetry) stats += telemetry;
+            sendText(exchange, 200, stats);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public String toString() {
+        int tiles;
+        long bytes;
+        synchronized (encoded) {
+            tiles = encoded.size();
+            bytes = cacheBytes;
+        }
+        return String.format("Tile server on port %d: %d requests, %d cache hits, %d coalesced, %d rendered, "
+                        + "%d rejected, %d failed%nQueue: %d waiting, %d in flight%nCache: %d tiles (%.1f of %.1f MB)%n"
+                        + "Latency: %s%n",
+                getPort(), requests.sum(), cacheHits.sum(), coalesced.sum(), rendered.sum(), rejected.sum(),
+                failed.sum(), renders.getQueue().size(), inFlight.size(), tiles, bytes / 1048576.0,
+                cacheBudget / 1048576.0, latency.summary());
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Tiles of a TileCache kept in a memory-mapped file, so they outlive the JVM and can be shared by
+ * several processes: one precomputes a region, the others copy its tiles instead of iterating.
+ * A store belongs to one pyramid, whose root is saved in the header; frames on another grid
+ * don't use it.
+ *
+ * Layout: a 1 KB header (magic, version, tile size, capacity, tile count, the root's spacing and
+ * corner), an open-addressing index of 2 * capacity entries, then capacity tile slots of
+ * TileCache.TILE_BYTES each. A slot holds the length of the tile as TileCodec encodes it and the
+ * encoded tile. Slots are handed out in order and never freed or written twice, the file grows by
+ * a chunk of slots whenever the next one is needed and the OS pages the chunks in lazily. Writers
+ * lock the header; a tile is written to a fresh slot before its index entry is marked used or
+ * switched over to that slot, so readers never see half a tile. A replaced tile leaves its old
+ * slot behind.
+ */
+public final class TileStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D425453; //"MBTS"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 1024;
+    private static final int ORIGIN_BYTES = 256; //length prefixed BigDecimal string per axis
+    private static final int ENTRY_BYTES = 32;
+    private static final int CHUNK_SLOTS = 256; //12 MB of tiles per mapping and per step the file grows
+    //header offsets
+    private static final int COUNT = 16, ROOT_STEP = 20, ORIGIN_X = 28, ORIGIN_Y = ORIGIN_X + ORIGIN_BYTES;
+    //an index entry holds a state, a flags and a precision byte, then level, x, y, maxIter and slot
+    private static final int USED = 1, MAGNITUDES = 2, TRAPS = 4; //flag bits
+    /**
+     * Tiles a new store has room for, 768 MB once full. The file only grows as tiles are stored.
+     */
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    private final Path path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer[] chunks;
+    private final int capacity;
+    private final long dataStart;
+
+    private TileStore(Path path, RandomAccessFile file, int capacity) throws IOException {
+        this.path = path;
+        this.file = file;
+        this.channel = file.getChannel();
+        this.capacity = capacity;
+        long indexBytes = 2L * capacity * ENTRY_BYTES;
+        this.dataStart = (HEADER_BYTES + indexBytes + 4095) / 4096 * 4096;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        this.index = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, indexBytes);
+        this.chunks = new MappedByteBuffer[(capacity + CHUNK_SLOTS - 1) / CHUNK_SLOTS];
+    }
+
+    /**
+     * Opens the store in the file, or creates one with room for capacity tiles if the file doesn't
+     * exist. The file grows a chunk at a time as tiles are stored. Throws IOException if the file
+     * isn't a tile store of this version and tile size.
+     */
+    @SuppressWarnings("try")
+    public static TileStore open(Path path, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Tile store capacity must be positive: " + capacity);
+        }
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        try {
+            //the size is checked under the lock, or two processes creating the same store could
+            //both find it empty and the second would reset the header after the first stored tiles
+            try (FileLock lock = file.getChannel().lock()) {
+                boolean exists = file.length() > 0;
+                if (exists) {
+                    file.seek(0);
+                    if (file.readInt() != MAGIC || file.readInt() != VERSION || file.readInt() != TileCache.TILE_SIZE) {
+                        throw new IOException("Not a tile store of version " + VERSION + ": " + path);
+                    }
+                    capacity = file.readInt();
+                }
+                TileStore store = new TileStore(path, file, capacity);
+                if (!exists) {
+                    file.setLength(store.dataStart);
+                    store.header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, TileCache.TILE_SIZE)
+                            .putInt(12, capacity).putInt(COUNT, 0);
+                }
+                return store;
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() { return path; }
+
+    public int getCapacity() { return capacity; }
+
+    /**
+     * Tiles stored so far, by every process
+     */
+    public synchronized int getTileCount() { return header.getInt(COUNT); }
+
+    /**
+     * Spacing of the root level, or 0 if no frame has rooted the pyramid yet
+     */
+    synchronized double rootStep() {
+        return header.getDouble(ROOT_STEP);
+    }
+
+    synchronized BigDecimal originX() { return readDecimal(ORIGIN_X); }
+
+    synchronized BigDecimal originY() { return readDecimal(ORIGIN_Y); }
+
+    /**
+     * Roots the store's pyramid, unless another process did it first. Returns true if the store
+     * now has this root.
+     */
+    @SuppressWarnings("try")
+    synchronized boolean root(BigDecimal originX, BigDecimal originY, double rootStep) throws IOException {
+        try (FileLock lock = channel.lock(0, HEADER_BYTES, false)) {
+            if (header.getDouble(ROOT_STEP) == 0) {
+                writeDecimal(ORIGIN_X, originX);
+                writeDecimal(ORIGIN_Y, originY);
+                header.putDouble(ROOT_STEP, rootStep);
+            }
+        }
+        return header.getDouble(ROOT_STEP) == rootStep && originX.compareTo(readDecimal(ORIGIN_X)) == 0
+                && originY.compareTo(readDecimal(ORIGIN_Y)) == 0;
+    }
+
+    private BigDecimal readDecimal(int offset) {
+        int length = header.getShort(offset);
+        if (length == 0) return null;
+        byte[] bytes = new byte[length];
+        header.get(offset + 2, bytes);
+        return new BigDecimal(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    private void writeDecimal(int offset, BigDecimal value) throws IOException {
+        byte[] bytes = value.toString().getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > ORIGIN_BYTES - 2) throw new IOException("Pyramid root has too many digits for " + path);
+        header.putShort(offset, (short) bytes.length);
+        header.put(offset + 2, bytes);
+    }
+
+    /**
+     * The stored tile of the key, or null if it isn't stored
+     */
+    synchronized TileCache.Tile read(TileCache.Key key) {
+        int entry = find(key);
+        if (entry < 0 || index.get(entry) == 0) return null;
+        int slot = index.getInt(entry + 28);
+        MappedByteBuffer chunk = chunk(slot);
+        int at = offset(slot);
+        int length = chunk.getInt(at);
+        if (length <= 0 || length > TileCache.TILE_BYTES - 4) {
+            throw new UncheckedIOException(new IOException("Damaged tile in slot " + slot + " of " + path));
+        }
+        byte[] data = new byte[length];
+        chunk.get(at + 4, data);
+        return new TileCache.Tile(data);
+    }
+
+    /**
+     * Stores the tile, replacing a stored one with the same key. Returns false once the store is
+     * full, or for the rare tile that doesn't encode into a slot.
+     */
+    @SuppressWarnings("try")
+    synchronized boolean write(TileCache.Key key, TileCache.Tile tile) throws IOException {
+        if (tile.data.length > TileCache.TILE_BYTES - 4) return false;
+        try (FileLock lock = channel.lock(0, HEADER_BYTES, false)) {
+            int entry = find(key);
+            int slot = header.getInt(COUNT);
+            if (entry < 0 || slot >= capacity) return false;
+            grow(slot);
+            MappedByteBuffer chunk = chunk(slot);
+            int at = offset(slot);
+            chunk.putInt(at, tile.data.length).put(at + 4, tile.data);
+            header.putInt(COUNT, slot + 1);
+            byte flags = (byte) (USED | (tile.hasMagnitudes ? MAGNITUDES : 0) | (tile.hasTraps ? TRAPS : 0));
+            if (index.get(entry) != 0) {
+                //readers still on the old slot find the old tile there, untouched
+                index.put(entry + 1, flags).putInt(entry + 28, slot);
+                return true;
+            }
+            index.put(entry + 1, flags).put(entry + 2, (byte) key.precision().ordinal())
+                    .putInt(entry + 4, key.level()).putLong(entry + 8, key.x()).putLong(entry + 16, key.y())
+                    .putInt(entry + 24, key.maxIter()).putInt(entry + 28, slot);
+            index.put(entry, (byte) 1); //last, a reader that sees it finds the whole tile
+            return true;
+        }
+    }
+
+    /**
+     * Byte offset of the key's index entry, or of the empty entry it would go in, or -1 if the
+     * index is full. Linear probing from a hash that is the same in every process.
+     */
+    private int find(TileCache.Key key) {
+        int entries = 2 * capacity;
+        long hash = key.level();
+        hash = hash * 0x9E3779B97F4A7C15L + key.x();
+        hash = hash * 0x9E3779B97F4A7C15L + key.y();
+        hash = hash * 0x9E3779B97F4A7C15L + key.maxIter();
+        hash = hash * 0x9E3779B97F4A7C15L + key.precision().ordinal();
+        int start = (int) Math.floorMod(hash ^ (hash >>> 29), (long) entries);
+        for (int probe = 0; probe < entries; probe++) {
+            int entry = ((start + probe) % entries) * ENTRY_BYTES;
+            if (index.get(entry) == 0) return entry;
+            if (index.get(entry + 2) == key.precision().ordinal() && index.getInt(entry + 4) == key.level()
+                    && index.getLong(entry + 8) == key.x() && index.getLong(entry + 16) == key.y()
+                    && index.getInt(entry + 24) == key.maxIter()) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Extends the file to the end of the slot's chunk. Only writers call it, under the header lock:
+     * mapping past the end would also extend the file, but two processes doing that at once could
+     * cut it back to the shorter of their sizes.
+     */
+    private void grow(int slot) throws IOException {
+        int c = slot / CHUNK_SLOTS;
+        long end = dataStart + Math.min((long) (c + 1) * CHUNK_SLOTS, capacity) * TileCache.TILE_BYTES;
+        if (file.length() < end) file.setLength(end);
+    }
+
+    private MappedByteBuffer chunk(int slot) {
+        int c = slot / CHUNK_SLOTS;
+        if (chunks[c] == null) {
+            long slots = Math.min(CHUNK_SLOTS, capacity - (long) c * CHUNK_SLOTS);
+            try {
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        dataStart + (long) c * CHUNK_SLOTS * TileCache.TILE_BYTES, slots * TileCache.TILE_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map tiles of " + path, e);
+            }
+        }
+        return chunks[c];
+    }
+
+    private static int offset(int slot) {
+        return (int) ((slot % CHUNK_SLOTS) * TileCache.TILE_BYTES);
+    }
+
+    /**
+     * Writes the mapped pages back to the file and closes it
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        header.force();
+        index.force();
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null) chunk.force();
+        }
+        file.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Tile store %s: %d of %d tiles", path, getTileCount(), capacity);
+    }
+}
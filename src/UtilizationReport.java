@@ -0,0 +1,121 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How busy each worker thread was during one frame of a TileScheduler run. Utilization is the
+ * total busy time divided by (threads * wall time); imbalance is the busiest thread's time over
+ * the average, so 1.0 means perfectly even work. Also keeps what every tile cost, for finding
+ * where a frame spends its time.
+ */
+public final class UtilizationReport {
+
+    private final int threads;
+    private final int tileSize;
+    private final int tiles;
+    private final int tilesX;
+    private final long[] tileCosts;
+    private final long wallNs;
+    private final Map<String, long[]> perThread;
+
+    UtilizationReport(int threads, int tileSize, int tilesX, long[] tileCosts, long wallNs,
+                      Map<String, long[]> perThread) {
+        this.threads = threads;
+        this.tileSize = tileSize;
+        this.tiles = tileCosts.length;
+        this.tilesX = tilesX;
+        this.tileCosts = tileCosts;
+        this.wallNs = wallNs;
+        this.perThread = new TreeMap<>(perThread);
+    }
+
+    public double getWallTimeMs() {
+        return wallNs / 1_000_000.0;
+    }
+
+    public int getTiles() {
+        return tiles;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Tiles per row, tile i covers the tileSize square at column i % tilesX and row i / tilesX
+     */
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    /**
+     * Nanoseconds each tile took, row-major, 0 for tiles skipped by a cancelled frame
+     */
+    public long[] getTileCosts() {
+        return tileCosts;
+    }
+
+    /**
+     * Busy nanoseconds of each worker thread that got tiles, by thread name
+     */
+    public Map<String, Long> getBusyTimes() {
+        Map<String, Long> busy = new TreeMap<>();
+        for (Map.Entry<String, long[]> e : perThread.entrySet()) busy.put(e.getKey(), e.getValue()[0]);
+        return Collections.unmodifiableMap(busy);
+    }
+
+    /**
+     * Fraction of the available thread time spent rendering tiles, 0 to 1
+     */
+    public double getUtilization() {
+        if (wallNs == 0) return 1.0;
+        return (double) totalBusyNs() / ((double) threads * wallNs);
+    }
+
+    /**
+     * Busiest thread time over the mean busy time of all threads. Threads that got no tiles
+     * count as zero, so idle cores show up as imbalance.
+     */
+    public double getImbalance() {
+        long max = 0;
+        for (long[] stats : perThread.values()) max = Math.max(max, stats[0]);
+        double mean = (double) totalBusyNs() / threads;
+        return mean == 0 ? 1.0 : max / mean;
+    }
+
+    /**
+     * This report and the next pass over the same tiles as one, with the costs and busy times of
+     * both added up
+     */
+    UtilizationReport plus(UtilizationReport next) {
+        long[] costs = tileCosts.clone();
+        for (int i = 0; i < costs.length && i < next.tileCosts.length; i++) costs[i] += next.tileCosts[i];
+        Map<String, long[]> busy = new TreeMap<>();
+        for (Map.Entry<String, long[]> e : perThread.entrySet()) busy.put(e.getKey(), e.getValue().clone());
+        for (Map.Entry<String, long[]> e : next.perThread.entrySet()) {
+            long[] stats = busy.computeIfAbsent(e.getKey(), name -> new long[2]);
+            stats[0] += e.getValue()[0];
+            stats[1] += e.getValue()[1];
+        }
+        return new UtilizationReport(Math.max(threads, next.threads), tileSize, tilesX, costs, wallNs + next.wallNs,
+                busy);
+    }
+
+    private long totalBusyNs() {
+        long total = 0;
+        for (long[] stats : perThread.values()) total += stats[0];
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Frame: %.2f ms, %d tiles of %dpx on %d threads, utilization %.1f%%, imbalance %.2f%n",
+                getWallTimeMs(), tiles, tileSize, threads, getUtilization() * 100, getImbalance()));
+        for (Map.Entry<String, long[]> e : perThread.entrySet()) {
+            long[] stats = e.getValue();
+            sb.append(String.format("  %-22s busy %9.2f ms  %5d tiles%n", e.getKey(), stats[0] / 1_000_000.0, stats[1]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wire format between a RenderCoordinator and its RenderWorkers, all big-endian DataStreams.
+ *
+ * A worker opens with MAGIC, VERSION, its thread count and a name. The coordinator then sends
+ * FRAME once per frame a worker takes part in, with the view the tiles of that frame are cut from,
+ * and TILE for every tile: frame id, tile id and the tile's rectangle in the frame, 25 bytes.
+ * Workers answer each tile with RESULT, the tile id, render time, iteration count and the tile's
+ * field as encoded by encode(), or with FAILED, the tile id and a message.
+ */
+final class WorkerProtocol {
+
+    static final int MAGIC = 0x4D424457; //"MBDW"
+    static final int VERSION = 1;
+
+    //coordinator to worker
+    static final byte FRAME = 1;
+    static final byte TILE = 2;
+
+    //worker to coordinator
+    static final byte RESULT = 1;
+    static final byte FAILED = 2;
+
+    //which float arrays follow the iterations in a result
+    static final int MAGNITUDES = 1;
+    static final int TRAPS = 2;
+
+    private WorkerProtocol() {
+    }
+
+    /**
+     * A frame as the worker sees it: the view and the precision tier to render it in
+     */
+    record Frame(int id, RenderRequest request, MandelbrotRenderer.Precision precision) {
+    }
+
+    static void writeFrame(DataOutputStream out, int id, RenderRequest request,
+                           MandelbrotRenderer.Precision precision) throws IOException {
+        out.writeByte(FRAME);
+        out.writeInt(id);
+        out.writeUTF(request.getCenterX().toString());
+        out.writeUTF(request.getCenterY().toString());
+        out.writeDouble(request.getSpan());
+        out.writeInt(request.getWidth());
+        out.writeInt(request.getHeight());
+        out.writeInt(request.getMaxIter());
+        out.writeByte(request.getColorMode().ordinal());
+        out.writeByte(precision.ordinal());
+    }
+
+    /**
+     * Reads the rest of a FRAME message. Workers only send back fields, so the frame carries no
+     * palette and gets a stand-in.
+     */
+    static Frame readFrame(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        try {
+            BigDecimal centerX = new BigDecimal(in.readUTF()), centerY = new BigDecimal(in.readUTF());
+            double span = in.readDouble();
+            int width = in.readInt(), height = in.readInt(), maxIter = in.readInt();
+            ColorMode mode = ColorMode.values()[in.readByte()];
+            MandelbrotRenderer.Precision precision = MandelbrotRenderer.Precision.values()[in.readByte()];
+            RenderRequest request = RenderRequest.centered(centerX, centerY, span, width, height, maxIter, mode,
+                    MandelbrotPalettes.generateFirePalette());
+            return new Frame(id, request, precision);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Bad frame " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deflated tile field: the iterations as zigzag varints of the difference to the pixel on the
+     * left (the one above for the first pixel of a row), which is a single byte for most pixels,
+     * then the float arrays named by flags with their bytes split into four planes, so the sign
+     * and exponent bytes that barely change between neighbors end up next to each other.
+     */
+    static byte[] encode(IterationField field, int flags) {
+        int width = field.getWidth(), count = width * field.getHeight();
+        int floats = Integer.bitCount(flags & (MAGNITUDES | TRAPS));
+        byte[] raw = new byte[count * (5 + 4 * floats)];
+        int at = 0;
+        int[] iterations = field.iterations;
+        for (int i = 0; i < count; i++) {
+            int previous = i % width != 0 ? iterations[i - 1] : i >= width ? iterations[i - width] : 0;
+            int delta = iterations[i] - previous;
+            for (int zigzag = delta << 1 ^ delta >> 31; ; zigzag >>>= 7) {
+                if ((zigzag & ~0x7F) == 0) {
+                    raw[at++] = (byte) zigzag;
+                    break;
+                }
+                raw[at++] = (byte) (zigzag & 0x7F | 0x80);
+            }
+        }
+        if ((flags & MAGNITUDES) != 0) at = writePlanes(field.magnitudes, count, raw, at);
+        if ((flags & TRAPS) != 0) at = writePlanes(field.traps, count, raw, at);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw, 0, at);
+            deflater.finish();
+            byte[] data = new byte[at / 2 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+                length += deflater.deflate(data, length, data.length - length);
+            }
+            return Arrays.copyOf(data, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int writePlanes(float[] values, int count, byte[] raw, int at) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            for (int i = 0; i < count; i++) {
+                raw[at++] = (byte) (Float.floatToRawIntBits(values[i]) >>> shift);
+            }
+        }
+        return at;
+    }
+
+    /**
+     * Unpacks an encoded w x h tile into the frame's field at (x, y)
+     */
+    static void decode(byte[] data, int flags, IterationField target, int x, int y, int w, int h) throws IOException {
+        int count = w * h;
+        int floats = Integer.bitCount(flags & (MAGNITUDES | TRAPS));
+        byte[] raw = new byte[count * (5 + 4 * floats)];
+        int length;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            length = inflater.inflate(raw);
+            if (!inflater.finished()) throw new IOException("Tile data doesn't fit a " + w + "x" + h + " tile");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt tile data", e);
+        } finally {
+            inflater.end();
+        }
+
+        int width = target.getWidth();
+        int[] iterations = target.iterations;
+        int at = 0, previous = 0;
+        for (int r = 0; r < h; r++) {
+            int row = (y + r) * width + x;
+            for (int c = 0; c < w; c++) {
+                int zigzag = 0;
+                for (int shift = 0; ; shift += 7) {
+                    if (at == length || shift > 28) throw new IOException("Corrupt tile iterations");
+                    byte b = raw[at++];
+                    zigzag |= (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                int base = c > 0 ? previous : r > 0 ? iterations[row - width] : 0;
+                previous = base + (zigzag >>> 1 ^ -(zigzag & 1));
+                iterations[row + c] = previous;
+            }
+        }
+        if (length - at != 4 * count * floats) throw new IOException("Corrupt tile data");
+        if ((flags & MAGNITUDES) != 0) at = readPlanes(raw, at, target.magnitudes, width, x, y, w, h);
+        if ((flags & TRAPS) != 0) readPlanes(raw, at, target.traps, width, x, y, w, h);
+    }
+
+    private static int readPlanes(byte[] raw, int at, float[] values, int width, int x, int y, int w, int h) {
+        int count = w * h;
+        for (int r = 0, i = 0; r < h; r++) {
+            for (int c = 0; c < w; c++, i++) {
+                int bits = (raw[at + i] & 0xFF) << 24 | (raw[at + count + i] & 0xFF) << 16
+                        | (raw[at + 2 * count + i] & 0xFF) << 8 | raw[at + 3 * count + i] & 0xFF;
+                values[(y + r) * width + x + c] = Float.intBitsToFloat(bits);
+            }
+        }
+        return at + 4 * count;
+    }
+}